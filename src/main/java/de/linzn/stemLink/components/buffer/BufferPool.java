@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.buffer;
+
+import de.linzn.stemLink.components.IStemLinkWrapper;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+public class BufferPool {
+    /* Size classes are powers of two from 256 byte to 4 MB */
+    private static final int MIN_SIZE_SHIFT = 8;
+    private static final int MAX_SIZE_SHIFT = 22;
+    private static final int SIZE_CLASSES = MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1;
+    private static final int THREAD_CACHE_BYTES = 256 * 1024;
+    private static final int ARENA_BYTES = 8 * 1024 * 1024;
+    private static final int LEAK_SAMPLING_INTERVAL = 128;
+
+    private final IStemLinkWrapper stemLinkWrapper;
+    private final boolean direct;
+    private final Arena[] arenas;
+    private final ThreadLocal<ThreadCache> threadCache;
+    private final ReferenceQueue<PooledBuffer> leakQueue;
+    private final Map<LeakTracker, Boolean> leakTrackers;
+    private final AtomicLong acquireCount;
+    private volatile boolean paranoidLeakDetection;
+
+    /**
+     * Constructor for a BufferPool with heap buffers
+     *
+     * @param stemLinkWrapper the iLinkMask mask class for leak reports
+     */
+    public BufferPool(IStemLinkWrapper stemLinkWrapper) {
+        this(stemLinkWrapper, false);
+    }
+
+    /**
+     * Constructor for a BufferPool
+     *
+     * @param stemLinkWrapper the iLinkMask mask class for leak reports
+     * @param direct          use off heap direct buffers instead of heap buffers
+     */
+    public BufferPool(IStemLinkWrapper stemLinkWrapper, boolean direct) {
+        this.stemLinkWrapper = stemLinkWrapper;
+        this.direct = direct;
+        this.arenas = new Arena[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            this.arenas[i] = new Arena(Math.max(2, ARENA_BYTES >> (MIN_SIZE_SHIFT + i)));
+        }
+        this.threadCache = ThreadLocal.withInitial(ThreadCache::new);
+        this.leakQueue = new ReferenceQueue<>();
+        this.leakTrackers = new ConcurrentHashMap<>();
+        this.acquireCount = new AtomicLong();
+        this.paranoidLeakDetection = false;
+    }
+
+    /**
+     * Acquire a cleared buffer with at least the given capacity
+     * Buffers bigger than the largest size class are allocated unpooled
+     *
+     * @param capacity minimum capacity of the buffer
+     * @return PooledBuffer which must be released after use
+     */
+    public PooledBuffer acquire(int capacity) {
+        this.reportLeaks();
+        int sizeClass = sizeClass(capacity);
+        PooledBuffer pooledBuffer;
+        if (sizeClass < 0) {
+            pooledBuffer = new PooledBuffer(this, -1, this.allocate(capacity));
+        } else {
+            ByteBuffer buffer = this.threadCache.get().poll(sizeClass);
+            if (buffer == null) {
+                buffer = this.arenas[sizeClass].buffers.poll();
+                if (buffer != null) {
+                    this.arenas[sizeClass].size.decrementAndGet();
+                } else {
+                    buffer = this.allocate(1 << (MIN_SIZE_SHIFT + sizeClass));
+                }
+            }
+            buffer.clear();
+            pooledBuffer = new PooledBuffer(this, sizeClass, buffer);
+        }
+        if (this.paranoidLeakDetection || this.acquireCount.incrementAndGet() % LEAK_SAMPLING_INTERVAL == 0) {
+            pooledBuffer.setLeakTracker(new LeakTracker(pooledBuffer, capacity));
+        }
+        return pooledBuffer;
+    }
+
+    /**
+     * Track every acquired buffer instead of a sample
+     *
+     * @param paranoidLeakDetection true to track every buffer
+     */
+    public void setParanoidLeakDetection(boolean paranoidLeakDetection) {
+        this.paranoidLeakDetection = paranoidLeakDetection;
+    }
+
+    /**
+     * Check if this pool allocates off heap buffers
+     *
+     * @return true for direct buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Put a released buffer back into the thread cache or the shared arena
+     *
+     * @param sizeClass size class of the buffer or -1 for unpooled buffers
+     * @param buffer    released buffer
+     */
+    void recycle(int sizeClass, ByteBuffer buffer) {
+        if (sizeClass < 0) {
+            return;
+        }
+        if (this.threadCache.get().offer(sizeClass, buffer)) {
+            return;
+        }
+        Arena arena = this.arenas[sizeClass];
+        if (arena.size.incrementAndGet() <= arena.maxSize) {
+            arena.buffers.offer(buffer);
+        } else {
+            arena.size.decrementAndGet();
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Get the size class for a capacity
+     *
+     * @param capacity minimum capacity
+     * @return index of the size class or -1 if the capacity is too big for the pool
+     */
+    private static int sizeClass(int capacity) {
+        if (capacity <= 1 << MIN_SIZE_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        return shift > MAX_SIZE_SHIFT ? -1 : shift - MIN_SIZE_SHIFT;
+    }
+
+    /**
+     * Log all tracked buffers which were garbage collected without a release
+     */
+    private void reportLeaks() {
+        LeakTracker leakTracker;
+        while ((leakTracker = (LeakTracker) this.leakQueue.poll()) != null) {
+            if (this.leakTrackers.remove(leakTracker) != null) {
+                this.stemLinkWrapper.log("LEAK: PooledBuffer with capacity " + leakTracker.capacity + " was garbage collected without release", Level.SEVERE);
+                if (leakTracker.allocation != null) {
+                    this.stemLinkWrapper.log(leakTracker.allocation, Level.SEVERE);
+                }
+            }
+        }
+    }
+
+    private static class Arena {
+        private final Queue<ByteBuffer> buffers;
+        private final AtomicInteger size;
+        private final int maxSize;
+
+        private Arena(int maxSize) {
+            this.buffers = new ConcurrentLinkedQueue<>();
+            this.size = new AtomicInteger();
+            this.maxSize = maxSize;
+        }
+    }
+
+    private static class ThreadCache {
+        private final ByteBuffer[][] buffers;
+        private final int[] counts;
+
+        private ThreadCache() {
+            this.buffers = new ByteBuffer[SIZE_CLASSES][];
+            this.counts = new int[SIZE_CLASSES];
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                this.buffers[i] = new ByteBuffer[Math.max(1, Math.min(16, THREAD_CACHE_BYTES >> (MIN_SIZE_SHIFT + i)))];
+            }
+        }
+
+        private ByteBuffer poll(int sizeClass) {
+            if (this.counts[sizeClass] == 0) {
+                return null;
+            }
+            int index = --this.counts[sizeClass];
+            ByteBuffer buffer = this.buffers[sizeClass][index];
+            this.buffers[sizeClass][index] = null;
+            return buffer;
+        }
+
+        private boolean offer(int sizeClass, ByteBuffer buffer) {
+            if (this.counts[sizeClass] == this.buffers[sizeClass].length) {
+                return false;
+            }
+            this.buffers[sizeClass][this.counts[sizeClass]++] = buffer;
+            return true;
+        }
+    }
+
+    final class LeakTracker extends WeakReference<PooledBuffer> {
+        private final int capacity;
+        private final Throwable allocation;
+
+        private LeakTracker(PooledBuffer pooledBuffer, int capacity) {
+            super(pooledBuffer, leakQueue);
+            this.capacity = capacity;
+            this.allocation = paranoidLeakDetection ? new Throwable("PooledBuffer allocation") : null;
+            leakTrackers.put(this, Boolean.TRUE);
+        }
+
+        void close() {
+            leakTrackers.remove(this);
+            this.clear();
+        }
+    }
+}
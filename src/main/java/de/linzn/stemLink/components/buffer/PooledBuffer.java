@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.buffer;
+
+import java.nio.ByteBuffer;
+
+public final class PooledBuffer {
+    private final BufferPool bufferPool;
+    private final int sizeClass;
+    private ByteBuffer buffer;
+    private BufferPool.LeakTracker leakTracker;
+
+    PooledBuffer(BufferPool bufferPool, int sizeClass, ByteBuffer buffer) {
+        this.bufferPool = bufferPool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Wrap a buffer which is not owned by a pool
+     * Releasing it only invalidates this wrapper
+     *
+     * @param buffer buffer to wrap
+     * @return PooledBuffer of the buffer
+     */
+    public static PooledBuffer unpooled(ByteBuffer buffer) {
+        return new PooledBuffer(null, -1, buffer);
+    }
+
+    /**
+     * Get the underlying buffer
+     *
+     * @return ByteBuffer of this PooledBuffer
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public ByteBuffer buffer() {
+        if (this.buffer == null) {
+            throw new IllegalStateException("Buffer already released");
+        }
+        return this.buffer;
+    }
+
+    /**
+     * Give the buffer back to its pool
+     * The buffer must not be used after this call
+     *
+     * @throws IllegalStateException if the buffer was already released
+     */
+    public void release() {
+        ByteBuffer released = this.buffer();
+        this.buffer = null;
+        if (this.leakTracker != null) {
+            this.leakTracker.close();
+            this.leakTracker = null;
+        }
+        if (this.bufferPool != null) {
+            this.bufferPool.recycle(this.sizeClass, released);
+        }
+    }
+
+    void setLeakTracker(BufferPool.LeakTracker leakTracker) {
+        this.leakTracker = leakTracker;
+    }
+}
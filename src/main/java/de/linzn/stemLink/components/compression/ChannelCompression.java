@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.compression;
+
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+public class ChannelCompression {
+    private final CompressionAlgorithm algorithm;
+    private final int threshold;
+    private final int level;
+    private final byte[] dictionary;
+    private final int dictionaryId;
+
+    /**
+     * Compression settings of a channel without preset dictionary
+     *
+     * @param algorithm CompressionAlgorithm to use
+     * @param threshold minimum payload size in bytes for compression
+     */
+    public ChannelCompression(CompressionAlgorithm algorithm, int threshold) {
+        this(algorithm, threshold, Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * Compression settings of a channel
+     * A preset dictionary must be registered on both sides and helps small messages
+     * which share common strings with the dictionary
+     *
+     * @param algorithm  CompressionAlgorithm to use
+     * @param threshold  minimum payload size in bytes for compression
+     * @param level      compression level from 0 to 9 or -1 for the default
+     * @param dictionary preset dictionary or null
+     */
+    public ChannelCompression(CompressionAlgorithm algorithm, int threshold, int level, byte[] dictionary) {
+        if (threshold < 0 || level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression settings " + threshold + "/" + level);
+        }
+        this.algorithm = algorithm;
+        this.threshold = threshold;
+        this.level = level;
+        this.dictionary = dictionary != null ? dictionary.clone() : null;
+        this.dictionaryId = dictionary != null ? dictionaryId(dictionary) : 0;
+    }
+
+    /**
+     * Get the zlib id of a preset dictionary
+     *
+     * @param dictionary preset dictionary
+     * @return Adler32 checksum of the dictionary
+     */
+    static int dictionaryId(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        return (int) adler32.getValue();
+    }
+
+    public CompressionAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    byte[] getDictionary() {
+        return dictionary;
+    }
+
+    int getDictionaryId() {
+        return dictionaryId;
+    }
+}
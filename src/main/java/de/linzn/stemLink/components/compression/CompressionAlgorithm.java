@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.compression;
+
+import de.linzn.stemLink.components.protocol.ProtocolFeature;
+
+public enum CompressionAlgorithm {
+    /**
+     * JDK Deflater in zlib format, supports preset dictionaries
+     */
+    DEFLATE((byte) 1, ProtocolFeature.DEFLATE);
+
+    private final byte id;
+    private final ProtocolFeature protocolFeature;
+
+    CompressionAlgorithm(byte id, ProtocolFeature protocolFeature) {
+        this.id = id;
+        this.protocolFeature = protocolFeature;
+    }
+
+    /**
+     * Get the id of this algorithm in compressed payloads
+     *
+     * @return algorithm id
+     */
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     * Get the handshake feature which announces support for this algorithm
+     *
+     * @return ProtocolFeature of the algorithm
+     */
+    public ProtocolFeature getProtocolFeature() {
+        return protocolFeature;
+    }
+
+    /**
+     * Get the algorithm of a compressed payload
+     *
+     * @param id algorithm id of the payload
+     * @return CompressionAlgorithm or null if the id is unknown
+     */
+    public static CompressionAlgorithm fromId(byte id) {
+        for (CompressionAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+}
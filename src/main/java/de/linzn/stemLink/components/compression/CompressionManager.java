@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.compression;
+
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.components.protocol.ProtocolFeature;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class CompressionManager {
+    /* byte algorithm id, int plain length */
+    private static final int PAYLOAD_HEADER_SIZE = 5;
+    private static final int INITIAL_INFLATE_SIZE = 64 * 1024;
+    /* Deflater and Inflater are not thread safe and hold native memory, so they are reused per thread */
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final Map<ChannelName, ChannelCompression> channelCompressions;
+    private final Map<Integer, byte[]> dictionaries;
+    private volatile ChannelCompression defaultCompression;
+
+    /**
+     * Constructor for the CompressionManager
+     * No channel is compressed until it gets a ChannelCompression
+     */
+    public CompressionManager() {
+        this.channelCompressions = new ConcurrentHashMap<>();
+        this.dictionaries = new ConcurrentHashMap<>();
+        this.defaultCompression = null;
+    }
+
+    /**
+     * Set the compression of outgoing packets of a channel
+     *
+     * @param channel            channel name
+     * @param channelCompression compression settings or null to disable compression for this channel
+     */
+    public void setChannelCompression(String channel, ChannelCompression channelCompression) {
+        if (channelCompression == null) {
+            this.channelCompressions.remove(ChannelName.of(channel));
+        } else {
+            this.registerDictionary(channelCompression);
+            this.channelCompressions.put(ChannelName.of(channel), channelCompression);
+        }
+    }
+
+    /**
+     * Set the compression of outgoing packets of all channels without own settings
+     *
+     * @param channelCompression compression settings or null to disable the default compression
+     */
+    public void setDefaultCompression(ChannelCompression channelCompression) {
+        if (channelCompression != null) {
+            this.registerDictionary(channelCompression);
+        }
+        this.defaultCompression = channelCompression;
+    }
+
+    /**
+     * Register a preset dictionary for incoming packets
+     * Dictionaries of channel settings are registered automatically
+     *
+     * @param dictionary preset dictionary used by the remote side
+     */
+    public void registerDictionary(byte[] dictionary) {
+        this.dictionaries.put(ChannelCompression.dictionaryId(dictionary), dictionary.clone());
+    }
+
+    private void registerDictionary(ChannelCompression channelCompression) {
+        if (channelCompression.getDictionary() != null) {
+            this.dictionaries.put(channelCompression.getDictionaryId(), channelCompression.getDictionary());
+        }
+    }
+
+    /**
+     * Compress a payload if its channel is configured for compression
+     *
+     * @param channel        channel of the payload
+     * @param bytes          plain payload
+     * @param remoteFeatures negotiated features of the connection
+     * @return compressed payload or null if the payload is sent uncompressed
+     */
+    public byte[] compress(String channel, byte[] bytes, Set<ProtocolFeature> remoteFeatures) {
+        return this.compress(ChannelName.of(channel), bytes, remoteFeatures);
+    }
+
+    /**
+     * Compress a payload of a resolved channel if the channel is configured for compression
+     *
+     * @param channelName    ChannelName of the payload
+     * @param bytes          plain payload
+     * @param remoteFeatures negotiated features of the connection
+     * @return compressed payload or null if the payload is sent uncompressed
+     */
+    public byte[] compress(ChannelName channelName, byte[] bytes, Set<ProtocolFeature> remoteFeatures) {
+        ChannelCompression channelCompression = this.channelCompressions.get(channelName);
+        if (channelCompression == null) {
+            channelCompression = this.defaultCompression;
+        }
+        /* A payload which is not larger than the payload header can never get smaller */
+        if (channelCompression == null || bytes.length <= PAYLOAD_HEADER_SIZE || bytes.length < channelCompression.getThreshold()
+                || !remoteFeatures.contains(channelCompression.getAlgorithm().getProtocolFeature())) {
+            return null;
+        }
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setLevel(channelCompression.getLevel());
+        if (channelCompression.getDictionary() != null) {
+            deflater.setDictionary(channelCompression.getDictionary());
+        }
+        deflater.setInput(bytes);
+        deflater.finish();
+
+        /* Only worth it if the compressed payload is smaller than the plain one */
+        byte[] output = new byte[bytes.length];
+        ByteBuffer.wrap(output).put(channelCompression.getAlgorithm().getId()).putInt(bytes.length);
+        int length = PAYLOAD_HEADER_SIZE;
+        while (!deflater.finished() && length < output.length) {
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        byte[] compressed = new byte[length];
+        System.arraycopy(output, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    /**
+     * Decompress a payload of a compressed frame
+     * The plain length in the payload header is only trusted up to the limit, and the output grows with the inflated bytes
+     * instead of being allocated from the header, so a small frame can not make the receiver allocate a huge array
+     *
+     * @param payload   compressed payload
+     * @param maxLength maximum plain length which is accepted
+     * @return plain payload
+     * @throws IOException if the payload is invalid, too large or uses an unknown dictionary
+     */
+    public byte[] decompress(byte[] payload, int maxLength) throws IOException {
+        if (payload.length < PAYLOAD_HEADER_SIZE) {
+            throw new IOException("Compressed payload too short: " + payload.length);
+        }
+        ByteBuffer header = ByteBuffer.wrap(payload, 0, PAYLOAD_HEADER_SIZE);
+        CompressionAlgorithm algorithm = CompressionAlgorithm.fromId(header.get());
+        int plainLength = header.getInt();
+        if (algorithm == null) {
+            throw new IOException("Unknown compression algorithm: " + payload[0]);
+        }
+        if (plainLength < 0 || plainLength > maxLength) {
+            throw new IOException("Invalid uncompressed length: " + plainLength + ", limit " + maxLength);
+        }
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(payload, PAYLOAD_HEADER_SIZE, payload.length - PAYLOAD_HEADER_SIZE);
+        /* Start with a typical deflate ratio and grow with the inflated bytes up to the announced length */
+        byte[] bytes = new byte[(int) Math.min(plainLength, Math.max(INITIAL_INFLATE_SIZE, (long) payload.length * 8))];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == bytes.length && bytes.length < plainLength) {
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(plainLength, (long) bytes.length * 2));
+                }
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+                length += inflated;
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        byte[] dictionary = this.dictionaries.get(inflater.getAdler());
+                        if (dictionary == null) {
+                            throw new IOException("Unknown preset dictionary: " + Integer.toHexString(inflater.getAdler()));
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput() || length == plainLength) {
+                        break;
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed payload", e);
+        }
+        if (!inflater.finished() || length != plainLength) {
+            throw new IOException("Compressed payload does not match its length " + plainLength);
+        }
+        return bytes;
+    }
+}
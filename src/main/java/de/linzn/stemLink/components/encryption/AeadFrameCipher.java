@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+class AeadFrameCipher extends FrameCipher {
+    /* long nonce counter in front of the ciphertext */
+    private static final int NONCE_COUNTER_SIZE = 8;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+
+    private final CipherSuite cipherSuite;
+    private final SecretKeySpec secretKey;
+    private final CipherContext encryptCipher;
+    private final CipherContext decryptCipher;
+    private final NonceCounters nonceCounters;
+
+    AeadFrameCipher(CipherSuite cipherSuite, byte[] key, NonceCounters nonceCounters) throws GeneralSecurityException {
+        this.cipherSuite = cipherSuite;
+        this.secretKey = new SecretKeySpec(key, cipherSuite == CipherSuite.AES_GCM ? "AES" : "ChaCha20");
+        this.encryptCipher = new CipherContext(cipherSuite.getTransformation(), Cipher.ENCRYPT_MODE, this.secretKey, null);
+        this.decryptCipher = new CipherContext(cipherSuite.getTransformation(), Cipher.DECRYPT_MODE, this.secretKey, null);
+        this.nonceCounters = nonceCounters;
+    }
+
+    @Override
+    public CipherSuite getCipherSuite() {
+        return cipherSuite;
+    }
+
+    @Override
+    public int sealedSize(int plainLength) {
+        return NONCE_COUNTER_SIZE + plainLength + TAG_SIZE;
+    }
+
+    @Override
+    public int openedSize(int sealedLength) {
+        return Math.max(0, sealedLength - NONCE_COUNTER_SIZE - TAG_SIZE);
+    }
+
+    @Override
+    public int seal(int stream, ByteBuffer aad, ByteBuffer prefix, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        /* The shared counters keep nonces unique while every sending thread uses its own cipher */
+        long counter = this.nonceCounters.next(stream);
+        Cipher cipher = this.encryptCipher.get();
+        output.putLong(counter);
+        cipher.init(Cipher.ENCRYPT_MODE, this.secretKey, this.parameterSpec(counter));
+        cipher.updateAAD(aad.duplicate());
+        int written = NONCE_COUNTER_SIZE;
+        if (prefix != null) {
+            written += cipher.update(prefix, output);
+        }
+        return written + cipher.doFinal(input, output);
+    }
+
+    @Override
+    public int open(ByteBuffer aad, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        if (input.remaining() < NONCE_COUNTER_SIZE + TAG_SIZE) {
+            throw new GeneralSecurityException("Sealed body too short");
+        }
+        long counter = input.getLong();
+        Cipher cipher = this.decryptCipher.get();
+        cipher.init(Cipher.DECRYPT_MODE, this.secretKey, this.parameterSpec(counter));
+        cipher.updateAAD(aad.duplicate());
+        int written = cipher.doFinal(input, output);
+        /* Only authentic counters move the replay window */
+        this.nonceCounters.accept(counter);
+        return written;
+    }
+
+    /**
+     * Build the 96 bit nonce of a message from its counter
+     *
+     * @param counter message counter of this direction
+     * @return parameter spec with the nonce
+     */
+    private AlgorithmParameterSpec parameterSpec(long counter) {
+        byte[] nonce = ByteBuffer.allocate(NONCE_SIZE).putInt(0).putLong(counter).array();
+        if (this.cipherSuite == CipherSuite.AES_GCM) {
+            return new GCMParameterSpec(TAG_SIZE * 8, nonce);
+        }
+        return new IvParameterSpec(nonce);
+    }
+}
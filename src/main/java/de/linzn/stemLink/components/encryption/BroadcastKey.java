@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class BroadcastKey {
+    private final byte[] masterKey;
+    private final byte[] nonce;
+    private final Map<CipherSuite, NonceCounters> nonceCounters;
+    private final Map<CipherSuite, FrameCipher> sendCiphers;
+
+    /**
+     * Group key of a server for the broadcast frames of all links with a negotiated cipher suite
+     * Both sides derive the key of a suite from the master key and the random nonce of the server,
+     * so the server seals a broadcast frame once for all clients of the suite
+     *
+     * @param cryptContainer CryptContainer with the master key of the server
+     */
+    public BroadcastKey(CryptContainer cryptContainer) {
+        this.masterKey = cryptContainer.getKey();
+        this.nonce = CipherSuite.randomNonce();
+        this.nonceCounters = new EnumMap<>(CipherSuite.class);
+        this.sendCiphers = new EnumMap<>(CipherSuite.class);
+    }
+
+    /**
+     * Derive the broadcast key of a suite
+     *
+     * @param cipherSuite negotiated CipherSuite
+     * @param masterKey   key of the CryptContainer
+     * @param nonce       broadcast nonce of the server
+     * @return derived key
+     * @throws GeneralSecurityException if HMAC-SHA256 is not available
+     */
+    static byte[] deriveKey(CipherSuite cipherSuite, byte[] masterKey, byte[] nonce) throws GeneralSecurityException {
+        return cipherSuite.deriveKey(masterKey, "broadcast", new byte[0], nonce);
+    }
+
+    /**
+     * Convert the next sequences of the nonce streams to a handshake value
+     *
+     * @param sequences sequence by stream
+     * @return comma separated sequences
+     */
+    public static String toFloors(long[] sequences) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (long sequence : sequences) {
+            if (stringBuilder.length() > 0) {
+                stringBuilder.append(",");
+            }
+            stringBuilder.append(sequence);
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Parse the floors of the nonce streams from the handshake
+     *
+     * @param floors comma separated sequences
+     * @return sequence by stream
+     */
+    public static long[] fromFloors(String floors) {
+        String[] values = floors.split(",");
+        if (values.length != FrameCipher.NONCE_STREAMS) {
+            throw new IllegalArgumentException("Invalid broadcast floors " + floors);
+        }
+        long[] sequences = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sequences[i] = Long.parseLong(values[i]);
+        }
+        return sequences;
+    }
+
+    /**
+     * Get the random nonce of this key
+     *
+     * @return nonce for the handshake
+     */
+    public byte[] getNonce() {
+        return this.nonce;
+    }
+
+    /**
+     * Get the cipher which seals the broadcast frames of a suite
+     * All links of the suite share this cipher and its frame counters
+     *
+     * @param cipherSuite negotiated CipherSuite
+     * @return FrameCipher of the broadcast key
+     * @throws GeneralSecurityException if the suite has no session cipher
+     */
+    public synchronized FrameCipher getSendCipher(CipherSuite cipherSuite) throws GeneralSecurityException {
+        FrameCipher sendCipher = this.sendCiphers.get(cipherSuite);
+        if (sendCipher == null) {
+            NonceCounters nonceCounters = new NonceCounters(FrameCipher.BROADCAST_STREAM, null);
+            sendCipher = FrameCipher.create(cipherSuite, deriveKey(cipherSuite, this.masterKey, this.nonce), nonceCounters);
+            this.nonceCounters.put(cipherSuite, nonceCounters);
+            this.sendCiphers.put(cipherSuite, sendCipher);
+        }
+        return sendCipher;
+    }
+
+    /**
+     * Get the next sequences of the broadcast frames of a suite
+     * A client rejects every broadcast frame below them, so frames of an earlier connection can not be replayed
+     *
+     * @param cipherSuite negotiated CipherSuite
+     * @return next sequence by stream
+     * @throws GeneralSecurityException if the suite has no session cipher
+     */
+    public synchronized long[] getFloors(CipherSuite cipherSuite) throws GeneralSecurityException {
+        this.getSendCipher(cipherSuite);
+        return this.nonceCounters.get(cipherSuite).nextSequences();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import javax.crypto.Cipher;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+
+class CipherContext extends ThreadLocal<Cipher> {
+    private final String transformation;
+    private final int mode;
+    private final Key key;
+    private final AlgorithmParameterSpec parameterSpec;
+
+    /**
+     * Per thread Cipher instances of one transformation
+     * A Cipher is not thread safe, so every sending or receiving thread gets its own instance
+     *
+     * @param transformation cipher transformation
+     * @param mode           cipher mode to initialize with
+     * @param key            key to initialize with
+     * @param parameterSpec  static parameters to initialize with or null if the cipher is initialized per message
+     * @throws GeneralSecurityException if the transformation is not usable
+     */
+    CipherContext(String transformation, int mode, Key key, AlgorithmParameterSpec parameterSpec) throws GeneralSecurityException {
+        this.transformation = transformation;
+        this.mode = mode;
+        this.key = key;
+        this.parameterSpec = parameterSpec;
+        /* Fail on creation instead of the first use in a sending thread */
+        this.set(this.createCipher());
+    }
+
+    @Override
+    protected Cipher initialValue() {
+        try {
+            return this.createCipher();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cipher " + this.transformation + " not available", e);
+        }
+    }
+
+    /**
+     * Create a new Cipher instance of this context
+     *
+     * @return new Cipher
+     * @throws GeneralSecurityException if the transformation is not usable
+     */
+    private Cipher createCipher() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(this.transformation);
+        if (this.parameterSpec != null) {
+            cipher.init(this.mode, this.key, this.parameterSpec);
+        }
+        return cipher;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public enum CipherSuite {
+    /**
+     * AES-CBC with the static vector of the CryptContainer
+     * Only for remote sides without cipher suite support
+     */
+    AES_CBC("aescbc", null),
+    /**
+     * AES-GCM with per message nonce
+     */
+    AES_GCM("aesgcm", "AES/GCM/NoPadding"),
+    /**
+     * ChaCha20-Poly1305 with per message nonce, requires Java 11 or newer
+     */
+    CHACHA20_POLY1305("chacha20", "ChaCha20-Poly1305"),
+    /**
+     * HMAC-SHA256 integrity protection without encryption
+     * Only for trusted links like loopback connections
+     */
+    HMAC_SHA256("hmacsha256", null);
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    private final String token;
+    private final String transformation;
+
+    CipherSuite(String token, String transformation) {
+        this.token = token;
+        this.transformation = transformation;
+    }
+
+    /**
+     * Get the handshake token of this suite
+     *
+     * @return token as String
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Get the cipher transformation of the suite
+     *
+     * @return transformation or null if the suite has no AEAD cipher
+     */
+    String getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * Check if this JVM supports the suite
+     *
+     * @return true if the suite is usable
+     */
+    public boolean isAvailable() {
+        try {
+            if (this.transformation != null) {
+                Cipher.getInstance(this.transformation);
+            } else if (this == HMAC_SHA256) {
+                Mac.getInstance("HmacSHA256");
+            }
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the default suites in preference order
+     * Integrity only suites are never part of the defaults
+     *
+     * @return List of available default suites
+     */
+    public static List<CipherSuite> defaultSuites() {
+        List<CipherSuite> suites = new ArrayList<>();
+        for (CipherSuite suite : new CipherSuite[]{AES_GCM, CHACHA20_POLY1305, AES_CBC}) {
+            if (suite.isAvailable()) {
+                suites.add(suite);
+            }
+        }
+        return suites;
+    }
+
+    /**
+     * Select the first suite of the preference list the remote side offers
+     *
+     * @param preferred suites in local preference order
+     * @param offered   suites offered by the remote side
+     * @return selected suite or null if there is no common suite
+     */
+    public static CipherSuite select(List<CipherSuite> preferred, Collection<CipherSuite> offered) {
+        for (CipherSuite suite : preferred) {
+            if (offered.contains(suite) && suite.isAvailable()) {
+                return suite;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse a suite list from the handshake
+     * Unknown tokens of newer versions are ignored
+     *
+     * @param tokens comma separated suite tokens
+     * @return List of known suites in the given order
+     */
+    public static List<CipherSuite> fromTokens(String tokens) {
+        List<CipherSuite> suites = new ArrayList<>();
+        if (tokens == null || tokens.isEmpty()) {
+            return suites;
+        }
+        for (String token : tokens.split(",")) {
+            for (CipherSuite suite : values()) {
+                if (suite.token.equalsIgnoreCase(token.trim())) {
+                    suites.add(suite);
+                }
+            }
+        }
+        return suites;
+    }
+
+    /**
+     * Convert a suite list to a handshake token list
+     *
+     * @param suites suites in preference order
+     * @return comma separated suite tokens
+     */
+    public static String toTokens(Collection<CipherSuite> suites) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (CipherSuite suite : suites) {
+            if (stringBuilder.length() > 0) {
+                stringBuilder.append(",");
+            }
+            stringBuilder.append(suite.token);
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Derive a 256 bit session key for one direction of a connection
+     *
+     * @param masterKey   key of the CryptContainer
+     * @param direction   direction label of the key
+     * @param clientNonce handshake nonce of the client
+     * @param serverNonce handshake nonce of the server
+     * @return derived key
+     * @throws GeneralSecurityException if HMAC-SHA256 is not available
+     */
+    public byte[] deriveKey(byte[] masterKey, String direction, byte[] clientNonce, byte[] serverNonce) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+        mac.update(("stemlink_" + this.token + "_" + direction).getBytes(StandardCharsets.UTF_8));
+        mac.update(clientNonce);
+        mac.update(serverNonce);
+        return mac.doFinal();
+    }
+
+    /**
+     * Create a random handshake nonce
+     *
+     * @return 16 random bytes
+     */
+    public static byte[] randomNonce() {
+        byte[] nonce = new byte[16];
+        SECURE_RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Convert bytes to a hexadecimal string for the handshake
+     *
+     * @param bytes bytes to convert
+     * @return hexadecimal String
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder stringBuilder = new StringBuilder(bytes.length * 2);
+        for (byte value : bytes) {
+            stringBuilder.append(Character.forDigit((value >> 4) & 0xF, 16));
+            stringBuilder.append(Character.forDigit(value & 0xF, 16));
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Convert a hexadecimal string of the handshake to bytes
+     *
+     * @param hexString hexadecimal String
+     * @return converted bytes
+     */
+    public static byte[] fromHex(String hexString) {
+        if (hexString.length() % 2 == 1) {
+            throw new IllegalArgumentException("Invalid hexadecimal String supplied.");
+        }
+        byte[] bytes = new byte[hexString.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int firstDigit = Character.digit(hexString.charAt(i * 2), 16);
+            int secondDigit = Character.digit(hexString.charAt(i * 2 + 1), 16);
+            if (firstDigit == -1 || secondDigit == -1) {
+                throw new IllegalArgumentException("Invalid hexadecimal String supplied.");
+            }
+            bytes[i] = (byte) ((firstDigit << 4) + secondDigit);
+        }
+        return bytes;
+    }
+}
@@ -14,17 +14,20 @@ package de.linzn.stemLink.components.encryption;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.util.Base64;
 
 public class CryptManager {
-    private Cipher encryptCipher;
-    private Cipher decryptCipher;
+    private CipherContext encryptCipher;
+    private CipherContext decryptCipher;
+    private byte[] masterKey;
+    private volatile FrameCipher sendCipher;
+    private volatile FrameCipher receiveCipher;
+    private volatile FrameCipher broadcastSendCipher;
+    private volatile FrameCipher broadcastReceiveCipher;
 
     /**
      * Constructor for CryptManager
@@ -43,7 +46,7 @@ public class CryptManager {
      */
     public byte[] encryptFinal(byte[] bytes) {
         try {
-            return Base64.getEncoder().encode(encryptCipher.doFinal(bytes));
+            return Base64.getEncoder().encode(encryptCipher.get().doFinal(bytes));
         } catch (IllegalBlockSizeException | BadPaddingException e) {
             e.printStackTrace();
         }
@@ -57,9 +60,163 @@ public class CryptManager {
      * @return Decrypted bytes as array
      */
     public byte[] decryptFinal(byte[] bytes) throws IllegalBlockSizeException, BadPaddingException {
-        return decryptCipher.doFinal(Base64.getDecoder().decode(bytes));
+        return decryptCipher.get().doFinal(Base64.getDecoder().decode(bytes));
     }
 
+    /**
+     * Decrypt AES encrypted Base64 input bytes of an array range
+     *
+     * @param bytes  Encrypted bytes as array
+     * @param offset Offset of the encrypted bytes in the array
+     * @param length Length of the encrypted bytes
+     * @return Decrypted bytes as array
+     */
+    public byte[] decryptFinal(byte[] bytes, int offset, int length) throws IllegalBlockSizeException, BadPaddingException {
+        ByteBuffer decoded = Base64.getDecoder().decode(ByteBuffer.wrap(bytes, offset, length));
+        return decryptCipher.get().doFinal(decoded.array(), decoded.arrayOffset() + decoded.position(), decoded.remaining());
+    }
+
+    /**
+     * Use the session ciphers of a negotiated suite for binary frames
+     *
+     * @param sendCipher    FrameCipher for outgoing frames
+     * @param receiveCipher FrameCipher for incoming frames
+     */
+    public void setFrameCiphers(FrameCipher sendCipher, FrameCipher receiveCipher) {
+        this.sendCipher = sendCipher;
+        this.receiveCipher = receiveCipher;
+        this.broadcastSendCipher = null;
+        this.broadcastReceiveCipher = null;
+    }
+
+    /**
+     * Seal the frames of the broadcast nonce streams with the shared cipher of the server
+     *
+     * @param broadcastCipher FrameCipher of the BroadcastKey for the negotiated suite
+     */
+    public void setBroadcastCipher(FrameCipher broadcastCipher) {
+        this.broadcastSendCipher = broadcastCipher;
+    }
+
+    /**
+     * Open the broadcast frames of the server with the key derived from its broadcast nonce
+     *
+     * @param cipherSuite negotiated CipherSuite
+     * @param nonce       broadcast nonce of the server
+     * @param floors      first sequence of every broadcast nonce stream to accept
+     * @throws GeneralSecurityException if the suite is not usable
+     */
+    public void setBroadcastKey(CipherSuite cipherSuite, byte[] nonce, long[] floors) throws GeneralSecurityException {
+        byte[] key = BroadcastKey.deriveKey(cipherSuite, this.masterKey, nonce);
+        this.broadcastReceiveCipher = FrameCipher.create(cipherSuite, key, new NonceCounters(FrameCipher.BROADCAST_STREAM, floors));
+    }
+
+    /**
+     * Check if frames of the broadcast nonce streams can be sealed
+     *
+     * @return true if a broadcast cipher is set
+     */
+    public boolean hasBroadcastCipher() {
+        return this.broadcastSendCipher != null;
+    }
+
+    /**
+     * Use a negotiated suite with session keys derived from the handshake nonces
+     *
+     * @param cipherSuite negotiated CipherSuite
+     * @param clientNonce handshake nonce of the client
+     * @param serverNonce handshake nonce of the server
+     * @param clientSide  true if this is the client side of the connection
+     * @throws GeneralSecurityException if the suite is not usable
+     */
+    public void setCipherSuite(CipherSuite cipherSuite, byte[] clientNonce, byte[] serverNonce, boolean clientSide) throws GeneralSecurityException {
+        if (cipherSuite == CipherSuite.AES_CBC) {
+            this.resetFrameCiphers();
+            return;
+        }
+        FrameCipher clientCipher = FrameCipher.create(cipherSuite, cipherSuite.deriveKey(this.masterKey, "client", clientNonce, serverNonce));
+        FrameCipher serverCipher = FrameCipher.create(cipherSuite, cipherSuite.deriveKey(this.masterKey, "server", clientNonce, serverNonce));
+        if (clientSide) {
+            this.setFrameCiphers(clientCipher, serverCipher);
+        } else {
+            this.setFrameCiphers(serverCipher, clientCipher);
+        }
+    }
+
+    /**
+     * Use the static AES-CBC ciphers for binary frames again
+     */
+    public void resetFrameCiphers() {
+        FrameCipher legacyFrameCipher = new LegacyFrameCipher(this.encryptCipher, this.decryptCipher);
+        this.setFrameCiphers(legacyFrameCipher, legacyFrameCipher);
+    }
+
+    /**
+     * Get the suite of the outgoing binary frames
+     *
+     * @return active CipherSuite
+     */
+    public CipherSuite getCipherSuite() {
+        return this.sendCipher.getCipherSuite();
+    }
+
+    /**
+     * Get the size of a sealed frame body
+     *
+     * @param length length of the plain body
+     * @return length of the sealed body
+     */
+    public int sealedSize(int length) {
+        return this.sendCipher.sealedSize(length);
+    }
+
+    /**
+     * Get the maximum size of an opened frame body
+     *
+     * @param length length of the sealed body
+     * @return maximum length of the plain body
+     */
+    public int openedSize(int length) {
+        return this.receiveCipher.openedSize(length);
+    }
+
+    /**
+     * Seal an optional prefix and the input into one frame body
+     *
+     * @param stream nonce stream of the frame, the ordinal of its outbound lane, with the broadcast flag for the broadcast cipher
+     * @param aad    frame header to authenticate
+     * @param prefix Unencrypted prefix bytes or null, consumed by this call
+     * @param input  Unencrypted bytes, consumed by this call
+     * @param output Buffer for the sealed body
+     * @return amount of bytes written to the output
+     */
+    public int seal(int stream, ByteBuffer aad, ByteBuffer prefix, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        if ((stream & FrameCipher.BROADCAST_STREAM) != 0) {
+            FrameCipher broadcastCipher = this.broadcastSendCipher;
+            if (broadcastCipher == null) {
+                throw new GeneralSecurityException("No broadcast cipher");
+            }
+            return broadcastCipher.seal(stream & ~FrameCipher.BROADCAST_STREAM, aad, prefix, input, output);
+        }
+        return this.sendCipher.seal(stream, aad, prefix, input, output);
+    }
+
+    /**
+     * Open a sealed frame body
+     *
+     * @param aad    frame header to authenticate
+     * @param input  Sealed body, consumed by this call
+     * @param output Buffer for the plain body
+     * @return amount of bytes written to the output
+     */
+    public int open(ByteBuffer aad, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        FrameCipher broadcastCipher = this.broadcastReceiveCipher;
+        /* The stream byte of the counter in front of the body tells broadcast frames apart */
+        if (broadcastCipher != null && input.hasRemaining() && (input.get(input.position()) & FrameCipher.BROADCAST_STREAM) != 0) {
+            return broadcastCipher.open(aad, input, output);
+        }
+        return this.receiveCipher.open(aad, input, output);
+    }
 
     /**
      * Set the AES encryption parameter
@@ -70,13 +227,13 @@ public class CryptManager {
         try {
             IvParameterSpec iv = new IvParameterSpec(cryptContainer.getVectorB16());
             SecretKeySpec skeySpec = new SecretKeySpec(cryptContainer.getKey(), "AES");
+            this.masterKey = cryptContainer.getKey();
 
-            this.decryptCipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            this.decryptCipher.init(Cipher.DECRYPT_MODE, skeySpec, iv);
+            this.decryptCipher = new CipherContext("AES/CBC/PKCS5PADDING", Cipher.DECRYPT_MODE, skeySpec, iv);
+            this.encryptCipher = new CipherContext("AES/CBC/PKCS5PADDING", Cipher.ENCRYPT_MODE, skeySpec, iv);
 
-            this.encryptCipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-            this.encryptCipher.init(Cipher.ENCRYPT_MODE, skeySpec, iv);
-        } catch (NoSuchPaddingException | NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException e) {
+            this.resetFrameCiphers();
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
     }
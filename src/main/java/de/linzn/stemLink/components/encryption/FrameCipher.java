@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+public abstract class FrameCipher {
+    /* Independent nonce counter streams, the connections seal the frames of every outbound lane with its own stream */
+    public static final int NONCE_STREAMS = 4;
+    /* Flag of the nonce stream for frames sealed once with the broadcast key of the server */
+    public static final int BROADCAST_STREAM = 0x80;
+
+    /**
+     * Create the FrameCipher of a negotiated suite
+     *
+     * @param cipherSuite negotiated suite
+     * @param key         session key of the direction
+     * @return FrameCipher for the suite
+     * @throws GeneralSecurityException if the suite is not usable
+     */
+    public static FrameCipher create(CipherSuite cipherSuite, byte[] key) throws GeneralSecurityException {
+        return create(cipherSuite, key, new NonceCounters());
+    }
+
+    /**
+     * Create the FrameCipher of a negotiated suite with its own frame counters
+     *
+     * @param cipherSuite   negotiated suite
+     * @param key           session or broadcast key
+     * @param nonceCounters frame counters of the key
+     * @return FrameCipher for the suite
+     * @throws GeneralSecurityException if the suite is not usable
+     */
+    static FrameCipher create(CipherSuite cipherSuite, byte[] key, NonceCounters nonceCounters) throws GeneralSecurityException {
+        switch (cipherSuite) {
+            case AES_GCM:
+            case CHACHA20_POLY1305:
+                return new AeadFrameCipher(cipherSuite, key, nonceCounters);
+            case HMAC_SHA256:
+                return new HmacFrameCipher(key, nonceCounters);
+            default:
+                throw new GeneralSecurityException("Suite " + cipherSuite + " has no session cipher");
+        }
+    }
+
+    /**
+     * Get the suite of this cipher
+     *
+     * @return CipherSuite of the cipher
+     */
+    public abstract CipherSuite getCipherSuite();
+
+    /**
+     * Get the size of a sealed body
+     *
+     * @param plainLength length of the plain body
+     * @return length of the sealed body
+     */
+    public abstract int sealedSize(int plainLength);
+
+    /**
+     * Get the maximum size of an opened body
+     *
+     * @param sealedLength length of the sealed body
+     * @return maximum length of the plain body
+     */
+    public abstract int openedSize(int sealedLength);
+
+    /**
+     * Seal an optional prefix and the input into one frame body
+     *
+     * @param stream nonce stream of the frame, frames of one stream are sent in about the order they were sealed
+     * @param aad    authenticated frame header, not consumed
+     * @param prefix plain prefix or null, consumed by this call
+     * @param input  plain input, consumed by this call
+     * @param output buffer for the sealed body
+     * @return amount of bytes written to the output
+     * @throws GeneralSecurityException if the encryption failed
+     */
+    public abstract int seal(int stream, ByteBuffer aad, ByteBuffer prefix, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException;
+
+    /**
+     * Open a sealed frame body
+     *
+     * @param aad    authenticated frame header, not consumed
+     * @param input  sealed body, consumed by this call
+     * @param output buffer for the plain body
+     * @return amount of bytes written to the output
+     * @throws GeneralSecurityException if the body is not authentic, was already received or the decryption failed
+     */
+    public abstract int open(ByteBuffer aad, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException;
+}
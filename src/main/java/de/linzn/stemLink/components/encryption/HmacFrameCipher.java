@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+class HmacFrameCipher extends FrameCipher {
+    /* long counter in front of the plain body, truncated HMAC-SHA256 tag behind it */
+    private static final int COUNTER_SIZE = 8;
+    private static final int TAG_SIZE = 16;
+
+    private final SecretKeySpec secretKey;
+    private final ThreadLocal<Mac> macContext;
+    private final NonceCounters nonceCounters;
+
+    HmacFrameCipher(byte[] key, NonceCounters nonceCounters) throws GeneralSecurityException {
+        this.secretKey = new SecretKeySpec(key, "HmacSHA256");
+        /* A Mac is not thread safe, so every sending or receiving thread gets its own instance */
+        this.macContext = ThreadLocal.withInitial(() -> {
+            try {
+                return this.createMac();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 not available", e);
+            }
+        });
+        this.macContext.set(this.createMac());
+        this.nonceCounters = nonceCounters;
+    }
+
+    /**
+     * Create a new Mac instance with the session key
+     *
+     * @return initialized Mac
+     * @throws GeneralSecurityException if HmacSHA256 is not usable
+     */
+    private Mac createMac() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(this.secretKey);
+        return mac;
+    }
+
+    @Override
+    public CipherSuite getCipherSuite() {
+        return CipherSuite.HMAC_SHA256;
+    }
+
+    @Override
+    public int sealedSize(int plainLength) {
+        return COUNTER_SIZE + plainLength + TAG_SIZE;
+    }
+
+    @Override
+    public int openedSize(int sealedLength) {
+        return Math.max(0, sealedLength - COUNTER_SIZE - TAG_SIZE);
+    }
+
+    @Override
+    public int seal(int stream, ByteBuffer aad, ByteBuffer prefix, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        Mac mac = this.macContext.get();
+        int start = output.position();
+        output.putLong(this.nonceCounters.next(stream));
+        if (prefix != null) {
+            output.put(prefix);
+        }
+        output.put(input);
+
+        mac.update(aad.duplicate());
+        ByteBuffer body = output.duplicate();
+        body.flip().position(start);
+        mac.update(body);
+        output.put(mac.doFinal(), 0, TAG_SIZE);
+        return output.position() - start;
+    }
+
+    @Override
+    public int open(ByteBuffer aad, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        if (input.remaining() < COUNTER_SIZE + TAG_SIZE) {
+            throw new GeneralSecurityException("Sealed body too short");
+        }
+        ByteBuffer body = input.duplicate();
+        body.limit(input.limit() - TAG_SIZE);
+
+        Mac mac = this.macContext.get();
+        mac.update(aad.duplicate());
+        mac.update(body.duplicate());
+        byte[] expectedTag = mac.doFinal();
+
+        ByteBuffer tag = input.duplicate();
+        tag.position(input.limit() - TAG_SIZE);
+        int difference = 0;
+        for (int i = 0; i < TAG_SIZE; i++) {
+            difference |= tag.get() ^ expectedTag[i];
+        }
+        if (difference != 0) {
+            throw new AEADBadTagException("HMAC check failed");
+        }
+        this.nonceCounters.accept(body.getLong(body.position()));
+
+        body.position(body.position() + COUNTER_SIZE);
+        int written = body.remaining();
+        output.put(body);
+        input.position(input.limit());
+        return written;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import javax.crypto.Cipher;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+class LegacyFrameCipher extends FrameCipher {
+    private final CipherContext encryptCipher;
+    private final CipherContext decryptCipher;
+
+    /**
+     * FrameCipher with the static AES-CBC ciphers of the CryptManager
+     * The frame header is not authenticated
+     *
+     * @param encryptCipher initialized encrypt ciphers
+     * @param decryptCipher initialized decrypt ciphers
+     */
+    LegacyFrameCipher(CipherContext encryptCipher, CipherContext decryptCipher) {
+        this.encryptCipher = encryptCipher;
+        this.decryptCipher = decryptCipher;
+    }
+
+    @Override
+    public CipherSuite getCipherSuite() {
+        return CipherSuite.AES_CBC;
+    }
+
+    @Override
+    public int sealedSize(int plainLength) {
+        return this.encryptCipher.get().getOutputSize(plainLength);
+    }
+
+    @Override
+    public int openedSize(int sealedLength) {
+        return this.decryptCipher.get().getOutputSize(sealedLength);
+    }
+
+    @Override
+    public int seal(int stream, ByteBuffer aad, ByteBuffer prefix, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        Cipher cipher = this.encryptCipher.get();
+        int written = prefix != null ? cipher.update(prefix, output) : 0;
+        return written + cipher.doFinal(input, output);
+    }
+
+    @Override
+    public int open(ByteBuffer aad, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return this.decryptCipher.get().doFinal(input, output);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+class NonceCounters {
+    /* The top byte of a frame counter selects its stream, the rest is the sequence in the stream */
+    private static final int STREAM_SHIFT = 56;
+    private static final long SEQUENCE_MASK = (1L << STREAM_SHIFT) - 1;
+
+    private final int streamFlag;
+    private final long[] floors;
+    private final AtomicLong[] sequences;
+    private final ReplayWindow[] replayWindows;
+
+    /**
+     * Frame counters of one direction of a connection, split into independent streams
+     * Every outbound lane seals with its own stream, so a frame waiting behind other lanes does not fall out of the replay window
+     */
+    NonceCounters() {
+        this(0, null);
+    }
+
+    /**
+     * Frame counters with a flag in the stream byte
+     * The broadcast key of a server uses its own flag, so its counters never collide with the session counters of a link
+     *
+     * @param streamFlag flag in the top byte of every counter
+     * @param floors     first sequence of every stream the receiver accepts or null for all
+     */
+    NonceCounters(int streamFlag, long[] floors) {
+        this.streamFlag = streamFlag;
+        this.floors = floors;
+        this.sequences = new AtomicLong[FrameCipher.NONCE_STREAMS];
+        for (int i = 0; i < this.sequences.length; i++) {
+            this.sequences[i] = new AtomicLong();
+        }
+        this.replayWindows = new ReplayWindow[FrameCipher.NONCE_STREAMS];
+    }
+
+    /**
+     * Get the next sequence of every stream
+     * A receiver which gets these as floors rejects every frame sealed before
+     *
+     * @return next sequences by stream
+     */
+    long[] nextSequences() {
+        long[] nextSequences = new long[this.sequences.length];
+        for (int i = 0; i < nextSequences.length; i++) {
+            nextSequences[i] = this.sequences[i].get();
+        }
+        return nextSequences;
+    }
+
+    /**
+     * Get the counter for the next sealed frame of a stream
+     *
+     * @param stream nonce stream of the frame
+     * @return unique counter of the frame
+     * @throws GeneralSecurityException if the stream is invalid or all counters are used
+     */
+    long next(int stream) throws GeneralSecurityException {
+        if (stream < 0 || stream >= this.sequences.length) {
+            throw new GeneralSecurityException("Invalid nonce stream " + stream);
+        }
+        long sequence = this.sequences[stream].getAndIncrement();
+        if (sequence > SEQUENCE_MASK) {
+            throw new GeneralSecurityException("Nonce stream " + stream + " is exhausted");
+        }
+        return ((long) (stream | this.streamFlag) << STREAM_SHIFT) | sequence;
+    }
+
+    /**
+     * Check the counter of an authenticated frame against the replay window of its stream
+     * Only called from the reading thread of the connection
+     *
+     * @param counter counter of the received frame
+     * @throws GeneralSecurityException if the frame is a replay or older than the window
+     */
+    void accept(long counter) throws GeneralSecurityException {
+        int stream = (int) (counter >>> STREAM_SHIFT) ^ this.streamFlag;
+        if (stream < 0 || stream >= this.replayWindows.length) {
+            throw new GeneralSecurityException("Invalid nonce stream " + stream);
+        }
+        ReplayWindow replayWindow = this.replayWindows[stream];
+        if (replayWindow == null) {
+            replayWindow = this.floors != null ? new ReplayWindow(this.floors[stream]) : new ReplayWindow();
+            this.replayWindows[stream] = replayWindow;
+        }
+        replayWindow.accept(counter & SEQUENCE_MASK);
+    }
+}
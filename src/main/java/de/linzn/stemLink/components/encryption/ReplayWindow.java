@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+class ReplayWindow {
+    /* Counters of one nonce stream which may arrive behind newer ones, 512 MB of 64 KB fragments */
+    static final int WINDOW_SIZE = 8192;
+
+    private final long[] bitmap;
+    private long highestCounter;
+
+    /**
+     * Sliding window over the received counters of one nonce stream like the DTLS anti replay window
+     * Frames of a stream are sealed by several threads, so counters can arrive slightly out of order
+     */
+    ReplayWindow() {
+        this.bitmap = new long[WINDOW_SIZE / 64];
+        this.highestCounter = -1;
+    }
+
+    /**
+     * Sliding window which already counts every counter below a floor as received
+     *
+     * @param floor first counter to accept
+     */
+    ReplayWindow(long floor) {
+        this();
+        Arrays.fill(this.bitmap, -1L);
+        this.highestCounter = floor - 1;
+    }
+
+    /**
+     * Accept an authenticated counter once
+     * Only called from the reading thread of the connection
+     *
+     * @param counter sequence of the frame in this stream
+     * @throws GeneralSecurityException if the counter was already received or is older than the window
+     */
+    void accept(long counter) throws GeneralSecurityException {
+        if (counter > this.highestCounter) {
+            if (counter - this.highestCounter >= WINDOW_SIZE) {
+                Arrays.fill(this.bitmap, 0L);
+            } else {
+                for (long skipped = this.highestCounter + 1; skipped < counter; skipped++) {
+                    this.clear(skipped);
+                }
+            }
+            this.highestCounter = counter;
+            this.set(counter);
+            return;
+        }
+        if (this.highestCounter - counter >= WINDOW_SIZE) {
+            throw new GeneralSecurityException("Frame counter " + counter + " is older than the replay window");
+        }
+        if (this.isSet(counter)) {
+            throw new GeneralSecurityException("Replayed frame counter " + counter);
+        }
+        this.set(counter);
+    }
+
+    private boolean isSet(long counter) {
+        int bit = (int) (counter % WINDOW_SIZE);
+        return (this.bitmap[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void set(long counter) {
+        int bit = (int) (counter % WINDOW_SIZE);
+        this.bitmap[bit >>> 6] |= 1L << bit;
+    }
+
+    private void clear(long counter) {
+        int bit = (int) (counter % WINDOW_SIZE);
+        this.bitmap[bit >>> 6] &= ~(1L << bit);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.encryption;
+
+import de.linzn.stemLink.components.protocol.ProtocolFeature;
+import de.linzn.stemLink.connections.ClientType;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+public final class SessionTicket {
+    /* Channel of the packet which hands a new ticket to the client after the handshake */
+    public static final String CHANNEL = "stemlink_session_ticket";
+    public static final long DEFAULT_LIFETIME = 1000 * 60 * 60 * 24;
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    private final UUID uuid;
+    private final ClientType clientType;
+    private final int linkIndex;
+    private final Set<ProtocolFeature> features;
+    private final CipherSuite cipherSuite;
+    private final long issueTime;
+
+    /**
+     * State of a completed handshake which a reconnecting client can resume without negotiation
+     *
+     * @param uuid        UUID of the client
+     * @param clientType  ClientType of the client
+     * @param linkIndex   link index of the connection
+     * @param features    negotiated protocol features
+     * @param cipherSuite negotiated cipher suite or null
+     * @param issueTime   time in milliseconds when the ticket was issued
+     */
+    public SessionTicket(UUID uuid, ClientType clientType, int linkIndex, Set<ProtocolFeature> features, CipherSuite cipherSuite, long issueTime) {
+        this.uuid = uuid;
+        this.clientType = clientType;
+        this.linkIndex = linkIndex;
+        this.features = features;
+        this.cipherSuite = cipherSuite;
+        this.issueTime = issueTime;
+    }
+
+    /**
+     * Seal this ticket with a key derived from the key of the CryptContainer
+     * Only a server with the same CryptContainer can open the ticket, also after a restart
+     *
+     * @param masterKey key of the CryptContainer
+     * @return opaque ticket for the client
+     * @throws GeneralSecurityException if AES-GCM is not available
+     */
+    public byte[] seal(byte[] masterKey) throws GeneralSecurityException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(byteArrayOutputStream);
+        try {
+            dataOut.writeLong(this.issueTime);
+            dataOut.writeLong(this.uuid.getMostSignificantBits());
+            dataOut.writeLong(this.uuid.getLeastSignificantBits());
+            dataOut.writeUTF(this.clientType.name());
+            dataOut.writeInt(this.linkIndex);
+            dataOut.writeUTF(ProtocolFeature.toTokens(this.features));
+            dataOut.writeUTF(this.cipherSuite != null ? this.cipherSuite.getToken() : "");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] iv = new byte[IV_LENGTH];
+        SECURE_RANDOM.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, ticketKey(masterKey), new GCMParameterSpec(TAG_LENGTH, iv));
+        byte[] sealed = cipher.doFinal(byteArrayOutputStream.toByteArray());
+
+        byte[] ticket = new byte[IV_LENGTH + sealed.length];
+        System.arraycopy(iv, 0, ticket, 0, IV_LENGTH);
+        System.arraycopy(sealed, 0, ticket, IV_LENGTH, sealed.length);
+        return ticket;
+    }
+
+    /**
+     * Open a sealed ticket of a client
+     *
+     * @param masterKey key of the CryptContainer
+     * @param ticket    opaque ticket from the client
+     * @return the SessionTicket
+     * @throws GeneralSecurityException if the ticket was not sealed with this key or is malformed
+     */
+    public static SessionTicket open(byte[] masterKey, byte[] ticket) throws GeneralSecurityException {
+        if (ticket.length <= IV_LENGTH) {
+            throw new GeneralSecurityException("Session ticket too short");
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, ticketKey(masterKey), new GCMParameterSpec(TAG_LENGTH, ticket, 0, IV_LENGTH));
+        byte[] opened = cipher.doFinal(ticket, IV_LENGTH, ticket.length - IV_LENGTH);
+
+        DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(opened));
+        try {
+            long issueTime = dataIn.readLong();
+            UUID uuid = new UUID(dataIn.readLong(), dataIn.readLong());
+            ClientType clientType = ClientType.valueOf(dataIn.readUTF());
+            int linkIndex = dataIn.readInt();
+            Set<ProtocolFeature> features = ProtocolFeature.fromTokens(dataIn.readUTF());
+            List<CipherSuite> cipherSuites = CipherSuite.fromTokens(dataIn.readUTF());
+            return new SessionTicket(uuid, clientType, linkIndex, features, cipherSuites.isEmpty() ? null : cipherSuites.get(0), issueTime);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed session ticket", e);
+        }
+    }
+
+    /**
+     * Derive the 256 bit key for sealing tickets
+     *
+     * @param masterKey key of the CryptContainer
+     * @return SecretKeySpec for AES-GCM
+     * @throws GeneralSecurityException if HMAC-SHA256 is not available
+     */
+    private static SecretKeySpec ticketKey(byte[] masterKey) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+        return new SecretKeySpec(mac.doFinal("stemlink_session_ticket".getBytes(StandardCharsets.UTF_8)), "AES");
+    }
+
+    /**
+     * Check if the ticket is older than the given lifetime
+     *
+     * @param lifetime lifetime of tickets in milliseconds
+     * @return true if the ticket can not be used anymore
+     */
+    public boolean isExpired(long lifetime) {
+        long age = System.currentTimeMillis() - this.issueTime;
+        return age < 0 || age > lifetime;
+    }
+
+    /**
+     * Get the UUID of the client
+     *
+     * @return UUID of the client
+     */
+    public UUID getUUID() {
+        return this.uuid;
+    }
+
+    /**
+     * Get the ClientType of the client
+     *
+     * @return ClientType of the client
+     */
+    public ClientType getClientType() {
+        return this.clientType;
+    }
+
+    /**
+     * Get the link index of the connection
+     *
+     * @return link index, 0 for a single connection
+     */
+    public int getLinkIndex() {
+        return this.linkIndex;
+    }
+
+    /**
+     * Get the negotiated protocol features
+     *
+     * @return Set of protocol features
+     */
+    public Set<ProtocolFeature> getFeatures() {
+        return this.features;
+    }
+
+    /**
+     * Get the negotiated cipher suite
+     *
+     * @return CipherSuite or null if no suite was negotiated
+     */
+    public CipherSuite getCipherSuite() {
+        return this.cipherSuite;
+    }
+}
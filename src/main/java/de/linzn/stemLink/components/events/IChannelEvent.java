@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events;
+
+import de.linzn.stemLink.components.protocol.ChannelName;
+
+public interface IChannelEvent extends IEvent {
+
+    String getChannel();
+
+    /**
+     * Get the normalized channel of this event for the dispatch of the EventBus
+     * Events of the connections carry the ChannelName they were received with, so it is not normalized again
+     *
+     * @return ChannelName of the channel
+     */
+    default ChannelName getChannelName() {
+        return ChannelName.of(this.getChannel());
+    }
+
+}
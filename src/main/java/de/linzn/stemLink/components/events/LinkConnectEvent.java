@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events;
+
+import de.linzn.stemLink.connections.AbstractConnection;
+
+import java.util.UUID;
+
+public class LinkConnectEvent implements IEvent {
+    private final UUID uuid;
+    private final int linkIndex;
+    private final AbstractConnection abstractConnection;
+
+    /**
+     * Constructor for link connect event
+     * Every link of a client gets this event, the ConnectEvent is only called for the first link
+     *
+     * @param uuid      Client uuid for event
+     * @param linkIndex index of the link
+     */
+    public LinkConnectEvent(UUID uuid, int linkIndex, AbstractConnection abstractConnection) {
+        this.uuid = uuid;
+        this.linkIndex = linkIndex;
+        this.abstractConnection = abstractConnection;
+    }
+
+    /**
+     * Get the client uuid of this event
+     *
+     * @return UUID uf the connected client
+     */
+    public UUID getClientUUID() {
+        return uuid;
+    }
+
+    /**
+     * Get the index of the link of this event
+     *
+     * @return link index, 0 for a single connection
+     */
+    public int getLinkIndex() {
+        return linkIndex;
+    }
+
+    /**
+     * Get the client connection
+     *
+     * @return The client connection
+     */
+    @Override
+    public AbstractConnection getConnection() {
+        return this.abstractConnection;
+    }
+}
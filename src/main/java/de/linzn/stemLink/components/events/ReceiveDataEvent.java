@@ -11,13 +11,14 @@
 
 package de.linzn.stemLink.components.events;
 
+import de.linzn.stemLink.components.protocol.ChannelName;
 import de.linzn.stemLink.connections.AbstractConnection;
 
 import java.util.UUID;
 
-public class ReceiveDataEvent implements IEvent {
+public class ReceiveDataEvent implements IChannelEvent {
 
-    private final String channel;
+    private final ChannelName channelName;
     private final UUID clientUUID;
     private final byte[] dataInBytes;
     private final AbstractConnection abstractConnection;
@@ -30,7 +31,18 @@ public class ReceiveDataEvent implements IEvent {
      * @param dataInBytes raw data as byte array to send
      */
     public ReceiveDataEvent(String channel, UUID clientUUID, byte[] dataInBytes, AbstractConnection abstractConnection) {
-        this.channel = channel;
+        this(ChannelName.of(channel), clientUUID, dataInBytes, abstractConnection);
+    }
+
+    /**
+     * Constructor for data receive event
+     *
+     * @param channelName Data channel as resolved by the connection
+     * @param clientUUID  client uuid
+     * @param dataInBytes raw data as byte array to send
+     */
+    public ReceiveDataEvent(ChannelName channelName, UUID clientUUID, byte[] dataInBytes, AbstractConnection abstractConnection) {
+        this.channelName = channelName;
         this.clientUUID = clientUUID;
         this.dataInBytes = dataInBytes;
         this.abstractConnection = abstractConnection;
@@ -41,8 +53,19 @@ public class ReceiveDataEvent implements IEvent {
      *
      * @return channel for this event
      */
+    @Override
     public String getChannel() {
-        return channel;
+        return this.channelName.getName();
+    }
+
+    /**
+     * Get the normalized channel of this event
+     *
+     * @return ChannelName for this event
+     */
+    @Override
+    public ChannelName getChannelName() {
+        return this.channelName;
     }
 
     /**
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events;
+
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.components.protocol.StreamBody;
+import de.linzn.stemLink.connections.AbstractConnection;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+public class ReceiveFileEvent extends ReceiveStreamEvent {
+
+    private final StreamBody streamBody;
+    private final String fileName;
+    private final long fileSize;
+    private final long offset;
+
+    /**
+     * Constructor for file receive event
+     * The stream starts at the offset of the file, so a transfer can be resumed after a reconnect
+     *
+     * @param channel    Data channel
+     * @param clientUUID client uuid
+     * @param streamBody body of the file stream
+     * @param fileName   name of the file on the sending side
+     * @param fileSize   total size of the file
+     * @param offset     position of the file where the stream starts
+     */
+    public ReceiveFileEvent(String channel, UUID clientUUID, StreamBody streamBody, String fileName, long fileSize, long offset, AbstractConnection abstractConnection) {
+        this(ChannelName.of(channel), clientUUID, streamBody, fileName, fileSize, offset, abstractConnection);
+    }
+
+    /**
+     * Constructor for file receive event
+     * The stream starts at the offset of the file, so a transfer can be resumed after a reconnect
+     *
+     * @param channelName Data channel as resolved by the connection
+     * @param clientUUID  client uuid
+     * @param streamBody  body of the file stream
+     * @param fileName    name of the file on the sending side
+     * @param fileSize    total size of the file
+     * @param offset      position of the file where the stream starts
+     */
+    public ReceiveFileEvent(ChannelName channelName, UUID clientUUID, StreamBody streamBody, String fileName, long fileSize, long offset, AbstractConnection abstractConnection) {
+        super(channelName, clientUUID, streamBody, abstractConnection);
+        this.streamBody = streamBody;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.offset = offset;
+    }
+
+    /**
+     * Get the name of the file on the sending side
+     *
+     * @return file name without directories
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Get the total size of the file
+     *
+     * @return size in bytes
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Get the position of the file where this stream starts
+     * A new transfer starts at 0, a resumed transfer at the size the receiver already had
+     *
+     * @return offset in bytes
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Write the received stream into a target file at the offset of the transfer
+     * The bytes before the offset are kept, the chunks are written without copy while they are received
+     *
+     * @param target file to write into, created if it does not exist
+     * @return amount of transferred bytes
+     * @throws IOException if the target is shorter than the offset, the stream was aborted or the file could not be written
+     */
+    public long transferTo(Path target) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (fileChannel.size() < this.offset) {
+                throw new IOException("Target file " + target + " has " + fileChannel.size() + " bytes, the transfer starts at " + this.offset);
+            }
+            fileChannel.position(this.offset);
+            long transferred = this.streamBody.transferTo(fileChannel);
+            fileChannel.truncate(this.offset + transferred);
+            return transferred;
+        }
+    }
+}
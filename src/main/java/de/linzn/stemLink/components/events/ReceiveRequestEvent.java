@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events;
+
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.connections.AbstractConnection;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ReceiveRequestEvent implements IChannelEvent {
+
+    private final ChannelName channelName;
+    private final UUID clientUUID;
+    private final byte[] dataInBytes;
+    private final long requestId;
+    private final AbstractConnection abstractConnection;
+    private final AtomicBoolean responded;
+
+    /**
+     * Constructor for request receive event
+     * The request is answered once, the first response wins
+     *
+     * @param channel     Data channel
+     * @param clientUUID  client uuid
+     * @param dataInBytes raw data of the request
+     * @param requestId   correlation id of the request
+     */
+    public ReceiveRequestEvent(String channel, UUID clientUUID, byte[] dataInBytes, long requestId, AbstractConnection abstractConnection) {
+        this(ChannelName.of(channel), clientUUID, dataInBytes, requestId, abstractConnection);
+    }
+
+    /**
+     * Constructor for request receive event
+     * The request is answered once, the first response wins
+     *
+     * @param channelName Data channel as resolved by the connection
+     * @param clientUUID  client uuid
+     * @param dataInBytes raw data of the request
+     * @param requestId   correlation id of the request
+     */
+    public ReceiveRequestEvent(ChannelName channelName, UUID clientUUID, byte[] dataInBytes, long requestId, AbstractConnection abstractConnection) {
+        this.channelName = channelName;
+        this.clientUUID = clientUUID;
+        this.dataInBytes = dataInBytes;
+        this.requestId = requestId;
+        this.abstractConnection = abstractConnection;
+        this.responded = new AtomicBoolean(false);
+    }
+
+    /**
+     * Send the response of this request
+     *
+     * @param bytes raw data of the response, null is sent as empty response
+     * @return true if this was the first response
+     */
+    public boolean respond(byte[] bytes) {
+        if (!this.responded.compareAndSet(false, true)) {
+            return false;
+        }
+        this.abstractConnection.writeResponse(this.channelName.getName(), this.requestId, bytes != null ? bytes : new byte[0]);
+        return true;
+    }
+
+    /**
+     * Send an error as response of this request
+     * The future of the requesting side fails with the message
+     *
+     * @param message description of the error
+     * @return true if this was the first response
+     */
+    public boolean respondError(String message) {
+        if (!this.responded.compareAndSet(false, true)) {
+            return false;
+        }
+        this.abstractConnection.writeErrorResponse(this.channelName.getName(), this.requestId, message);
+        return true;
+    }
+
+    /**
+     * Check if this request was already answered
+     *
+     * @return true if a response or an error was sent
+     */
+    public boolean isResponded() {
+        return this.responded.get();
+    }
+
+    /**
+     * Get the channel of this event
+     *
+     * @return channel for this event
+     */
+    @Override
+    public String getChannel() {
+        return this.channelName.getName();
+    }
+
+    /**
+     * Get the normalized channel of this event
+     *
+     * @return ChannelName for this event
+     */
+    @Override
+    public ChannelName getChannelName() {
+        return this.channelName;
+    }
+
+    /**
+     * Get the uuid uf the client
+     *
+     * @return uuid uf the client
+     */
+    public UUID getClientUUID() {
+        return clientUUID;
+    }
+
+    /**
+     * Get the raw received data of the request
+     *
+     * @return raw data as byte array
+     */
+    public byte[] getDataInBytes() {
+        return dataInBytes;
+    }
+
+    /**
+     * Get the correlation id of the request
+     *
+     * @return id of the request on this connection
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Get the client connection
+     *
+     * @return The client connection
+     */
+    @Override
+    public AbstractConnection getConnection() {
+        return this.abstractConnection;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events;
+
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.connections.AbstractConnection;
+
+import java.io.InputStream;
+import java.util.UUID;
+
+public class ReceiveStreamEvent implements IChannelEvent {
+
+    private final ChannelName channelName;
+    private final UUID clientUUID;
+    private final InputStream inputStream;
+    private final AbstractConnection abstractConnection;
+
+    /**
+     * Constructor for stream receive event
+     * Handlers read the stream while it is received and must run in the pool, the stream is closed
+     * after all pool handlers of the event returned
+     *
+     * @param channel     Data channel
+     * @param clientUUID  client uuid
+     * @param inputStream body of the stream
+     */
+    public ReceiveStreamEvent(String channel, UUID clientUUID, InputStream inputStream, AbstractConnection abstractConnection) {
+        this(ChannelName.of(channel), clientUUID, inputStream, abstractConnection);
+    }
+
+    /**
+     * Constructor for stream receive event
+     * Handlers read the stream while it is received and must run in the pool, the stream is closed
+     * after all pool handlers of the event returned
+     *
+     * @param channelName Data channel as resolved by the connection
+     * @param clientUUID  client uuid
+     * @param inputStream body of the stream
+     */
+    public ReceiveStreamEvent(ChannelName channelName, UUID clientUUID, InputStream inputStream, AbstractConnection abstractConnection) {
+        this.channelName = channelName;
+        this.clientUUID = clientUUID;
+        this.inputStream = inputStream;
+        this.abstractConnection = abstractConnection;
+    }
+
+    /**
+     * Get the channel of this event
+     *
+     * @return channel for this event
+     */
+    @Override
+    public String getChannel() {
+        return this.channelName.getName();
+    }
+
+    /**
+     * Get the normalized channel of this event
+     *
+     * @return ChannelName for this event
+     */
+    @Override
+    public ChannelName getChannelName() {
+        return this.channelName;
+    }
+
+    /**
+     * Get the uuid uf the client
+     *
+     * @return uuid uf the client
+     */
+    public UUID getClientUUID() {
+        return clientUUID;
+    }
+
+    /**
+     * Get the body of the stream
+     * Reads block until the next chunk is received and return -1 after the last chunk
+     *
+     * @return body as InputStream
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * Get the client connection
+     *
+     * @return The client connection
+     */
+    @Override
+    public AbstractConnection getConnection() {
+        return this.abstractConnection;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events;
+
+import de.linzn.stemLink.connections.AbstractConnection;
+
+import java.util.UUID;
+
+public class WritabilityChangedEvent implements IEvent {
+    private final UUID uuid;
+    private final boolean writable;
+    private final AbstractConnection abstractConnection;
+
+    /**
+     * Constructor for writability changed event
+     *
+     * @param uuid     Client uuid for event
+     * @param writable new writability of the connection
+     */
+    public WritabilityChangedEvent(UUID uuid, boolean writable, AbstractConnection abstractConnection) {
+        this.uuid = uuid;
+        this.writable = writable;
+        this.abstractConnection = abstractConnection;
+    }
+
+    /**
+     * Get the client uuid of this event
+     *
+     * @return UUID of the client
+     */
+    public UUID getClientUUID() {
+        return uuid;
+    }
+
+    /**
+     * Check if the send buffer dropped below its low water mark
+     * Events are delivered asynchronously, the current state is available with AbstractConnection.isWritable
+     *
+     * @return true if the connection got writable, false if it passed the high water mark
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Get the client connection
+     *
+     * @return The client connection
+     */
+    @Override
+    public AbstractConnection getConnection() {
+        return this.abstractConnection;
+    }
+}
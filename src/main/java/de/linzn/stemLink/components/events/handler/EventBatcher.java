@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events.handler;
+
+import de.linzn.stemLink.components.events.IEvent;
+import de.linzn.stemLink.components.timer.Timeout;
+import de.linzn.stemLink.components.timer.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+final class EventBatcher {
+    private final EventInvoker invoker;
+    private final Supplier<Executor> executorSupplier;
+    private final Supplier<Executor> lingerExecutorSupplier;
+    private final TimerWheel timerWheel;
+    private List<IEvent> events;
+    private boolean drainScheduled;
+    private Timeout lingerTimeout;
+
+    /**
+     * Accumulates the events of one channel for a batch handler
+     * Only one batch is delivered at a time, so the handler gets the events in receive order
+     *
+     * @param invoker                batch handler
+     * @param executorSupplier       supplies the executor which delivers a batch
+     * @param lingerExecutorSupplier supplies the executor which delivers a batch after its linger expired,
+     *                               it must not run the batch in the thread of the TimerWheel
+     * @param timerWheel             TimerWheel for the linger of incomplete batches
+     */
+    EventBatcher(EventInvoker invoker, Supplier<Executor> executorSupplier, Supplier<Executor> lingerExecutorSupplier, TimerWheel timerWheel) {
+        this.invoker = invoker;
+        this.executorSupplier = executorSupplier;
+        this.lingerExecutorSupplier = lingerExecutorSupplier;
+        this.timerWheel = timerWheel;
+        this.events = new ArrayList<>();
+    }
+
+    /**
+     * Add an event to the current batch
+     * The batch is delivered when it is full, when the linger expired or directly without linger
+     *
+     * @param event IEvent to add
+     */
+    void add(IEvent event) {
+        boolean submit = false;
+        synchronized (this) {
+            this.events.add(event);
+            if (!this.drainScheduled) {
+                if (this.events.size() >= this.invoker.getMaxBatchSize() || this.invoker.getMaxLingerMillis() == 0) {
+                    this.scheduleDrain();
+                    submit = true;
+                } else if (this.lingerTimeout == null) {
+                    this.lingerTimeout = this.timerWheel.schedule(this::lingerExpired, this.invoker.getMaxLingerMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        if (submit) {
+            this.executorSupplier.get().execute(this::drain);
+        }
+    }
+
+    private void scheduleDrain() {
+        this.drainScheduled = true;
+        if (this.lingerTimeout != null) {
+            this.lingerTimeout.cancel();
+            this.lingerTimeout = null;
+        }
+    }
+
+    private void lingerExpired() {
+        boolean submit = false;
+        synchronized (this) {
+            this.lingerTimeout = null;
+            if (!this.drainScheduled && !this.events.isEmpty()) {
+                this.scheduleDrain();
+                submit = true;
+            }
+        }
+        if (submit) {
+            this.lingerExecutorSupplier.get().execute(this::drain);
+        }
+    }
+
+    /**
+     * Deliver one batch and schedule the next one if more events are waiting
+     */
+    private void drain() {
+        List<IEvent> batch;
+        synchronized (this) {
+            int maxBatchSize = this.invoker.getMaxBatchSize();
+            if (this.events.size() <= maxBatchSize) {
+                batch = this.events;
+                this.events = new ArrayList<>();
+            } else {
+                List<IEvent> head = this.events.subList(0, maxBatchSize);
+                batch = new ArrayList<>(head);
+                head.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            this.invoker.invokeBatch(batch);
+        }
+        boolean submit = false;
+        synchronized (this) {
+            this.drainScheduled = false;
+            if (this.events.size() >= this.invoker.getMaxBatchSize() || (!this.events.isEmpty() && this.invoker.getMaxLingerMillis() == 0)) {
+                this.scheduleDrain();
+                submit = true;
+            } else if (!this.events.isEmpty() && this.lingerTimeout == null) {
+                this.lingerTimeout = this.timerWheel.schedule(this::lingerExpired, this.invoker.getMaxLingerMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (submit) {
+            this.executorSupplier.get().execute(this::drain);
+        }
+    }
+}
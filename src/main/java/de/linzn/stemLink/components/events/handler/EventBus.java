@@ -12,94 +12,307 @@
 package de.linzn.stemLink.components.events.handler;
 
 import de.linzn.stemLink.components.IStemLinkWrapper;
+import de.linzn.stemLink.components.events.IChannelEvent;
 import de.linzn.stemLink.components.events.IEvent;
 import de.linzn.stemLink.components.events.ReceiveDataEvent;
+import de.linzn.stemLink.components.events.ReceiveRequestEvent;
+import de.linzn.stemLink.components.events.ReceiveStreamEvent;
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.components.timer.TimerWheel;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 public class EventBus {
-    private final Map<Object, Map<Method, Class<IEvent>>> listenerSetMap;
+    /* Immutable snapshot, replaced atomically on every registration */
+    private final AtomicReference<EventRegistry> registry;
 
     private final IStemLinkWrapper stemLinkWrapper;
+    private final SerialExecutorGroup serialExecutorGroup;
+    private final Map<String, Executor> executors;
+    private final TimerWheel timerWheel;
 
     public EventBus(IStemLinkWrapper stemLinkWrapper) {
-        this.listenerSetMap = new HashMap<>();
+        this(stemLinkWrapper, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * EventBus with a bounded amount of workers for ordered event delivery
+     *
+     * @param stemLinkWrapper the iLinkMask mask class
+     * @param maxWorkers      maximum amount of parallel event workers
+     */
+    public EventBus(IStemLinkWrapper stemLinkWrapper, int maxWorkers) {
+        this.registry = new AtomicReference<>(EventRegistry.EMPTY);
         this.stemLinkWrapper = stemLinkWrapper;
+        this.serialExecutorGroup = new SerialExecutorGroup(stemLinkWrapper, maxWorkers);
+        this.executors = new ConcurrentHashMap<>();
+        this.timerWheel = new TimerWheel(stemLinkWrapper, 1, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * Register a named executor for handlers with ThreadMode.EXECUTOR
+     *
+     * @param name     name of the executor in the EventHandler annotation
+     * @param executor Executor for the handlers
+     */
+    public void registerExecutor(String name, Executor executor) {
+        this.executors.put(name, executor);
+    }
+
+    /**
+     * Unregister a named executor
+     * Handlers of this executor run on the pool until a new executor is registered
+     *
+     * @param name name of the executor
+     */
+    public void unregisterExecutor(String name) {
+        this.executors.remove(name);
+    }
+
+    /**
+     * Get the worker group for ordered event delivery
+     *
+     * @return SerialExecutorGroup of this EventBus
+     */
+    public SerialExecutorGroup getSerialExecutorGroup() {
+        return this.serialExecutorGroup;
+    }
+
+    /**
+     * Get the timer of this EventBus
+     * Used for batch lingers and request timeouts
+     *
+     * @return TimerWheel of this EventBus
+     */
+    public TimerWheel getTimerWheel() {
+        return this.timerWheel;
     }
 
     /**
-     * Gets methods and event class in a listener
+     * Gets methods and event class in a listener and compiles them into invokers
      *
      * @param listener Listener to check if a method has an annotation
-     * @return Map with event class and methods for this listener
+     * @return List with the invokers for this listener
      */
-    private Map<Method, Class<IEvent>> findHandlers(Object listener) {
-        Map<Method, Class<IEvent>> methods = new HashMap<>();
+    private List<EventInvoker> findHandlers(Object listener) {
+        List<EventInvoker> invokers = new ArrayList<>();
 
         for (Method m : listener.getClass().getDeclaredMethods()) {
             EventHandler annotation = m.getAnnotation(EventHandler.class);
             if (annotation != null) {
-                Class<?>[] params = m.getParameterTypes();
-                if (params.length != 1) {
-                    stemLinkWrapper.log("Method " + m + " in class " + listener.getClass() + " annotated with " + annotation + " does not have single argument", Level.SEVERE);
+                Class<? extends IEvent> eventClass = getEventClass(m);
+                if (eventClass == null) {
+                    stemLinkWrapper.log("Method " + m + " in class " + listener.getClass() + " annotated with " + annotation + " does not have a single IEvent or List<ReceiveDataEvent> argument", Level.SEVERE);
                     continue;
                 }
-                Class<IEvent> iEvent = (Class<IEvent>) params[0];
-                methods.put(m, iEvent);
+                try {
+                    invokers.add(new EventInvoker(this.stemLinkWrapper, listener, m, eventClass, annotation));
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    stemLinkWrapper.log("Method " + m + " in class " + listener.getClass() + " is not accessible", Level.SEVERE);
+                    stemLinkWrapper.log(e, Level.SEVERE);
+                }
+            }
+            RequestHandler requestHandler = m.getAnnotation(RequestHandler.class);
+            if (requestHandler != null) {
+                if (m.getParameterCount() != 1 || m.getParameterTypes()[0] != ReceiveRequestEvent.class
+                        || (m.getReturnType() != byte[].class && !CompletionStage.class.isAssignableFrom(m.getReturnType()))) {
+                    stemLinkWrapper.log("Method " + m + " in class " + listener.getClass() + " annotated with " + requestHandler + " does not take a ReceiveRequestEvent and return byte[] or CompletionStage<byte[]>", Level.SEVERE);
+                    continue;
+                }
+                try {
+                    invokers.add(new EventInvoker(this.stemLinkWrapper, listener, m, requestHandler));
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    stemLinkWrapper.log("Method " + m + " in class " + listener.getClass() + " is not accessible", Level.SEVERE);
+                    stemLinkWrapper.log(e, Level.SEVERE);
+                }
             }
         }
-        return methods;
+        return invokers;
     }
 
-
     /**
-     * Call a listener method
+     * Get the event class of a handler method
+     * Batch handlers take a List of ReceiveDataEvent
      *
-     * @param event         IEvent to call
-     * @param method        Method in listener
-     * @param classInstance classInstance object which contains the method to call
+     * @param method annotated method
+     * @return event class or null if the method has no valid argument
      */
-    private void callMethod(IEvent event, Method method, Object classInstance) {
-        try {
-            method.invoke(classInstance, event);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            e.printStackTrace();
+    private static Class<? extends IEvent> getEventClass(Method method) {
+        Class<?>[] params = method.getParameterTypes();
+        if (params.length != 1) {
+            return null;
+        }
+        if (IEvent.class.isAssignableFrom(params[0])) {
+            return params[0].asSubclass(IEvent.class);
         }
+        if (params[0] == List.class) {
+            Type type = method.getGenericParameterTypes()[0];
+            if (type instanceof ParameterizedType && ((ParameterizedType) type).getActualTypeArguments()[0] == ReceiveDataEvent.class) {
+                return ReceiveDataEvent.class;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if a listener would get an event
+     *
+     * @param eventClass class of the event
+     * @param channel    channel of the event or null for events without channel
+     * @return true if a handler for the event class and channel is registered
+     */
+    public boolean hasEventHandler(Class<? extends IEvent> eventClass, String channel) {
+        return this.hasEventHandler(eventClass, channel != null ? ChannelName.of(channel) : null);
+    }
+
+    /**
+     * Check if a listener would get an event
+     *
+     * @param eventClass  class of the event
+     * @param channelName channel of the event or null for events without channel
+     * @return true if a handler for the event class and channel is registered
+     */
+    public boolean hasEventHandler(Class<? extends IEvent> eventClass, ChannelName channelName) {
+        EventDispatch eventDispatch = this.registry.get().getDispatch(eventClass);
+        return eventDispatch != null && (!eventDispatch.getWildcardInvokers().isEmpty() || !eventDispatch.getChannelInvokers(channelName).isEmpty());
     }
 
     /**
-     * Call all listener with the IEvent
+     * Check if a RequestHandler would answer a request
+     * Listeners with an EventHandler for the ReceiveRequestEvent get the request too, but never answer it
+     *
+     * @param channelName channel of the request
+     * @return true if a responder for the channel is registered
+     */
+    public boolean hasResponder(ChannelName channelName) {
+        EventDispatch eventDispatch = this.registry.get().getDispatch(ReceiveRequestEvent.class);
+        return eventDispatch != null && eventDispatch.hasResponder(channelName);
+    }
+
+    /**
+     * Call all listener with the IEvent in the calling thread
      *
      * @param event IEvent to call in classInstance
      */
     public void callEventHandler(IEvent event) {
-        for (Object classInstance : this.listenerSetMap.keySet()) {
-            Map<Method, Class<IEvent>> handler = this.listenerSetMap.get(classInstance);
-            for (Method method : handler.keySet()) {
-                Class<IEvent> iClass = handler.get(method);
-                if (iClass.equals(event.getClass())) {
-                    EventHandler annotation = method.getAnnotation(EventHandler.class);
-                    String annotationChannel = annotation.channel();
-                    if (annotationChannel.isEmpty() || ((ReceiveDataEvent) event).getChannel().equalsIgnoreCase(annotationChannel)) {
-                        callMethod(event, method, classInstance);
-                    }
+        this.callEventHandler(event, Runnable::run);
+    }
+
+    /**
+     * Call all listener with the IEvent in the thread of their ThreadMode
+     * Inline handlers run in the calling thread before this method returns, all pool handlers of the event
+     * are submitted as one task to the poolExecutor. Batch handlers get the event added to the batch of its channel.
+     *
+     * @param event        IEvent to call in classInstance
+     * @param poolExecutor Executor for handlers with ThreadMode.POOL
+     */
+    public void callEventHandler(IEvent event, Executor poolExecutor) {
+        EventDispatch eventDispatch = this.registry.get().getDispatch(event.getClass());
+        if (eventDispatch == null) {
+            return;
+        }
+        /* Only channel events have a channel, all other events only reach handlers without channel */
+        ChannelName channelName = event instanceof IChannelEvent ? ((IChannelEvent) event).getChannelName() : null;
+        List<EventInvoker> channelInvokers = eventDispatch.getChannelInvokers(channelName);
+        List<EventInvoker> wildcardInvokers = eventDispatch.getWildcardInvokers();
+        boolean pooled = this.dispatch(event, channelInvokers, false);
+        pooled |= this.dispatch(event, wildcardInvokers, false);
+        if (pooled) {
+            poolExecutor.execute(() -> {
+                this.dispatch(event, channelInvokers, true);
+                this.dispatch(event, wildcardInvokers, true);
+            });
+        }
+    }
+
+    /**
+     * Run or submit the invokers of one dispatch list
+     *
+     * @param event    IEvent to call
+     * @param invokers invokers of the event
+     * @param pool     true to run the pool handlers, false to run the inline and executor handlers
+     * @return true if pool handlers were skipped
+     */
+    private boolean dispatch(IEvent event, List<EventInvoker> invokers, boolean pool) {
+        boolean pooled = false;
+        for (EventInvoker invoker : invokers) {
+            if (invoker.isBatch()) {
+                if (!pool) {
+                    ChannelName channelName = ((ReceiveDataEvent) event).getChannelName();
+                    invoker.getBatcher(channelName, key -> this.newBatcher(invoker)).add(event);
+                }
+                continue;
+            }
+            Executor executor = null;
+            ThreadMode threadMode = invoker.getThreadMode();
+            if (threadMode == ThreadMode.EXECUTOR) {
+                executor = this.executors.get(invoker.getExecutorName());
+                if (executor == null) {
+                    /* Unknown executor names fall back to the pool */
+                    threadMode = ThreadMode.POOL;
+                }
+            }
+            if (threadMode == ThreadMode.POOL) {
+                if (pool) {
+                    invoker.invoke(event);
+                }
+                pooled = true;
+            } else if (!pool) {
+                if (executor != null) {
+                    executor.execute(() -> invoker.invoke(event));
+                } else {
+                    invoker.invoke(event);
                 }
             }
         }
+        return pooled;
+    }
+
+    /**
+     * Create the EventBatcher of a batch handler for one channel
+     * Inline batches run in the receiving thread, but a batch of an expired linger runs on a SerialExecutor,
+     * so a slow handler never delays the other timeouts of the TimerWheel
+     *
+     * @param invoker batch handler
+     * @return new EventBatcher
+     */
+    private EventBatcher newBatcher(EventInvoker invoker) {
+        if (invoker.getThreadMode() == ThreadMode.INLINE) {
+            /* Without linger every batch is delivered by the receiving thread */
+            SerialExecutor lingerExecutor = invoker.getMaxLingerMillis() > 0 ? this.serialExecutorGroup.newSerialExecutor() : null;
+            return new EventBatcher(invoker, () -> Runnable::run, () -> lingerExecutor, this.timerWheel);
+        }
+        SerialExecutor serialExecutor = this.serialExecutorGroup.newSerialExecutor();
+        Supplier<Executor> executorSupplier;
+        if (invoker.getThreadMode() == ThreadMode.EXECUTOR) {
+            executorSupplier = () -> this.executors.getOrDefault(invoker.getExecutorName(), serialExecutor);
+        } else {
+            executorSupplier = () -> serialExecutor;
+        }
+        return new EventBatcher(invoker, executorSupplier, executorSupplier, this.timerWheel);
     }
 
     /**
      * Register a new Event listener classInstance
+     * A listener which is already registered gets its handlers replaced
      *
      * @param classInstance Event listener classInstance to register
      */
     public void register(Object classInstance) {
-        Map<Method, Class<IEvent>> handler = findHandlers(classInstance);
-        this.listenerSetMap.put(classInstance, handler);
+        this.swap(null, classInstance);
     }
 
 
@@ -109,6 +322,40 @@ public class EventBus {
      * @param classInstance Event listener classInstance to unregister
      */
     public void unregister(Object classInstance) {
-        listenerSetMap.remove(classInstance);
+        this.swap(classInstance, null);
+    }
+
+    /**
+     * Replace a listener with a new one in a single step
+     * Dispatching threads either see the old or the new listener, never none of them
+     *
+     * @param oldInstance Event listener classInstance to unregister or null
+     * @param newInstance Event listener classInstance to register or null
+     */
+    public void swap(Object oldInstance, Object newInstance) {
+        List<EventInvoker> handler = Collections.emptyList();
+        if (newInstance != null) {
+            handler = findHandlers(newInstance);
+            for (EventInvoker invoker : handler) {
+                if (!invoker.getChannel().isEmpty() && !IChannelEvent.class.isAssignableFrom(invoker.getEventClass())) {
+                    stemLinkWrapper.log("Method " + invoker.getMethod() + " has a channel but " + invoker.getEventClass().getSimpleName() + " has no channel", Level.WARNING);
+                }
+                if (invoker.getThreadMode() != ThreadMode.POOL && ReceiveStreamEvent.class.isAssignableFrom(invoker.getEventClass())) {
+                    stemLinkWrapper.log("Method " + invoker.getMethod() + " reads a stream outside of the pool, the stream may be closed before it is read", Level.WARNING);
+                }
+                if (invoker.getThreadMode() == ThreadMode.EXECUTOR && !this.executors.containsKey(invoker.getExecutorName())) {
+                    stemLinkWrapper.log("Method " + invoker.getMethod() + " uses executor '" + invoker.getExecutorName() + "' which is not registered yet", Level.WARNING);
+                }
+            }
+        }
+        EventRegistry current;
+        EventRegistry updated;
+        do {
+            current = this.registry.get();
+            if (newInstance == null && !current.contains(oldInstance)) {
+                return;
+            }
+            updated = current.with(oldInstance, newInstance, handler);
+        } while (!this.registry.compareAndSet(current, updated));
     }
 }
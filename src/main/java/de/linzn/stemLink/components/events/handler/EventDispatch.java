@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events.handler;
+
+import de.linzn.stemLink.components.protocol.ChannelName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class EventDispatch {
+    private final Map<ChannelName, List<EventInvoker>> channelInvokers;
+    private final List<EventInvoker> wildcardInvokers;
+    private final Set<ChannelName> responderChannels;
+    private final boolean wildcardResponder;
+
+    /**
+     * Immutable dispatch index of one event class
+     * Invokers with a channel are keyed by their ChannelName, invokers without channel get every event
+     *
+     * @param invokers all invokers of the event class in registration order
+     */
+    EventDispatch(List<EventInvoker> invokers) {
+        Map<ChannelName, List<EventInvoker>> channelInvokers = new HashMap<>();
+        List<EventInvoker> wildcardInvokers = new ArrayList<>();
+        Set<ChannelName> responderChannels = new HashSet<>();
+        boolean wildcardResponder = false;
+        for (EventInvoker invoker : invokers) {
+            if (invoker.getChannel().isEmpty()) {
+                wildcardInvokers.add(invoker);
+                wildcardResponder |= invoker.isResponder();
+            } else {
+                ChannelName channelName = ChannelName.of(invoker.getChannel());
+                channelInvokers.computeIfAbsent(channelName, key -> new ArrayList<>()).add(invoker);
+                if (invoker.isResponder()) {
+                    responderChannels.add(channelName);
+                }
+            }
+        }
+        channelInvokers.replaceAll((key, list) -> Collections.unmodifiableList(list));
+        this.channelInvokers = Collections.unmodifiableMap(channelInvokers);
+        this.wildcardInvokers = Collections.unmodifiableList(wildcardInvokers);
+        this.responderChannels = Collections.unmodifiableSet(responderChannels);
+        this.wildcardResponder = wildcardResponder;
+    }
+
+    /**
+     * Check if a responder answers the requests of a channel
+     * Plain listeners of the request event do not count, they never send a response
+     *
+     * @param channelName channel of the request
+     * @return true if a RequestHandler of the channel or of all channels is registered
+     */
+    boolean hasResponder(ChannelName channelName) {
+        return this.wildcardResponder || this.responderChannels.contains(channelName);
+    }
+
+    /**
+     * Get the invokers of a channel
+     *
+     * @param channelName channel of the event or null for events without channel
+     * @return invokers registered for exactly this channel
+     */
+    List<EventInvoker> getChannelInvokers(ChannelName channelName) {
+        if (channelName == null || this.channelInvokers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<EventInvoker> invokers = this.channelInvokers.get(channelName);
+        return invokers != null ? invokers : Collections.emptyList();
+    }
+
+    List<EventInvoker> getWildcardInvokers() {
+        return this.wildcardInvokers;
+    }
+}
@@ -27,4 +27,35 @@ public @interface EventHandler {
      * @return Channel as String
      */
     String channel() default "";
+
+    /**
+     * Thread in which the handler runs
+     * Default is the shared pool of the EventBus.
+     *
+     * @return ThreadMode of the handler
+     */
+    ThreadMode threadMode() default ThreadMode.POOL;
+
+    /**
+     * Name of the executor for ThreadMode.EXECUTOR
+     * The executor is registered in the EventBus with this name.
+     *
+     * @return Executor name as String
+     */
+    String executor() default "";
+
+    /**
+     * Maximum amount of events per call of a batch handler with a List of ReceiveDataEvent
+     *
+     * @return maximum batch size
+     */
+    int maxBatchSize() default 100;
+
+    /**
+     * Maximum time in milliseconds a batch handler waits for more events before an incomplete batch is delivered
+     * Default is 0. So a batch contains the events received while the previous batch was handled.
+     *
+     * @return maximum linger in milliseconds
+     */
+    long maxLingerMillis() default 0;
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events.handler;
+
+import de.linzn.stemLink.components.IStemLinkWrapper;
+import de.linzn.stemLink.components.events.IEvent;
+import de.linzn.stemLink.components.events.ReceiveRequestEvent;
+import de.linzn.stemLink.components.protocol.ChannelName;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+final class EventInvoker {
+    private static final MethodType EXECUTOR_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType RESPONDER_TYPE = MethodType.methodType(Object.class, Object.class, Object.class);
+    /* Error response of a failed responder, the exception itself stays on this side */
+    private static final String RESPONDER_ERROR = "Responder failed";
+
+    private final IStemLinkWrapper stemLinkWrapper;
+    private final Object listener;
+    private final Method method;
+    private final Class<? extends IEvent> eventClass;
+    private final String channel;
+    private final ThreadMode threadMode;
+    private final String executorName;
+    private final int maxBatchSize;
+    private final long maxLingerMillis;
+    private final Map<ChannelName, EventBatcher> batchers;
+    private final boolean responder;
+    private final EventExecutor eventExecutor;
+
+    /**
+     * Compiled invoker of one listener method
+     * The annotation values are read once on registration
+     *
+     * @param stemLinkWrapper wrapper for logging exceptions of the listener
+     * @param listener        listener instance
+     * @param method          annotated listener method
+     * @param eventClass      event class of the method parameter, the element class for batch handlers
+     * @param annotation      annotation of the method
+     * @throws ReflectiveOperationException if the method is not accessible
+     */
+    EventInvoker(IStemLinkWrapper stemLinkWrapper, Object listener, Method method, Class<? extends IEvent> eventClass, EventHandler annotation) throws ReflectiveOperationException {
+        this.stemLinkWrapper = stemLinkWrapper;
+        this.listener = listener;
+        this.method = method;
+        this.eventClass = eventClass;
+        this.channel = annotation.channel();
+        this.threadMode = annotation.threadMode();
+        this.executorName = annotation.executor();
+        this.maxBatchSize = Math.max(1, annotation.maxBatchSize());
+        this.maxLingerMillis = Math.max(0, annotation.maxLingerMillis());
+        this.batchers = method.getParameterTypes()[0] == List.class ? new ConcurrentHashMap<>() : null;
+        this.responder = false;
+        this.eventExecutor = compile(method, method.getParameterTypes()[0]);
+    }
+
+    /**
+     * Compiled invoker of one responder method
+     * The return value of the method is sent as response of the request
+     *
+     * @param stemLinkWrapper wrapper for logging exceptions of the responder
+     * @param listener        listener instance
+     * @param method          annotated responder method
+     * @param annotation      annotation of the method
+     * @throws ReflectiveOperationException if the method is not accessible
+     */
+    EventInvoker(IStemLinkWrapper stemLinkWrapper, Object listener, Method method, RequestHandler annotation) throws ReflectiveOperationException {
+        this.stemLinkWrapper = stemLinkWrapper;
+        this.listener = listener;
+        this.method = method;
+        this.eventClass = ReceiveRequestEvent.class;
+        this.channel = annotation.channel();
+        this.threadMode = annotation.threadMode();
+        this.executorName = annotation.executor();
+        this.maxBatchSize = 1;
+        this.maxLingerMillis = 0;
+        this.batchers = null;
+        this.responder = true;
+        this.eventExecutor = this.compileResponder(method);
+    }
+
+    /**
+     * Compile a listener method into an EventExecutor
+     * Public methods of classes visible to this class loader get a LambdaMetafactory class, which the JIT can inline
+     * like a direct call. All other methods use a MethodHandle.
+     *
+     * @param method        listener method
+     * @param parameterType type of the method parameter
+     * @return EventExecutor for the method
+     * @throws ReflectiveOperationException if the method is not accessible
+     */
+    private static EventExecutor compile(Method method, Class<?> parameterType) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        if (isLambdaCompatible(method, parameterType)) {
+            try {
+                MethodHandle target = lookup.unreflect(method);
+                CallSite callSite = LambdaMetafactory.metafactory(lookup, "execute", MethodType.methodType(EventExecutor.class),
+                        EXECUTOR_TYPE, target, MethodType.methodType(void.class, method.getDeclaringClass(), parameterType));
+                return (EventExecutor) callSite.getTarget().invoke();
+            } catch (Throwable ignored) {
+                /* Fall back to a MethodHandle below */
+            }
+        }
+        if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            method.setAccessible(true);
+        }
+        MethodHandle methodHandle = lookup.unreflect(method);
+        if (Modifier.isStatic(method.getModifiers())) {
+            methodHandle = MethodHandles.dropArguments(methodHandle, 0, Object.class);
+        }
+        MethodHandle executorHandle = methodHandle.asType(EXECUTOR_TYPE);
+        return (listener, event) -> {
+            executorHandle.invokeExact(listener, event);
+        };
+    }
+
+    /**
+     * Compile a responder method into an EventExecutor which sends the return value as response
+     * A failed responder is answered with a generic error, its exception is only logged on this side
+     *
+     * @param method responder method
+     * @return EventExecutor for the method
+     * @throws ReflectiveOperationException if the method is not accessible
+     */
+    private EventExecutor compileResponder(Method method) throws ReflectiveOperationException {
+        if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            method.setAccessible(true);
+        }
+        MethodHandle methodHandle = MethodHandles.lookup().unreflect(method);
+        if (Modifier.isStatic(method.getModifiers())) {
+            methodHandle = MethodHandles.dropArguments(methodHandle, 0, Object.class);
+        }
+        MethodHandle responderHandle = methodHandle.asType(RESPONDER_TYPE);
+        return (listener, event) -> {
+            ReceiveRequestEvent requestEvent = (ReceiveRequestEvent) event;
+            Object response;
+            try {
+                response = responderHandle.invokeExact(listener, event);
+            } catch (Throwable throwable) {
+                requestEvent.respondError(RESPONDER_ERROR);
+                throw throwable;
+            }
+            if (response instanceof CompletionStage) {
+                ((CompletionStage<?>) response).whenComplete((bytes, throwable) -> {
+                    if (throwable != null) {
+                        this.stemLinkWrapper.log("Error in responder " + method, Level.SEVERE);
+                        this.stemLinkWrapper.log(throwable instanceof CompletionException ? throwable.getCause() : throwable, Level.SEVERE);
+                        requestEvent.respondError(RESPONDER_ERROR);
+                    } else {
+                        requestEvent.respond((byte[]) bytes);
+                    }
+                });
+            } else {
+                requestEvent.respond((byte[]) response);
+            }
+        };
+    }
+
+    /**
+     * Check if a generated lambda class can call the method
+     * The lambda class is defined in the class loader of the EventBus, so it must see the listener and event class
+     *
+     * @param method        listener method
+     * @param parameterType type of the method parameter
+     * @return true if LambdaMetafactory can be used
+     */
+    private static boolean isLambdaCompatible(Method method, Class<?> parameterType) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        if (Modifier.isStatic(method.getModifiers()) || !Modifier.isPublic(method.getModifiers())
+                || !Modifier.isPublic(declaringClass.getModifiers()) || !Modifier.isPublic(parameterType.getModifiers())) {
+            return false;
+        }
+        return isVisible(declaringClass) && isVisible(parameterType);
+    }
+
+    private static boolean isVisible(Class<?> type) {
+        try {
+            return Class.forName(type.getName(), false, EventInvoker.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Call the listener method
+     * Exceptions of the listener are logged and do not stop the dispatch to other listeners
+     *
+     * @param event IEvent to call
+     */
+    void invoke(IEvent event) {
+        try {
+            this.eventExecutor.execute(this.listener, event);
+        } catch (Throwable throwable) {
+            this.stemLinkWrapper.log("Error in event handler " + this.method, Level.SEVERE);
+            this.stemLinkWrapper.log(throwable, Level.SEVERE);
+        }
+    }
+
+    /**
+     * Call the batch listener method
+     *
+     * @param events batch of events
+     */
+    void invokeBatch(List<? extends IEvent> events) {
+        try {
+            this.eventExecutor.execute(this.listener, events);
+        } catch (Throwable throwable) {
+            this.stemLinkWrapper.log("Error in batch handler " + this.method, Level.SEVERE);
+            this.stemLinkWrapper.log(throwable, Level.SEVERE);
+        }
+    }
+
+    /**
+     * Get the batcher of a channel for a batch handler
+     *
+     * @param channelName channel of the event
+     * @param factory     creates the batcher for a new channel
+     * @return EventBatcher of the channel
+     */
+    EventBatcher getBatcher(ChannelName channelName, Function<ChannelName, EventBatcher> factory) {
+        EventBatcher eventBatcher = this.batchers.get(channelName);
+        return eventBatcher != null ? eventBatcher : this.batchers.computeIfAbsent(channelName, factory);
+    }
+
+    boolean isBatch() {
+        return batchers != null;
+    }
+
+    boolean isResponder() {
+        return responder;
+    }
+
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    Object getListener() {
+        return listener;
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    Class<? extends IEvent> getEventClass() {
+        return eventClass;
+    }
+
+    String getChannel() {
+        return channel;
+    }
+
+    ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    String getExecutorName() {
+        return executorName;
+    }
+
+    @FunctionalInterface
+    interface EventExecutor {
+        void execute(Object listener, Object argument) throws Throwable;
+    }
+}
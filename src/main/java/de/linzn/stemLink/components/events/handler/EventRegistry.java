@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events.handler;
+
+import de.linzn.stemLink.components.events.IEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class EventRegistry {
+    static final EventRegistry EMPTY = new EventRegistry(Collections.emptyMap());
+
+    private final Map<Object, List<EventInvoker>> listeners;
+    private final Map<Class<? extends IEvent>, EventDispatch> dispatchIndex;
+
+    /**
+     * Immutable snapshot of all registered listeners with its dispatch index
+     * Changes create a new snapshot, so dispatching threads never see a partial registration
+     *
+     * @param listeners registered listeners with their invokers in registration order
+     */
+    private EventRegistry(Map<Object, List<EventInvoker>> listeners) {
+        this.listeners = listeners;
+        Map<Class<? extends IEvent>, List<EventInvoker>> invokersByClass = new HashMap<>();
+        for (List<EventInvoker> invokers : listeners.values()) {
+            for (EventInvoker invoker : invokers) {
+                invokersByClass.computeIfAbsent(invoker.getEventClass(), eventClass -> new ArrayList<>()).add(invoker);
+            }
+        }
+        Map<Class<? extends IEvent>, EventDispatch> dispatchIndex = new HashMap<>();
+        for (Map.Entry<Class<? extends IEvent>, List<EventInvoker>> entry : invokersByClass.entrySet()) {
+            dispatchIndex.put(entry.getKey(), new EventDispatch(entry.getValue()));
+        }
+        this.dispatchIndex = dispatchIndex;
+    }
+
+    /**
+     * Get the dispatch index of an event class
+     *
+     * @param eventClass class of the event
+     * @return EventDispatch or null if no handler exists
+     */
+    EventDispatch getDispatch(Class<? extends IEvent> eventClass) {
+        return this.dispatchIndex.get(eventClass);
+    }
+
+    /**
+     * Create a new snapshot with a listener replaced
+     *
+     * @param oldListener listener to remove or null
+     * @param newListener listener to add or null
+     * @param invokers    invokers of the new listener
+     * @return new EventRegistry
+     */
+    EventRegistry with(Object oldListener, Object newListener, List<EventInvoker> invokers) {
+        Map<Object, List<EventInvoker>> listeners = new LinkedHashMap<>(this.listeners);
+        if (oldListener != null) {
+            listeners.remove(oldListener);
+        }
+        if (newListener != null) {
+            listeners.remove(newListener);
+            listeners.put(newListener, Collections.unmodifiableList(new ArrayList<>(invokers)));
+        }
+        return new EventRegistry(Collections.unmodifiableMap(listeners));
+    }
+
+    boolean contains(Object listener) {
+        return this.listeners.containsKey(listener);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events.handler;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Responder for the requests of a channel
+ * The method takes a ReceiveRequestEvent and returns the response as byte array or as CompletionStage of a byte array.
+ * A thrown exception or a failed stage is sent to the requesting side as error.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RequestHandler {
+
+    /**
+     * Channel of the requests
+     *
+     * @return Channel as String
+     */
+    String channel();
+
+    /**
+     * Thread in which the responder runs
+     * Default is the shared pool of the EventBus, requests of one channel are answered in receive order.
+     * Responders which return a CompletionStage or run in an executor answer the requests of a channel in parallel.
+     *
+     * @return ThreadMode of the responder
+     */
+    ThreadMode threadMode() default ThreadMode.POOL;
+
+    /**
+     * Name of the executor for ThreadMode.EXECUTOR
+     * The executor is registered in the EventBus with this name.
+     *
+     * @return Executor name as String
+     */
+    String executor() default "";
+}
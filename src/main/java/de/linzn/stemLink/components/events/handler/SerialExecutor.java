@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events.handler;
+
+import de.linzn.stemLink.components.protocol.Priority;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+public class SerialExecutor implements Executor {
+    /* Tasks per turn before other executors of the group get a worker */
+    private static final int MAX_BATCH = 64;
+
+    private final SerialExecutorGroup serialExecutorGroup;
+    private final Priority priority;
+    private final Queue<Runnable> tasks;
+    private final AtomicBoolean scheduled;
+
+    /**
+     * Ordered lane of a SerialExecutorGroup
+     *
+     * @param serialExecutorGroup group which runs the tasks
+     * @param priority            Priority of this lane in the group
+     */
+    SerialExecutor(SerialExecutorGroup serialExecutorGroup, Priority priority) {
+        this.serialExecutorGroup = serialExecutorGroup;
+        this.priority = priority;
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean(false);
+    }
+
+    /**
+     * Queue a task behind all earlier tasks of this executor
+     *
+     * @param task task to run
+     */
+    @Override
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.serialExecutorGroup.schedule(this);
+        }
+    }
+
+    Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Run pending tasks in order, called by exactly one worker at a time
+     */
+    void runBatch() {
+        Runnable task;
+        int count = 0;
+        while (count++ < MAX_BATCH && (task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                this.serialExecutorGroup.getStemLinkWrapper().log(e, Level.SEVERE);
+            }
+        }
+        this.scheduled.set(false);
+        /* Tasks added while this batch was running need a new turn */
+        if (!this.tasks.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+            this.serialExecutorGroup.schedule(this);
+        }
+    }
+}
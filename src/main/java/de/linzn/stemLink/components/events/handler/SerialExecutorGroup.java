@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events.handler;
+
+import de.linzn.stemLink.components.IStemLinkWrapper;
+import de.linzn.stemLink.components.protocol.Priority;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SerialExecutorGroup {
+    private final IStemLinkWrapper stemLinkWrapper;
+    private final int maxWorkers;
+    private final AtomicInteger activeWorkers;
+    /* One queue of ready executors per Priority */
+    private final Queue<SerialExecutor>[] readyExecutors;
+
+    /**
+     * Bounded worker pool for SerialExecutors
+     * Workers are started with the stemLinkWrapper when executors have tasks and end when nothing is left,
+     * so an idle group holds no thread. Ready executors of a higher priority get the next free worker first.
+     *
+     * @param stemLinkWrapper the iLinkMask mask class
+     * @param maxWorkers      maximum amount of parallel workers
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SerialExecutorGroup(IStemLinkWrapper stemLinkWrapper, int maxWorkers) {
+        this.stemLinkWrapper = stemLinkWrapper;
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.activeWorkers = new AtomicInteger();
+        this.readyExecutors = new Queue[Priority.values().length];
+        for (int i = 0; i < this.readyExecutors.length; i++) {
+            this.readyExecutors[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Create a new ordered lane in this group
+     * Tasks of one SerialExecutor run one after another, different SerialExecutors run in parallel
+     *
+     * @return new SerialExecutor
+     */
+    public SerialExecutor newSerialExecutor() {
+        return this.newSerialExecutor(Priority.BULK);
+    }
+
+    /**
+     * Create a new ordered lane in this group with a priority
+     *
+     * @param priority Priority of the lane
+     * @return new SerialExecutor
+     */
+    public SerialExecutor newSerialExecutor(Priority priority) {
+        return new SerialExecutor(this, priority);
+    }
+
+    /**
+     * Queue a SerialExecutor with pending tasks for the next free worker
+     *
+     * @param serialExecutor SerialExecutor with pending tasks
+     */
+    void schedule(SerialExecutor serialExecutor) {
+        this.readyExecutors[serialExecutor.getPriority().ordinal()].add(serialExecutor);
+        if (this.tryAcquireWorker()) {
+            this.stemLinkWrapper.runThread(this::runWorker);
+        }
+    }
+
+    IStemLinkWrapper getStemLinkWrapper() {
+        return this.stemLinkWrapper;
+    }
+
+    private boolean tryAcquireWorker() {
+        int workers;
+        do {
+            workers = this.activeWorkers.get();
+            if (workers >= this.maxWorkers) {
+                return false;
+            }
+        } while (!this.activeWorkers.compareAndSet(workers, workers + 1));
+        return true;
+    }
+
+    private void runWorker() {
+        do {
+            SerialExecutor serialExecutor;
+            while ((serialExecutor = this.pollReady()) != null) {
+                serialExecutor.runBatch();
+            }
+            this.activeWorkers.decrementAndGet();
+            /* An executor scheduled after the last poll may have found all workers busy */
+        } while (this.hasReady() && this.tryAcquireWorker());
+    }
+
+    private SerialExecutor pollReady() {
+        for (Queue<SerialExecutor> queue : this.readyExecutors) {
+            SerialExecutor serialExecutor = queue.poll();
+            if (serialExecutor != null) {
+                return serialExecutor;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasReady() {
+        for (Queue<SerialExecutor> queue : this.readyExecutors) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
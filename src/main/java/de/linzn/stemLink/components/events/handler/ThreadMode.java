@@ -0,0 +1,21 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.events.handler;
+
+public enum ThreadMode {
+    /* Run in the thread which received the event, handlers must not block */
+    INLINE,
+    /* Run on the shared workers of the EventBus, in receive order per connection and channel */
+    POOL,
+    /* Run on the executor registered with the name of the handler */
+    EXECUTOR
+}
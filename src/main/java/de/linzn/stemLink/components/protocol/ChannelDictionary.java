@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ChannelDictionary {
+    public static final int MAX_CHANNELS = 0xFFFF;
+
+    private final Map<ChannelName, Integer> outboundIds;
+    private int nextOutboundId;
+    private ChannelName[] inboundChannels;
+
+    /**
+     * Constructor for a new ChannelDictionary of one connection
+     * Outbound and inbound ids are independent, each side assigns the ids for the channels it sends
+     */
+    public ChannelDictionary() {
+        this.outboundIds = new ConcurrentHashMap<>();
+        this.nextOutboundId = 1;
+        this.inboundChannels = new ChannelName[16];
+    }
+
+    /**
+     * Get the id of an outbound channel
+     * Every casing of a channel uses the same id
+     *
+     * @param channelName ChannelName of the channel
+     * @return id of the channel or 0 if the channel has no id yet
+     */
+    public int getOutboundId(ChannelName channelName) {
+        Integer channelId = this.outboundIds.get(channelName);
+        return channelId == null ? 0 : channelId;
+    }
+
+    /**
+     * Reserve the next free outbound id
+     * Must be called while holding the lock of this dictionary
+     *
+     * @return new channel id or 0 if all ids are in use
+     */
+    public int reserveOutboundId() {
+        if (this.nextOutboundId > MAX_CHANNELS) {
+            return 0;
+        }
+        return this.nextOutboundId++;
+    }
+
+    /**
+     * Publish an outbound id after its define frame is written
+     *
+     * @param channelName ChannelName of the channel
+     * @param channelId   id of the channel
+     */
+    public void publishOutboundId(ChannelName channelName, int channelId) {
+        this.outboundIds.put(channelName, channelId);
+    }
+
+    /**
+     * Define an inbound channel id from the remote side
+     * The ChannelName lives only as long as this dictionary, so a peer can not grow memory beyond its own connection
+     * Only called from the reading thread of the connection
+     *
+     * @param channelId id of the channel
+     * @param channel   name of the channel
+     * @return ChannelName of the channel
+     * @throws IOException if the id is not valid
+     */
+    public ChannelName defineInbound(int channelId, String channel) throws IOException {
+        if (channelId <= 0 || channelId > MAX_CHANNELS) {
+            throw new IOException("Invalid channel id: " + channelId);
+        }
+        if (channelId >= this.inboundChannels.length) {
+            this.inboundChannels = Arrays.copyOf(this.inboundChannels, Math.min(MAX_CHANNELS + 1, Math.max(channelId + 1, this.inboundChannels.length * 2)));
+        }
+        ChannelName channelName = ChannelName.of(channel);
+        this.inboundChannels[channelId] = channelName;
+        return channelName;
+    }
+
+    /**
+     * Resolve an inbound channel id from the remote side
+     * Only called from the reading thread of the connection
+     *
+     * @param channelId id of the channel
+     * @return ChannelName of the channel
+     * @throws IOException if the id was never defined
+     */
+    public ChannelName resolveInbound(int channelId) throws IOException {
+        ChannelName channelName = channelId > 0 && channelId < this.inboundChannels.length ? this.inboundChannels[channelId] : null;
+        if (channelName == null) {
+            throw new IOException("Unknown channel id: " + channelId);
+        }
+        return channelName;
+    }
+}
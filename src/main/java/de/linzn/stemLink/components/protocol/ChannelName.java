@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.util.Locale;
+
+public final class ChannelName {
+    private final String name;
+    private final String key;
+    private final int hash;
+
+    private ChannelName(String name, String key) {
+        this.name = name;
+        this.key = key;
+        this.hash = key.hashCode();
+    }
+
+    /**
+     * Create the ChannelName for a channel
+     * Channels are case insensitive, so every casing is equal to the same ChannelName
+     * Instances are not cached globally, inbound names live in the ChannelDictionary of their connection
+     *
+     * @param name name of the channel
+     * @return ChannelName of the channel
+     */
+    public static ChannelName of(String name) {
+        return new ChannelName(name, name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get the name of the channel as first seen
+     *
+     * @return channel name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the normalized lower case name of the channel
+     *
+     * @return normalized channel name
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof ChannelName)) {
+            return false;
+        }
+        ChannelName channelName = (ChannelName) object;
+        return this.hash == channelName.hash && this.key.equals(channelName.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ChannelPriorities {
+    /* Channel of the heartbeats of AbstractConnection */
+    private static final ChannelName HEARTBEAT_CHANNEL = ChannelName.of("keep_alive_heartbeat");
+
+    private final Map<ChannelName, Priority> priorities;
+    private volatile Priority defaultPriority;
+
+    /**
+     * Priority lanes of the channels of one or more connections
+     * The heartbeat channel always has the SYSTEM priority
+     */
+    public ChannelPriorities() {
+        this.priorities = new ConcurrentHashMap<>();
+        this.defaultPriority = Priority.BULK;
+    }
+
+    /**
+     * Set the priority of a channel
+     * Change the priority only while the channel is idle, frames of one channel are only ordered within one lane
+     *
+     * @param channel  channel name
+     * @param priority Priority of the channel or null to use the default priority
+     */
+    public void setPriority(String channel, Priority priority) {
+        if (priority == null) {
+            this.priorities.remove(ChannelName.of(channel));
+        } else {
+            this.priorities.put(ChannelName.of(channel), priority);
+        }
+    }
+
+    /**
+     * Set the priority of all channels without own priority
+     *
+     * @param priority default Priority
+     */
+    public void setDefaultPriority(Priority priority) {
+        this.defaultPriority = priority;
+    }
+
+    /**
+     * Get the priority of a channel
+     *
+     * @param channel channel name
+     * @return Priority of the channel
+     */
+    public Priority getPriority(String channel) {
+        return this.getPriority(ChannelName.of(channel));
+    }
+
+    /**
+     * Get the priority of a resolved channel
+     *
+     * @param channelName ChannelName of the channel
+     * @return Priority of the channel
+     */
+    public Priority getPriority(ChannelName channelName) {
+        if (HEARTBEAT_CHANNEL.equals(channelName)) {
+            return Priority.SYSTEM;
+        }
+        Priority priority = this.priorities.get(channelName);
+        return priority != null ? priority : this.defaultPriority;
+    }
+}
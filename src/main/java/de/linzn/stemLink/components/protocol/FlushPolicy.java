@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+public class FlushPolicy {
+    /* Flush as soon as the outbound queue is empty, at most 64 frames per flush */
+    public static final FlushPolicy DEFAULT = new FlushPolicy(64, 0);
+
+    private final int maxFrames;
+    private final long maxDelayMicros;
+
+    /**
+     * Latency budget for coalescing queued frames into one socket write
+     *
+     * @param maxFrames      maximum amount of frames written with one flush
+     * @param maxDelayMicros maximum time in microseconds to wait for more frames before a flush, 0 to never wait
+     */
+    public FlushPolicy(int maxFrames, long maxDelayMicros) {
+        if (maxFrames < 1 || maxDelayMicros < 0) {
+            throw new IllegalArgumentException("Invalid flush policy " + maxFrames + "/" + maxDelayMicros);
+        }
+        this.maxFrames = maxFrames;
+        this.maxDelayMicros = maxDelayMicros;
+    }
+
+    /**
+     * Get the maximum amount of frames per flush
+     *
+     * @return maximum amount of frames
+     */
+    public int getMaxFrames() {
+        return this.maxFrames;
+    }
+
+    /**
+     * Get the maximum time to wait for more frames before a flush
+     *
+     * @return maximum delay in microseconds
+     */
+    public long getMaxDelayMicros() {
+        return this.maxDelayMicros;
+    }
+}
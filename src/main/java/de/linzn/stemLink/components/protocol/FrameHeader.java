@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class FrameHeader {
+    public static final byte VERSION = 2;
+    /* int frameLength */
+    public static final int LENGTH_SIZE = 4;
+    /* byte version, byte flags, int channelId, long timeStamp */
+    public static final int HEADER_SIZE = 14;
+    /* long correlationId behind the header of request and response frames */
+    public static final int CORRELATION_SIZE = 8;
+    public static final int MAX_FRAME_SIZE = Integer.MAX_VALUE - LENGTH_SIZE;
+    /* Header with correlation id, longest channel name and cipher nonce, tag or padding around one message */
+    public static final int MAX_FRAME_OVERHEAD = HEADER_SIZE + CORRELATION_SIZE + 2 + 0xFFFF + 64;
+    /* The body starts with the channel name which gets the channel id of the header */
+    public static final byte FLAG_CHANNEL_DEFINE = 0x01;
+    /* The payload behind the channel name is compressed */
+    public static final byte FLAG_COMPRESSED = 0x02;
+    /* More fragments of the message follow, the last fragment has no fragment flag */
+    public static final byte FLAG_FRAGMENT = 0x04;
+    /* The frame is a chunk of a stream, more chunks follow while the fragment flag is set */
+    public static final byte FLAG_STREAM = 0x08;
+    /* The stream of the channel was aborted by the sender */
+    public static final byte FLAG_STREAM_ABORT = 0x10;
+    /* The first chunk of the stream is the file metadata instead of content */
+    public static final byte FLAG_FILE = 0x20;
+    /* The frame is a request, its correlation id is repeated in the response */
+    public static final byte FLAG_REQUEST = 0x40;
+    /* The frame is the response to the request with the correlation id of the header */
+    public static final byte FLAG_RESPONSE = (byte) 0x80;
+    /* Both correlation flags together mark a frame of a logical stream, the correlation id is the stream id */
+    public static final byte FLAG_MULTIPLEXED = (byte) (FLAG_REQUEST | FLAG_RESPONSE);
+
+    private final byte flags;
+    private final int channelId;
+    private final long timeStamp;
+    private final long correlationId;
+
+    /**
+     * Constructor for a new FrameHeader
+     *
+     * @param flags     flag bits of the frame
+     * @param channelId channel id or 0 if the channel name is part of the body
+     */
+    public FrameHeader(byte flags, int channelId) {
+        this(flags, channelId, 0);
+    }
+
+    /**
+     * Constructor for a new FrameHeader of a request or response
+     *
+     * @param flags         flag bits of the frame
+     * @param channelId     channel id or 0 if the channel name is part of the body
+     * @param correlationId id of the request, only written with the request or response flag
+     */
+    public FrameHeader(byte flags, int channelId, long correlationId) {
+        this(flags, channelId, System.currentTimeMillis(), correlationId);
+    }
+
+    private FrameHeader(byte flags, int channelId, long timeStamp, long correlationId) {
+        this.flags = flags;
+        this.channelId = channelId;
+        this.timeStamp = timeStamp;
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * Read the header of a frame
+     * The buffer must be positioned behind the length prefix
+     *
+     * @param buffer buffer with the frame
+     * @return FrameHeader of the frame
+     * @throws IOException if the frame version is unknown
+     */
+    public static FrameHeader read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Frame too short: " + buffer.remaining());
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unknown frame version: " + version);
+        }
+        byte flags = buffer.get();
+        int channelId = buffer.getInt();
+        long timeStamp = buffer.getLong();
+        long correlationId = 0;
+        if ((flags & (FLAG_REQUEST | FLAG_RESPONSE)) != 0) {
+            if (buffer.remaining() < CORRELATION_SIZE) {
+                throw new IOException("Frame too short for correlation id: " + buffer.remaining());
+            }
+            correlationId = buffer.getLong();
+        }
+        return new FrameHeader(flags, channelId, timeStamp, correlationId);
+    }
+
+    /**
+     * Write the length prefix and this header
+     *
+     * @param buffer     buffer to write into
+     * @param bodyLength length of the encrypted body
+     */
+    public void write(ByteBuffer buffer, int bodyLength) {
+        buffer.putInt(this.size() + bodyLength);
+        buffer.put(VERSION);
+        buffer.put(this.flags);
+        buffer.putInt(this.channelId);
+        buffer.putLong(this.timeStamp);
+        if (this.hasCorrelationId()) {
+            buffer.putLong(this.correlationId);
+        }
+    }
+
+    /**
+     * Get the size of this header without length prefix
+     * The whole header is authenticated with the frame body
+     *
+     * @return header size in bytes
+     */
+    public int size() {
+        return this.hasCorrelationId() ? HEADER_SIZE + CORRELATION_SIZE : HEADER_SIZE;
+    }
+
+    private boolean hasCorrelationId() {
+        return (this.flags & (FLAG_REQUEST | FLAG_RESPONSE)) != 0;
+    }
+
+    /**
+     * Get the length of the longest frame which can carry a message of the given size
+     *
+     * @param maxMessageSize maximum size of a received message
+     * @return maximum frame length without length prefix
+     */
+    public static int maxFrameLength(int maxMessageSize) {
+        return (int) Math.min(MAX_FRAME_SIZE, (long) maxMessageSize + MAX_FRAME_OVERHEAD);
+    }
+
+    /**
+     * Check and get the length of a frame from its length prefix
+     * The prefix is not authenticated, so it is checked before any buffer for the frame is allocated
+     *
+     * @param frameLength    length prefix of the frame
+     * @param maxFrameLength maximum length of a frame, see maxFrameLength
+     * @return the frame length
+     * @throws IOException if the length is not valid
+     */
+    public static int checkFrameLength(int frameLength, int maxFrameLength) throws IOException {
+        if (frameLength < HEADER_SIZE || frameLength > maxFrameLength) {
+            throw new IOException("Invalid frame length: " + frameLength);
+        }
+        return frameLength;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public boolean hasFlag(byte flag) {
+        return (this.flags & flag) != 0;
+    }
+
+    public int getChannelId() {
+        return channelId;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    public boolean isMultiplexed() {
+        return (this.flags & FLAG_MULTIPLEXED) == FLAG_MULTIPLEXED;
+    }
+
+    public long getStreamId() {
+        return correlationId;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class FrameReader {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private final DataInputStream dataInput;
+    private byte[] buffer;
+
+    /**
+     * Constructor for a FrameReader of one socket
+     * The reader keeps its stream buffer for the lifetime of the socket, so no read ahead bytes get lost
+     *
+     * @param inputStream input stream of the socket
+     */
+    public FrameReader(InputStream inputStream) {
+        this.dataInput = new DataInputStream(new BufferedInputStream(inputStream, STREAM_BUFFER_SIZE));
+        this.buffer = new byte[MIN_BUFFER_SIZE];
+    }
+
+    /**
+     * Read the length prefix of a binary frame
+     *
+     * @param maxFrameLength maximum length of a frame
+     * @return length of the frame
+     * @throws IOException if the read failed or the length is invalid
+     */
+    public int readFrameLength(int maxFrameLength) throws IOException {
+        return FrameHeader.checkFrameLength(this.dataInput.readInt(), maxFrameLength);
+    }
+
+    /**
+     * Read a value in the writeUTF format as raw bytes
+     *
+     * @return length of the value in the buffer
+     * @throws IOException if the read failed
+     */
+    public int readUTFValue() throws IOException {
+        return this.readFully(this.dataInput.readUnsignedShort());
+    }
+
+    /**
+     * Read an exact amount of bytes into the reusable buffer
+     * The content is only valid until the next read
+     *
+     * @param length amount of bytes to read
+     * @return length of the read bytes
+     * @throws IOException if the read failed
+     */
+    public int readFully(int length) throws IOException {
+        byte[] target = this.buffer(length);
+        this.dataInput.readFully(target, 0, length);
+        return length;
+    }
+
+    /**
+     * Get the reusable buffer with the last read bytes
+     *
+     * @return buffer array
+     */
+    public byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Get a buffer with at least the given size
+     * Buffers grow in power of two size classes and huge buffers are not retained
+     *
+     * @param size minimum size of the buffer
+     * @return buffer array
+     */
+    private byte[] buffer(int size) {
+        if (this.buffer.length >= size && (this.buffer.length <= MAX_RETAINED_BUFFER_SIZE || this.buffer.length / 2 < size)) {
+            return this.buffer;
+        }
+        if (size > MAX_RETAINED_BUFFER_SIZE) {
+            this.buffer = new byte[size];
+        } else {
+            this.buffer = new byte[Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(size - 1) << 1)];
+        }
+        return this.buffer;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import de.linzn.stemLink.components.buffer.PooledBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class FrameWriter implements Runnable {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    /* Wakes the writer thread after close */
+    private static final OutboundFrame CLOSE_MARKER = new OutboundFrame(PooledBuffer.unpooled(ByteBuffer.allocate(0)));
+
+    private final BufferedOutputStream outputStream;
+    private final OutboundQueue outboundQueue;
+    /* One permit per queued frame, wakes the writer thread */
+    private final Semaphore queuedFrames;
+    private final List<OutboundFrame> unflushedFrames;
+    private final FlushPolicy flushPolicy;
+    private final Runnable failureAction;
+    private volatile boolean closed;
+    private byte[] transferBuffer;
+
+    /**
+     * Constructor for a FrameWriter of one socket
+     * Frames are queued by the sending threads and written by the thread running this writer,
+     * so many small frames share one flush of the stream buffer
+     *
+     * @param outputStream  output stream of the socket
+     * @param flushPolicy   latency budget for coalescing frames
+     * @param failureAction called from the writer thread if a write failed
+     */
+    public FrameWriter(OutputStream outputStream, FlushPolicy flushPolicy, Runnable failureAction) {
+        this.outputStream = new BufferedOutputStream(outputStream, STREAM_BUFFER_SIZE);
+        this.outboundQueue = new OutboundQueue();
+        this.queuedFrames = new Semaphore(0);
+        this.unflushedFrames = new ArrayList<>();
+        this.flushPolicy = flushPolicy;
+        this.failureAction = failureAction;
+        this.closed = false;
+    }
+
+    /**
+     * Queue a complete encoded frame for the writer thread
+     * The frame is completed after it was flushed or failed if the writer is closed
+     *
+     * @param frame Encoded frame
+     */
+    public void enqueue(OutboundFrame frame) {
+        if (this.closed) {
+            frame.fail(new IOException("FrameWriter is closed"));
+            return;
+        }
+        this.outboundQueue.add(frame);
+        this.queuedFrames.release();
+        /* close() may have drained the queue before the frame was added */
+        if (this.closed && this.outboundQueue.remove(frame)) {
+            frame.fail(new IOException("FrameWriter is closed"));
+        }
+    }
+
+    /**
+     * Queue the frames of one message for the writer thread
+     * The frames stay together in the lane of their priority
+     *
+     * @param frames Encoded frames with the same priority
+     */
+    public void enqueue(List<OutboundFrame> frames) {
+        if (this.closed) {
+            for (OutboundFrame frame : frames) {
+                frame.fail(new IOException("FrameWriter is closed"));
+            }
+            return;
+        }
+        this.outboundQueue.addAll(frames);
+        this.queuedFrames.release(frames.size());
+        /* close() may have drained the queue before the frames were added */
+        if (this.closed) {
+            for (OutboundFrame frame : frames) {
+                if (this.outboundQueue.remove(frame)) {
+                    frame.fail(new IOException("FrameWriter is closed"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the writer thread and release all queued frames
+     */
+    public void close() {
+        this.closed = true;
+        this.outboundQueue.add(CLOSE_MARKER);
+        this.queuedFrames.release();
+    }
+
+    @Override
+    public void run() {
+        Thread.currentThread().setName("StemLink-Writer");
+        try {
+            while (!this.closed) {
+                this.queuedFrames.acquire();
+                OutboundFrame frame = this.outboundQueue.poll();
+                int frames = 0;
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(this.flushPolicy.getMaxDelayMicros());
+                while (frame != null && frame != CLOSE_MARKER) {
+                    this.writeFrame(frame);
+                    if (++frames >= this.flushPolicy.getMaxFrames()) {
+                        break;
+                    }
+                    frame = this.queuedFrames.tryAcquire() ? this.outboundQueue.poll() : null;
+                    if (frame == null && this.flushPolicy.getMaxDelayMicros() > 0) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining > 0) {
+                            frame = this.queuedFrames.tryAcquire(remaining, TimeUnit.NANOSECONDS) ? this.outboundQueue.poll() : null;
+                        }
+                    }
+                }
+                if (frames > 0) {
+                    this.outputStream.flush();
+                    for (OutboundFrame flushedFrame : this.unflushedFrames) {
+                        flushedFrame.complete();
+                    }
+                    this.unflushedFrames.clear();
+                }
+            }
+        } catch (IOException e) {
+            this.closed = true;
+            this.failQueue(e);
+            this.failureAction.run();
+        } catch (InterruptedException e) {
+            this.closed = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            this.failQueue(new IOException("FrameWriter is closed"));
+        }
+    }
+
+    /**
+     * Write one frame into the stream buffer and release its buffer
+     * The frame is completed with the next flush
+     *
+     * @param frame Encoded frame
+     * @throws IOException if the write failed
+     */
+    private void writeFrame(OutboundFrame frame) throws IOException {
+        this.unflushedFrames.add(frame);
+        try {
+            ByteBuffer buffer = frame.buffer();
+            if (buffer.hasArray()) {
+                this.outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else {
+                if (this.transferBuffer == null) {
+                    this.transferBuffer = new byte[STREAM_BUFFER_SIZE];
+                }
+                while (buffer.hasRemaining()) {
+                    int length = Math.min(buffer.remaining(), this.transferBuffer.length);
+                    buffer.get(this.transferBuffer, 0, length);
+                    this.outputStream.write(this.transferBuffer, 0, length);
+                }
+            }
+        } finally {
+            frame.releaseBuffer();
+        }
+    }
+
+    /**
+     * Fail all frames which were not flushed
+     *
+     * @param cause reason why the frames were not written
+     */
+    private void failQueue(IOException cause) {
+        for (OutboundFrame unflushedFrame : this.unflushedFrames) {
+            unflushedFrame.fail(cause);
+        }
+        this.unflushedFrames.clear();
+        OutboundFrame frame;
+        while ((frame = this.outboundQueue.poll()) != null) {
+            if (frame != CLOSE_MARKER) {
+                frame.fail(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import de.linzn.stemLink.components.IStemLinkWrapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+
+public class LogicalStream extends OutputStream {
+    private final IStemLinkWrapper stemLinkWrapper;
+    private final long streamId;
+    private final StreamWindow streamWindow;
+    private final int maxChunkSize;
+    private final ChunkSink chunkSink;
+    private final CompletableFuture<Void> future;
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * Sending side of a logical stream inside a connection
+     * Every write waits only for the credit of this stream, so a slow reader of one stream never
+     * blocks the other streams and messages of the connection. Writes are split into chunks of at most
+     * the chunk size, wrap the stream into a BufferedOutputStream to write single bytes.
+     *
+     * @param stemLinkWrapper the iLinkMask mask class
+     * @param streamId        id of the stream in the frame header
+     * @param streamWindow    send credit of the stream
+     * @param maxChunkSize    maximum size of one chunk frame
+     * @param chunkSink       writer of the chunk frames
+     */
+    public LogicalStream(IStemLinkWrapper stemLinkWrapper, long streamId, StreamWindow streamWindow, int maxChunkSize, ChunkSink chunkSink) {
+        this.stemLinkWrapper = stemLinkWrapper;
+        this.streamId = streamId;
+        this.streamWindow = streamWindow;
+        this.maxChunkSize = maxChunkSize;
+        this.chunkSink = chunkSink;
+        this.future = new CompletableFuture<>();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Write the remaining bytes of a buffer as chunks of this stream
+     * Every chunk is sealed before it is sent, so the buffer can be reused after this method returns
+     *
+     * @param data data to send, from its position to its limit
+     * @throws IOException if the stream was closed, reset by the remote side or the connection was closed
+     */
+    public synchronized void write(ByteBuffer data) throws IOException {
+        this.ensureOpen();
+        while (data.hasRemaining()) {
+            int length = this.streamWindow.acquire(Math.min(data.remaining(), this.maxChunkSize));
+            ByteBuffer chunk = data.duplicate();
+            chunk.limit(chunk.position() + length);
+            this.chunkSink.writeChunk((byte) (FrameHeader.FLAG_MULTIPLEXED | FrameHeader.FLAG_STREAM | FrameHeader.FLAG_FRAGMENT), chunk, null);
+            data.position(data.position() + length);
+        }
+    }
+
+    /**
+     * End the stream after the written chunks
+     * The future of the stream completes when the last chunk was written to the socket
+     *
+     * @throws IOException if the end of the stream could not be sent
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed || this.failure != null) {
+            return;
+        }
+        this.closed = true;
+        this.chunkSink.writeChunk((byte) (FrameHeader.FLAG_MULTIPLEXED | FrameHeader.FLAG_STREAM), ByteBuffer.allocate(0), this.future);
+    }
+
+    /**
+     * Abort the stream, the reader of the remote side gets an IOException after the received chunks
+     */
+    public void abort() {
+        IOException cause = new IOException("Stream aborted");
+        if (this.fail(cause)) {
+            try {
+                this.chunkSink.writeChunk((byte) (FrameHeader.FLAG_MULTIPLEXED | FrameHeader.FLAG_STREAM | FrameHeader.FLAG_STREAM_ABORT), ByteBuffer.allocate(0), null);
+            } catch (IOException e) {
+                this.stemLinkWrapper.log(e, Level.SEVERE);
+            }
+        }
+    }
+
+    /**
+     * Fail the stream without telling the remote side
+     * Called when the remote side reset the stream or the connection was closed
+     *
+     * @param cause reason of the failure
+     * @return true if the stream was still open
+     */
+    public boolean fail(IOException cause) {
+        synchronized (this.streamWindow) {
+            if (this.failure != null || this.future.isDone()) {
+                return false;
+            }
+            this.failure = cause;
+        }
+        this.streamWindow.fail(cause);
+        this.future.completeExceptionally(cause);
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (this.failure != null) {
+            throw this.failure;
+        } else if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Get the id of this stream
+     *
+     * @return stream id
+     */
+    public long getStreamId() {
+        return this.streamId;
+    }
+
+    /**
+     * Get the send credit of this stream
+     *
+     * @return StreamWindow of the stream
+     */
+    public StreamWindow getStreamWindow() {
+        return this.streamWindow;
+    }
+
+    /**
+     * Get the completion of this stream
+     * Completes after the end of the stream was written or fails if the stream was aborted or reset
+     *
+     * @return future of the stream
+     */
+    public CompletableFuture<Void> getFuture() {
+        return this.future;
+    }
+
+    public interface ChunkSink {
+        /**
+         * Seal and queue one frame of the stream
+         *
+         * @param flags  flag bits of the frame
+         * @param chunk  data of the frame, from its position to its limit
+         * @param future future to complete after the frame was written or null
+         * @throws IOException if the frame could not be queued
+         */
+        void writeChunk(byte flags, ByteBuffer chunk, CompletableFuture<Void> future) throws IOException;
+    }
+}
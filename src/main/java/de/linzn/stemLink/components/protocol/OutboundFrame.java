@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import de.linzn.stemLink.components.buffer.PooledBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+public final class OutboundFrame {
+    private final PooledBuffer frame;
+    private final SendBuffer sendBuffer;
+    private final int reservedBytes;
+    private final CompletableFuture<Void> future;
+    private final Priority priority;
+    private boolean bufferReleased;
+
+    /**
+     * Encoded SYSTEM frame without send buffer accounting and completion
+     *
+     * @param frame Encoded frame in read mode
+     */
+    public OutboundFrame(PooledBuffer frame) {
+        this(frame, null, 0, null, Priority.SYSTEM);
+    }
+
+    /**
+     * Encoded frame in the outbound queue of a connection
+     *
+     * @param frame         Encoded frame in read mode
+     * @param sendBuffer    SendBuffer with the reserved bytes of this frame or null
+     * @param reservedBytes reserved bytes in the SendBuffer
+     * @param future        future to complete after the frame was written or null
+     * @param priority      lane of the frame in the outbound queue
+     */
+    public OutboundFrame(PooledBuffer frame, SendBuffer sendBuffer, int reservedBytes, CompletableFuture<Void> future, Priority priority) {
+        this.frame = frame;
+        this.sendBuffer = sendBuffer;
+        this.reservedBytes = reservedBytes;
+        this.future = future;
+        this.priority = priority;
+    }
+
+    /**
+     * Get the lane of the frame in the outbound queue
+     *
+     * @return Priority of the frame
+     */
+    public Priority priority() {
+        return this.priority;
+    }
+
+    /**
+     * Get the encoded frame
+     *
+     * @return ByteBuffer of the frame
+     */
+    public ByteBuffer buffer() {
+        return this.frame.buffer();
+    }
+
+    /**
+     * Release the frame buffer after its bytes were handed to the socket
+     * The completion is still open until complete or fail is called
+     */
+    public void releaseBuffer() {
+        this.bufferReleased = true;
+        this.frame.release();
+    }
+
+    /**
+     * Mark the frame as written to the socket
+     * Completion callbacks run in the writing thread
+     */
+    public void complete() {
+        if (this.sendBuffer != null) {
+            this.sendBuffer.release(this.reservedBytes);
+        }
+        if (this.future != null) {
+            this.future.complete(null);
+        }
+    }
+
+    /**
+     * Release a frame which was not written completely and fail its completion
+     *
+     * @param cause reason why the frame was not written
+     */
+    public void fail(Throwable cause) {
+        if (!this.bufferReleased) {
+            this.releaseBuffer();
+        }
+        if (this.sendBuffer != null) {
+            this.sendBuffer.release(this.reservedBytes);
+        }
+        if (this.future != null) {
+            this.future.completeExceptionally(cause);
+        }
+    }
+}
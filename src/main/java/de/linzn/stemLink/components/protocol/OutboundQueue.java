@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class OutboundQueue {
+    /* High priority frames polled in a row while bulk frames are waiting */
+    private static final int MAX_HIGH_BURST = 8;
+
+    private final Queue<OutboundFrame>[] lanes;
+    private int highBurst;
+
+    /**
+     * Outbound queue with one lane per Priority
+     * Any thread may add frames, only one thread may poll them. SYSTEM frames are polled first,
+     * HIGH frames before BULK frames, but a waiting BULK frame is not starved by HIGH traffic.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OutboundQueue() {
+        this.lanes = new Queue[Priority.values().length];
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.highBurst = 0;
+    }
+
+    /**
+     * Add a frame to the lane of its priority
+     *
+     * @param frame OutboundFrame to add
+     */
+    public void add(OutboundFrame frame) {
+        Queue<OutboundFrame> lane = this.lanes[frame.priority().ordinal()];
+        synchronized (lane) {
+            lane.add(frame);
+        }
+    }
+
+    /**
+     * Add the frames of one message
+     * The frames of a lane are kept together, so fragments of different messages never mix
+     *
+     * @param frames OutboundFrames with the same priority
+     */
+    public void addAll(List<OutboundFrame> frames) {
+        if (frames.isEmpty()) {
+            return;
+        }
+        Queue<OutboundFrame> lane = this.lanes[frames.get(0).priority().ordinal()];
+        synchronized (lane) {
+            lane.addAll(frames);
+        }
+    }
+
+    /**
+     * Get and remove the next frame
+     * Only called from the thread which writes the frames
+     *
+     * @return next OutboundFrame or null if the queue is empty
+     */
+    public OutboundFrame poll() {
+        OutboundFrame frame = this.lanes[Priority.SYSTEM.ordinal()].poll();
+        if (frame != null) {
+            return frame;
+        }
+        Queue<OutboundFrame> bulkLane = this.lanes[Priority.BULK.ordinal()];
+        if (this.highBurst < MAX_HIGH_BURST || bulkLane.isEmpty()) {
+            frame = this.lanes[Priority.HIGH.ordinal()].poll();
+            if (frame != null) {
+                this.highBurst++;
+                return frame;
+            }
+        }
+        this.highBurst = 0;
+        frame = bulkLane.poll();
+        return frame != null ? frame : this.lanes[Priority.HIGH.ordinal()].poll();
+    }
+
+    /**
+     * Remove a frame which was not polled yet
+     *
+     * @param frame OutboundFrame to remove
+     * @return true if the frame was removed
+     */
+    public boolean remove(OutboundFrame frame) {
+        return this.lanes[frame.priority().ordinal()].remove(frame);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+public enum Priority {
+    /**
+     * Heartbeats and handshake, always sent and dispatched first
+     */
+    SYSTEM,
+    /**
+     * Latency sensitive channels, sent before bulk frames
+     */
+    HIGH,
+    /**
+     * Default for all channels, large messages are interleaved with higher priorities
+     */
+    BULK
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+public enum ProtocolFeature {
+    /**
+     * Binary frame format with primitive header and raw ciphertext
+     */
+    FRAME_V2("frame2"),
+    /**
+     * Integer channel ids instead of channel names in every frame
+     */
+    CHANNEL_IDS("chid"),
+    /**
+     * Negotiated cipher suite with session keys for binary frames
+     */
+    CIPHER_SUITES("suites"),
+    /**
+     * Deflate compressed payloads for channels with compression settings
+     */
+    DEFLATE("deflate"),
+    /**
+     * Large messages split into fragments which interleave with frames of higher priority
+     */
+    FRAGMENTS("frag"),
+    /**
+     * Streams of chunk frames which the receiver reads as InputStream
+     */
+    STREAMS("stream"),
+    /**
+     * File streams with name, size and resume offset of the file
+     */
+    FILES("file"),
+    /**
+     * Requests and responses with a correlation id in the frame header
+     */
+    RPC("rpc"),
+    /**
+     * Logical streams with stream ids and credit based flow control per stream
+     */
+    MULTIPLEX("mux"),
+    /**
+     * Several connections of one client under the same UUID, told apart by their link index
+     */
+    LINKS("links"),
+    /**
+     * Session tickets which let a reconnecting client skip the negotiation of the handshake
+     */
+    RESUME("resume"),
+    /**
+     * Broadcast frames sealed once with a group key of the server for all clients of a cipher suite
+     */
+    BROADCAST("bcast");
+
+    private final String token;
+
+    ProtocolFeature(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Get the handshake token of this feature
+     * Tokens must not contain the handshake separator
+     *
+     * @return token as String
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Get all features supported by this version
+     *
+     * @return Set with all supported features
+     */
+    public static Set<ProtocolFeature> supported() {
+        return EnumSet.allOf(ProtocolFeature.class);
+    }
+
+    /**
+     * Parse a feature list from the handshake
+     * Unknown tokens of newer versions are ignored
+     *
+     * @param tokens comma separated feature tokens
+     * @return Set with all known features
+     */
+    public static Set<ProtocolFeature> fromTokens(String tokens) {
+        Set<ProtocolFeature> features = EnumSet.noneOf(ProtocolFeature.class);
+        if (tokens == null || tokens.isEmpty()) {
+            return features;
+        }
+        for (String token : tokens.split(",")) {
+            for (ProtocolFeature feature : values()) {
+                if (feature.token.equalsIgnoreCase(token.trim())) {
+                    features.add(feature);
+                }
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Convert a feature set to a handshake token list
+     *
+     * @param features Set of features
+     * @return comma separated feature tokens
+     */
+    public static String toTokens(Set<ProtocolFeature> features) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (ProtocolFeature feature : features) {
+            if (stringBuilder.length() > 0) {
+                stringBuilder.append(",");
+            }
+            stringBuilder.append(feature.token);
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Get the features both sides support
+     *
+     * @param remoteFeatures features of the remote side
+     * @return unmodifiable Set with the negotiated features
+     */
+    public static Set<ProtocolFeature> negotiate(Set<ProtocolFeature> remoteFeatures) {
+        Set<ProtocolFeature> features = supported();
+        features.retainAll(remoteFeatures);
+        return Collections.unmodifiableSet(features);
+    }
+}
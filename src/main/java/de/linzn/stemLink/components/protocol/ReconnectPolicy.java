@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ReconnectPolicy {
+    /* First retry within 100 ms, doubled per failed attempt up to 30 seconds */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(100, 30000, 2.0);
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+
+    /**
+     * Exponential backoff with full jitter between reconnect attempts
+     * Each delay is random between 0 and the exponential ceiling, so clients of a restarted server spread out
+     *
+     * @param initialDelayMillis ceiling of the delay after the first failed attempt in milliseconds
+     * @param maxDelayMillis     maximum ceiling of the delay in milliseconds
+     * @param multiplier         growth of the ceiling per failed attempt
+     */
+    public ReconnectPolicy(long initialDelayMillis, long maxDelayMillis, double multiplier) {
+        if (initialDelayMillis < 1 || maxDelayMillis < initialDelayMillis || multiplier < 1.0) {
+            throw new IllegalArgumentException("Invalid reconnect policy " + initialDelayMillis + "/" + maxDelayMillis + "/" + multiplier);
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Get the delay before the next reconnect attempt
+     *
+     * @param attempt amount of failed attempts since the last confirmed handshake, starting with 0
+     * @return random delay in milliseconds
+     */
+    public long getDelayMillis(int attempt) {
+        double ceiling = this.initialDelayMillis * Math.pow(this.multiplier, attempt);
+        long bound = (long) Math.min(this.maxDelayMillis, ceiling);
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * Get the ceiling of the delay after the first failed attempt
+     *
+     * @return initial delay in milliseconds
+     */
+    public long getInitialDelayMillis() {
+        return this.initialDelayMillis;
+    }
+
+    /**
+     * Get the maximum ceiling of the delay
+     *
+     * @return maximum delay in milliseconds
+     */
+    public long getMaxDelayMillis() {
+        return this.maxDelayMillis;
+    }
+
+    /**
+     * Get the growth of the ceiling per failed attempt
+     *
+     * @return multiplier of the ceiling
+     */
+    public double getMultiplier() {
+        return this.multiplier;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class SendBuffer {
+    public static final long DEFAULT_LOW_WATER_MARK = 32 * 1024;
+    public static final long DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+    public static final long DEFAULT_MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private final AtomicLong pendingBytes;
+    private final AtomicBoolean writable;
+    private final Consumer<Boolean> writabilityListener;
+    private volatile long lowWaterMark;
+    private volatile long highWaterMark;
+    private volatile long maxPendingBytes;
+
+    /**
+     * Accounting of the queued but not yet written bytes of one connection
+     * The connection is unwritable above the high water mark until it drains below the low water mark
+     *
+     * @param writabilityListener called with the new state whenever the writability changes
+     */
+    public SendBuffer(Consumer<Boolean> writabilityListener) {
+        this.pendingBytes = new AtomicLong();
+        this.writable = new AtomicBoolean(true);
+        this.writabilityListener = writabilityListener;
+        this.lowWaterMark = DEFAULT_LOW_WATER_MARK;
+        this.highWaterMark = DEFAULT_HIGH_WATER_MARK;
+        this.maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+    }
+
+    /**
+     * Set the limits of this send buffer
+     *
+     * @param lowWaterMark    pending bytes at which the connection gets writable again
+     * @param highWaterMark   pending bytes above which the connection is not writable
+     * @param maxPendingBytes pending bytes above which new messages are rejected
+     */
+    public void setLimits(long lowWaterMark, long highWaterMark, long maxPendingBytes) {
+        if (lowWaterMark < 0 || lowWaterMark > highWaterMark || highWaterMark > maxPendingBytes) {
+            throw new IllegalArgumentException("Invalid send buffer limits " + lowWaterMark + "/" + highWaterMark + "/" + maxPendingBytes);
+        }
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Reserve space for a new message
+     * A message larger than the maximum is still accepted if nothing else is pending
+     *
+     * @param bytes size of the message
+     * @return true if the message fits into the send buffer
+     */
+    public boolean reserve(int bytes) {
+        long pending;
+        do {
+            pending = this.pendingBytes.get();
+            if (pending > 0 && pending + bytes > this.maxPendingBytes) {
+                return false;
+            }
+        } while (!this.pendingBytes.compareAndSet(pending, pending + bytes));
+
+        if (pending + bytes > this.highWaterMark && this.writable.compareAndSet(true, false)) {
+            this.writabilityListener.accept(false);
+        }
+        return true;
+    }
+
+    /**
+     * Give the space of a written or failed message back
+     *
+     * @param bytes size of the message
+     */
+    public void release(int bytes) {
+        long pending = this.pendingBytes.addAndGet(-bytes);
+        if (pending <= this.lowWaterMark && this.writable.compareAndSet(false, true)) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+            this.writabilityListener.accept(true);
+        }
+    }
+
+    /**
+     * Block until the pending bytes are below the low water mark or the timeout is over
+     *
+     * @param timeoutMillis maximum time to wait in milliseconds
+     * @return true if the send buffer is writable
+     * @throws InterruptedException if the thread was interrupted
+     */
+    public synchronized boolean awaitWritable(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (!this.writable.get() && remaining > 0) {
+            this.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return this.writable.get();
+    }
+
+    /**
+     * Check if the pending bytes are below the high water mark
+     *
+     * @return true if producers can continue to send
+     */
+    public boolean isWritable() {
+        return this.writable.get();
+    }
+
+    /**
+     * Get the amount of queued but not yet written bytes
+     *
+     * @return pending bytes
+     */
+    public long getPendingBytes() {
+        return this.pendingBytes.get();
+    }
+}
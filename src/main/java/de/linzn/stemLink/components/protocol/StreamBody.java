@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.function.IntConsumer;
+
+public class StreamBody extends InputStream {
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    private final ArrayDeque<byte[]> chunks;
+    private final int capacity;
+    private int bufferedBytes;
+    private byte[] currentChunk;
+    private int currentPosition;
+    private boolean finished;
+    private boolean closed;
+    private IOException failure;
+    private Runnable writableListener;
+    private volatile IntConsumer consumedListener;
+    private volatile Runnable closeListener;
+
+    /**
+     * Body of a received stream
+     * The reading thread of the connection adds the decrypted chunks, the handler reads them as InputStream.
+     * At most the capacity plus one chunk is buffered, the connection stops reading while the body is full.
+     *
+     * @param capacity buffered bytes at which the body is full
+     */
+    public StreamBody(int capacity) {
+        this.chunks = new ArrayDeque<>();
+        this.capacity = capacity;
+    }
+
+    /**
+     * Add a decrypted chunk
+     * Chunks of a closed body are discarded
+     *
+     * @param chunk chunk of the stream
+     * @return true if the body can take more chunks
+     */
+    public synchronized boolean write(byte[] chunk) {
+        if (this.closed || chunk.length == 0) {
+            return true;
+        }
+        this.chunks.add(chunk);
+        this.bufferedBytes += chunk.length;
+        this.notifyAll();
+        return this.bufferedBytes < this.capacity;
+    }
+
+    /**
+     * Mark the end of the stream after the last chunk
+     */
+    public synchronized void finish() {
+        this.finished = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Abort the stream, the reader gets the cause after the buffered chunks
+     *
+     * @param cause reason of the abort
+     */
+    public synchronized void fail(IOException cause) {
+        if (!this.finished) {
+            this.failure = cause;
+            this.finished = true;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Run a listener as soon as the body can take more chunks
+     * The listener runs at once if the body is not full
+     *
+     * @param listener Runnable to call once
+     */
+    public void onWritable(Runnable listener) {
+        synchronized (this) {
+            if (this.bufferedBytes >= this.capacity && !this.closed) {
+                this.writableListener = listener;
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Run a listener with the size of every chunk the reader consumed
+     * Used to grant new send credit to the remote side of a logical stream
+     *
+     * @param listener IntConsumer called in the reading thread of the handler
+     */
+    public void onConsumed(IntConsumer listener) {
+        this.consumedListener = listener;
+    }
+
+    /**
+     * Run a listener when the body is closed
+     * Used to reset a logical stream whose reader stopped before its end, so the remote sender does not wait for credit
+     *
+     * @param listener Runnable called once in the closing thread
+     */
+    public void onClose(Runnable listener) {
+        this.closeListener = listener;
+    }
+
+    /**
+     * Block until the body can take more chunks
+     *
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    public synchronized void awaitWritable() throws InterruptedIOException {
+        try {
+            while (this.bufferedBytes >= this.capacity && !this.closed) {
+                this.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the stream reader");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read;
+        synchronized (this) {
+            if (!this.awaitChunk()) {
+                return -1;
+            }
+            read = Math.min(len, this.currentChunk.length - this.currentPosition);
+            System.arraycopy(this.currentChunk, this.currentPosition, b, off, read);
+        }
+        this.consume(read);
+        return read;
+    }
+
+    /**
+     * Write the rest of the stream into a channel
+     * The chunks are written as they are received without an intermediate copy
+     *
+     * @param target channel to write into
+     * @return amount of transferred bytes
+     * @throws IOException if the stream was aborted or the target could not be written
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        while (true) {
+            byte[] chunk;
+            int position;
+            synchronized (this) {
+                if (!this.awaitChunk()) {
+                    return transferred;
+                }
+                chunk = this.currentChunk;
+                position = this.currentPosition;
+            }
+            ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk, position, chunk.length - position);
+            while (chunkBuffer.hasRemaining()) {
+                target.write(chunkBuffer);
+            }
+            transferred += chunk.length - position;
+            this.consume(chunk.length - position);
+        }
+    }
+
+    /**
+     * Wait until a chunk is available for the reader
+     * Must be called while holding the lock of this body
+     *
+     * @return false at the end of the stream
+     * @throws IOException if the body was closed or the stream was aborted
+     */
+    private boolean awaitChunk() throws IOException {
+        while (this.currentChunk == null) {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            this.currentChunk = this.chunks.poll();
+            this.currentPosition = 0;
+            if (this.currentChunk == null) {
+                if (this.failure != null) {
+                    throw this.failure;
+                } else if (this.finished) {
+                    return false;
+                }
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for stream data");
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mark bytes of the current chunk as read
+     * A fully read chunk frees its space in the body
+     *
+     * @param count amount of read bytes
+     */
+    private void consume(int count) {
+        Runnable listener = null;
+        int consumed = 0;
+        synchronized (this) {
+            if (this.currentChunk == null) {
+                /* Closed while the chunk was read */
+                return;
+            }
+            this.currentPosition += count;
+            if (this.currentPosition == this.currentChunk.length) {
+                consumed = this.currentChunk.length;
+                this.bufferedBytes -= consumed;
+                this.currentChunk = null;
+                this.notifyAll();
+                /* Continue reading the connection when half of the body is free again */
+                if (this.writableListener != null && this.bufferedBytes <= this.capacity / 2) {
+                    listener = this.writableListener;
+                    this.writableListener = null;
+                }
+            }
+        }
+        if (listener != null) {
+            listener.run();
+        }
+        IntConsumer consumedListener = this.consumedListener;
+        if (consumed > 0 && consumedListener != null) {
+            consumedListener.accept(consumed);
+        }
+    }
+
+    @Override
+    public synchronized int available() {
+        return this.bufferedBytes - this.currentPosition;
+    }
+
+    /**
+     * Get the amount of received but not fully read bytes
+     *
+     * @return buffered bytes
+     */
+    public synchronized int getBufferedBytes() {
+        return this.bufferedBytes;
+    }
+
+    /**
+     * Close the body, the remaining chunks of the stream are discarded
+     */
+    @Override
+    public void close() {
+        Runnable listener;
+        boolean wasClosed;
+        synchronized (this) {
+            wasClosed = this.closed;
+            this.closed = true;
+            this.chunks.clear();
+            this.bufferedBytes = 0;
+            this.currentChunk = null;
+            this.notifyAll();
+            listener = this.writableListener;
+            this.writableListener = null;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+        Runnable closeListener = this.closeListener;
+        if (!wasClosed && closeListener != null) {
+            closeListener.run();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.protocol;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+public class StreamWindow {
+    /* Initial credit of every logical stream, the receiver buffers at most this many bytes per stream */
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024;
+
+    private int credit;
+    private IOException failure;
+
+    /**
+     * Send credit of one logical stream
+     * The sender takes credit for every chunk and waits while none is left, the receiver grants
+     * new credit after its reader consumed the chunks
+     *
+     * @param initialCredit bytes the sender may send before the first window update
+     */
+    public StreamWindow(int initialCredit) {
+        this.credit = initialCredit;
+    }
+
+    /**
+     * Add credit from a window update of the receiver
+     *
+     * @param bytes granted bytes
+     */
+    public synchronized void grant(int bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        this.credit = (int) Math.min(Integer.MAX_VALUE, (long) this.credit + bytes);
+        this.notifyAll();
+    }
+
+    /**
+     * Block until credit is available and take up to the requested amount
+     *
+     * @param maxBytes maximum amount of bytes to take
+     * @return taken credit, at least 1 byte
+     * @throws IOException if the stream failed or the thread was interrupted
+     */
+    public synchronized int acquire(int maxBytes) throws IOException {
+        try {
+            while (this.credit <= 0 && this.failure == null) {
+                this.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for stream credit");
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        int taken = Math.min(this.credit, maxBytes);
+        this.credit -= taken;
+        return taken;
+    }
+
+    /**
+     * Fail the window, waiting and later senders get the cause
+     *
+     * @param cause reason why the stream can not be continued
+     */
+    public synchronized void fail(IOException cause) {
+        if (this.failure == null) {
+            this.failure = cause;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Get the bytes which can be sent without waiting
+     *
+     * @return current credit
+     */
+    public synchronized int getCredit() {
+        return this.credit;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.timer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+public final class Timeout {
+    private final TimerWheel timerWheel;
+    private final Runnable task;
+    private final long deadlineNanos;
+    private final AtomicBoolean done;
+    long remainingRounds;
+
+    /**
+     * Pending task of a TimerWheel
+     *
+     * @param timerWheel    TimerWheel of this timeout
+     * @param task          task to run on expiry
+     * @param deadlineNanos System.nanoTime at which the task is due
+     */
+    Timeout(TimerWheel timerWheel, Runnable task, long deadlineNanos) {
+        this.timerWheel = timerWheel;
+        this.task = task;
+        this.deadlineNanos = deadlineNanos;
+        this.done = new AtomicBoolean(false);
+    }
+
+    /**
+     * Cancel this timeout
+     *
+     * @return true if the task was not run or cancelled before
+     */
+    public boolean cancel() {
+        if (this.done.compareAndSet(false, true)) {
+            this.timerWheel.timeoutFinished();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if this timeout expired or was cancelled
+     *
+     * @return true if the task will not run anymore
+     */
+    public boolean isDone() {
+        return this.done.get();
+    }
+
+    long getDeadlineNanos() {
+        return this.deadlineNanos;
+    }
+
+    /**
+     * Run the task if the timeout was not cancelled
+     */
+    void expire() {
+        if (this.done.compareAndSet(false, true)) {
+            this.timerWheel.timeoutFinished();
+            try {
+                this.task.run();
+            } catch (RuntimeException e) {
+                this.timerWheel.getStemLinkWrapper().log(e, Level.SEVERE);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.components.timer;
+
+import de.linzn.stemLink.components.IStemLinkWrapper;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class TimerWheel {
+    private final IStemLinkWrapper stemLinkWrapper;
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] buckets;
+    private final Queue<Timeout> newTimeouts;
+    private final AtomicInteger pendingTimeouts;
+    private final AtomicBoolean running;
+    private volatile Thread timerThread;
+    private volatile long wakeupNanos;
+
+    /**
+     * Hashed timer wheel for a large amount of short timeouts
+     * Scheduling and cancelling is O(1), expired tasks run in the timer thread and must not block.
+     * The timer thread is started with the stemLinkWrapper when a timeout is scheduled and ends when nothing is pending.
+     * Between timeouts it parks until the next due tick instead of waking up on every tick.
+     *
+     * @param stemLinkWrapper the iLinkMask mask class
+     * @param tickDuration    duration of one tick, which is the precision of the timer
+     * @param unit            TimeUnit of the tickDuration
+     * @param ticksPerWheel   amount of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(IStemLinkWrapper stemLinkWrapper, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0 || ticksPerWheel > 1 << 20) {
+            throw new IllegalArgumentException("Invalid timer wheel " + tickDuration + "/" + ticksPerWheel);
+        }
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        size = Math.max(size, 1);
+        this.stemLinkWrapper = stemLinkWrapper;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.mask = size - 1;
+        this.buckets = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new ArrayDeque<>();
+        }
+        this.newTimeouts = new ConcurrentLinkedQueue<>();
+        this.pendingTimeouts = new AtomicInteger();
+        this.running = new AtomicBoolean(false);
+    }
+
+    /**
+     * Run a task after a delay
+     *
+     * @param task  task to run in the timer thread
+     * @param delay delay before the task runs
+     * @param unit  TimeUnit of the delay
+     * @return Timeout to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        this.pendingTimeouts.incrementAndGet();
+        this.newTimeouts.add(timeout);
+        if (this.running.compareAndSet(false, true)) {
+            this.stemLinkWrapper.runThread(this::runTimer);
+        } else if (timeout.getDeadlineNanos() - this.wakeupNanos < 0) {
+            /* The timer thread parks past the deadline of this timeout */
+            Thread thread = this.timerThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Get the amount of scheduled and not yet expired or cancelled timeouts
+     *
+     * @return pending timeouts
+     */
+    public int getPendingTimeouts() {
+        return this.pendingTimeouts.get();
+    }
+
+    void timeoutFinished() {
+        this.pendingTimeouts.decrementAndGet();
+    }
+
+    IStemLinkWrapper getStemLinkWrapper() {
+        return this.stemLinkWrapper;
+    }
+
+    private void runTimer() {
+        long startNanos = System.nanoTime();
+        long tick = 0;
+        this.timerThread = Thread.currentThread();
+        while (true) {
+            /* Expire every tick which passed while the thread was parked */
+            long currentTick = (System.nanoTime() - startNanos) / this.tickNanos;
+            this.transferNewTimeouts(startNanos, tick);
+            while (tick <= currentTick) {
+                this.expireBucket(this.buckets[(int) (tick & this.mask)]);
+                tick++;
+            }
+
+            if (this.pendingTimeouts.get() == 0) {
+                this.timerThread = null;
+                this.running.set(false);
+                /* A timeout scheduled before the flag was reset did not start a new timer thread */
+                if (this.pendingTimeouts.get() == 0 || !this.running.compareAndSet(false, true)) {
+                    return;
+                }
+                this.timerThread = Thread.currentThread();
+            }
+            this.wakeupNanos = startNanos + this.nextDueTick(tick) * this.tickNanos;
+            /* A timeout scheduled before the wakeup was published may not have unparked this thread */
+            if (!this.newTimeouts.isEmpty()) {
+                continue;
+            }
+            long parkNanos = this.wakeupNanos - System.nanoTime();
+            if (parkNanos > 0) {
+                LockSupport.parkNanos(this, parkNanos);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                this.timerThread = null;
+                this.running.set(false);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find the next tick with a due timeout within one rotation of the wheel
+     *
+     * @param tick next tick which was not expired yet
+     * @return next tick with a due timeout or the tick one rotation ahead
+     */
+    private long nextDueTick(long tick) {
+        for (long dueTick = tick; dueTick < tick + this.buckets.length; dueTick++) {
+            for (Timeout timeout : this.buckets[(int) (dueTick & this.mask)]) {
+                if (timeout.remainingRounds == 0 && !timeout.isDone()) {
+                    return dueTick;
+                }
+            }
+        }
+        return tick + this.buckets.length;
+    }
+
+    private void transferNewTimeouts(long startNanos, long tick) {
+        Timeout timeout;
+        while ((timeout = this.newTimeouts.poll()) != null) {
+            if (timeout.isDone()) {
+                continue;
+            }
+            long dueTick = Math.max(tick, (timeout.getDeadlineNanos() - startNanos + this.tickNanos - 1) / this.tickNanos);
+            timeout.remainingRounds = (dueTick - tick) / this.buckets.length;
+            this.buckets[(int) (dueTick & this.mask)].add(timeout);
+        }
+    }
+
+    private void expireBucket(ArrayDeque<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.isDone()) {
+                iterator.remove();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                iterator.remove();
+                timeout.expire();
+            }
+        }
+    }
+}
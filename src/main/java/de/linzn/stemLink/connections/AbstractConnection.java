@@ -12,14 +12,42 @@
 package de.linzn.stemLink.connections;
 
 import de.linzn.stemLink.components.IStemLinkWrapper;
+import de.linzn.stemLink.components.buffer.BufferPool;
+import de.linzn.stemLink.components.buffer.PooledBuffer;
+import de.linzn.stemLink.components.compression.CompressionManager;
+import de.linzn.stemLink.components.encryption.CipherSuite;
 import de.linzn.stemLink.components.encryption.CryptContainer;
 import de.linzn.stemLink.components.encryption.CryptManager;
+import de.linzn.stemLink.components.encryption.SessionTicket;
 import de.linzn.stemLink.components.encryption.DataHead;
+import de.linzn.stemLink.components.encryption.FrameCipher;
 import de.linzn.stemLink.components.events.ConnectEvent;
 import de.linzn.stemLink.components.events.DisconnectEvent;
 import de.linzn.stemLink.components.events.IEvent;
+import de.linzn.stemLink.components.events.LinkConnectEvent;
+import de.linzn.stemLink.components.events.LinkDisconnectEvent;
 import de.linzn.stemLink.components.events.ReceiveDataEvent;
+import de.linzn.stemLink.components.events.ReceiveFileEvent;
+import de.linzn.stemLink.components.events.ReceiveRequestEvent;
+import de.linzn.stemLink.components.events.ReceiveStreamEvent;
+import de.linzn.stemLink.components.events.WritabilityChangedEvent;
 import de.linzn.stemLink.components.events.handler.EventBus;
+import de.linzn.stemLink.components.events.handler.SerialExecutor;
+import de.linzn.stemLink.components.protocol.ChannelDictionary;
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.components.protocol.ChannelPriorities;
+import de.linzn.stemLink.components.protocol.FlushPolicy;
+import de.linzn.stemLink.components.protocol.FrameHeader;
+import de.linzn.stemLink.components.protocol.FrameReader;
+import de.linzn.stemLink.components.protocol.FrameWriter;
+import de.linzn.stemLink.components.protocol.LogicalStream;
+import de.linzn.stemLink.components.protocol.OutboundFrame;
+import de.linzn.stemLink.components.protocol.Priority;
+import de.linzn.stemLink.components.protocol.ProtocolFeature;
+import de.linzn.stemLink.components.protocol.SendBuffer;
+import de.linzn.stemLink.components.protocol.StreamBody;
+import de.linzn.stemLink.components.protocol.StreamWindow;
+import de.linzn.stemLink.components.timer.Timeout;
 import de.linzn.stemLink.connections.client.ClientConnection;
 
 import javax.crypto.BadPaddingException;
@@ -27,19 +55,83 @@ import javax.crypto.IllegalBlockSizeException;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 public abstract class AbstractConnection implements Runnable {
+    /* Payloads above this size are split into fragments if the remote side supports it */
+    private static final int FRAGMENT_SIZE = 64 * 1024;
+    /* Received messages above this size close the connection, checked on the frame length, the fragments and the decompression */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+    /* Files are mapped in windows of this size while they are sent */
+    private static final int FILE_WINDOW_SIZE = 4 * 1024 * 1024;
+    /* First byte of a response payload */
+    private static final byte RESPONSE_OK = 0;
+    private static final byte RESPONSE_ERROR = 1;
+    /* Negotiated features which change the encoding of a shared broadcast frame */
+    private static final Set<ProtocolFeature> SHARED_ENCODING_FEATURES = Collections.unmodifiableSet(EnumSet.of(ProtocolFeature.FRAME_V2, ProtocolFeature.DEFLATE, ProtocolFeature.FRAGMENTS));
 
     protected final CryptManager cryptManager;
     protected final IStemLinkWrapper stemLinkWrapper;
+    protected final BufferPool bufferPool;
+    protected final SendBuffer sendBuffer;
+    /* One ordered lane per channel, channels run in parallel on the workers of the EventBus */
+    private final Map<ChannelName, SerialExecutor> channelExecutors;
+    /* Fragments of incomplete messages, only used by the reading thread */
+    private final Map<ChannelName, ByteArrayOutputStream> pendingFragments;
+    /* Open received streams, closed by the reading thread or when the connection closes */
+    private final Map<ChannelName, StreamBody> inboundStreams;
+    /* One sending stream per channel, chunks of two streams must not mix */
+    private final Map<ChannelName, Object> outboundStreamLocks;
+    /* One lock per outbound lane, frames of a lane are queued in the order of their nonce counters */
+    private final Object[] laneLocks;
+    private final Map<Long, CompletableFuture<byte[]>> pendingRequests;
+    private final AtomicLong requestIds;
+    /* Logical streams opened by the remote side, by stream id */
+    private final Map<Long, StreamBody> inboundLogicalStreams;
+    /* Logical streams opened by this side, clients use odd and servers even stream ids */
+    private final Map<Long, LogicalStream> outboundLogicalStreams;
+    private final AtomicLong streamIds;
+    /* Highest stream id opened by the remote side, late frames of older streams are dropped */
+    private long lastInboundStreamId;
     protected Socket socket;
     protected UUID uuid;
     protected EventBus eventBus;
     protected ClientType clientType;
     protected int so_timeout = 120 * 1000;
+    protected volatile Set<ProtocolFeature> protocolFeatures = Collections.emptySet();
+    protected List<CipherSuite> cipherSuites = CipherSuite.defaultSuites();
+    protected ChannelDictionary channelDictionary = new ChannelDictionary();
+    protected FrameReader frameReader;
+    protected volatile FrameWriter frameWriter;
+    protected FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+    protected volatile int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+    protected CompressionManager compressionManager = new CompressionManager();
+    protected ChannelPriorities channelPriorities = new ChannelPriorities();
 
     /**
      * Constructor for the AbstractConnection class
@@ -51,8 +143,37 @@ public abstract class AbstractConnection implements Runnable {
      * @param eventBus        the eventBus for the connection
      */
     public AbstractConnection(Socket socket, IStemLinkWrapper stemLinkWrapper, CryptContainer cryptContainer, UUID uuid, ClientType clientType, EventBus eventBus) {
+        this(socket, stemLinkWrapper, cryptContainer, uuid, clientType, eventBus, new BufferPool(stemLinkWrapper));
+    }
+
+    /**
+     * Constructor for the AbstractConnection class
+     *
+     * @param socket          active connection
+     * @param stemLinkWrapper the iLinkMask mask class
+     * @param cryptContainer  the CryptContainer for encryption in the client
+     * @param uuid            the uuid for this client
+     * @param eventBus        the eventBus for the connection
+     * @param bufferPool      the BufferPool for frame and encryption buffers
+     */
+    public AbstractConnection(Socket socket, IStemLinkWrapper stemLinkWrapper, CryptContainer cryptContainer, UUID uuid, ClientType clientType, EventBus eventBus, BufferPool bufferPool) {
         this.socket = socket;
         this.stemLinkWrapper = stemLinkWrapper;
+        this.bufferPool = bufferPool;
+        this.sendBuffer = new SendBuffer(this::call_writability_changed);
+        this.channelExecutors = new ConcurrentHashMap<>();
+        this.pendingFragments = new HashMap<>();
+        this.inboundStreams = new ConcurrentHashMap<>();
+        this.outboundStreamLocks = new ConcurrentHashMap<>();
+        this.laneLocks = new Object[Priority.values().length];
+        for (int i = 0; i < this.laneLocks.length; i++) {
+            this.laneLocks[i] = new Object();
+        }
+        this.pendingRequests = new ConcurrentHashMap<>();
+        this.requestIds = new AtomicLong();
+        this.inboundLogicalStreams = new ConcurrentHashMap<>();
+        this.outboundLogicalStreams = new ConcurrentHashMap<>();
+        this.streamIds = new AtomicLong(this instanceof ClientConnection ? -1 : 0);
         this.cryptManager = new CryptManager(cryptContainer);
         this.uuid = uuid;
         this.clientType = clientType;
@@ -88,37 +209,144 @@ public abstract class AbstractConnection implements Runnable {
 
     /**
      * Trigger the eventBus for data input event
+     * Inline handlers run in the reading thread, pool handlers of one channel in receive order
+     *
+     * @param channelName channel of the receive event
+     * @param bytes       raw data for the event
+     */
+    private void call_data_event(ChannelName channelName, byte[] bytes) {
+        IEvent iEvent = new ReceiveDataEvent(channelName, this.uuid, bytes, this);
+        this.eventBus.callEventHandler(iEvent, this.getChannelExecutor(channelName));
+    }
+
+    /**
+     * Trigger the eventBus for a new received stream
+     * The stream is closed after all pool handlers of the channel returned, so a stream without reader is discarded
+     *
+     * @param channelName channel of the stream
+     * @param streamBody  body of the stream
+     * @param iEvent      ReceiveStreamEvent or ReceiveFileEvent of the stream
+     */
+    private void call_stream_event(ChannelName channelName, StreamBody streamBody, IEvent iEvent) {
+        SerialExecutor serialExecutor = this.getChannelExecutor(channelName);
+        this.eventBus.callEventHandler(iEvent, serialExecutor);
+        serialExecutor.execute(streamBody::close);
+    }
+
+    /**
+     * Trigger the eventBus for a new logical stream
+     * The pool handlers of every logical stream run in their own thread of the stemLinkWrapper, so a blocked
+     * reader never holds a worker which handlers of other streams and channels are waiting for.
+     * A stream which is not read to its end by the handlers is reset, so the sender stops.
      *
-     * @param channel channel of the receive event
-     * @param bytes   raw data for the event
+     * @param channel    channel of the stream
+     * @param streamId   id of the logical stream
+     * @param streamBody body of the stream
+     * @param iEvent     ReceiveStreamEvent or ReceiveFileEvent of the stream
      */
-    private void call_data_event(String channel, byte[] bytes) {
-        this.stemLinkWrapper.runThread(() -> {
-            IEvent iEvent = new ReceiveDataEvent(channel, this.uuid, bytes, this);
-            this.eventBus.callEventHandler(iEvent);
+    private void call_logical_stream_event(String channel, long streamId, StreamBody streamBody, IEvent iEvent) {
+        /* Closing the body resets the stream if it was not received to its end */
+        Runnable closeStream = streamBody::close;
+        AtomicBoolean pooled = new AtomicBoolean();
+        this.eventBus.callEventHandler(iEvent, handlers -> {
+            pooled.set(true);
+            this.stemLinkWrapper.runThread(() -> {
+                try {
+                    handlers.run();
+                } finally {
+                    closeStream.run();
+                }
+            });
         });
+        if (!pooled.get()) {
+            closeStream.run();
+        }
     }
 
     /**
-     * Trigger a new connect event
+     * Get the ordered event executor of a channel
+     *
+     * @param channelName channel name
+     * @return SerialExecutor of the channel
      */
-    protected void call_connect() {
+    private SerialExecutor getChannelExecutor(ChannelName channelName) {
+        SerialExecutor serialExecutor = this.channelExecutors.get(channelName);
+        if (serialExecutor == null) {
+            serialExecutor = this.channelExecutors.computeIfAbsent(channelName, k -> this.eventBus.getSerialExecutorGroup().newSerialExecutor(this.channelPriorities.getPriority(channelName)));
+        }
+        return serialExecutor;
+    }
+
+    /**
+     * Trigger a new link connect event and the connect event of the client for its first link
+     *
+     * @param linkIndex index of the connected link
+     * @param firstLink true if no other link of the client is connected
+     */
+    protected void call_connect(int linkIndex, boolean firstLink) {
         stemLinkWrapper.log("Stemlink is now connected to remote " + this.socket.getRemoteSocketAddress(), Level.FINE);
-        this.stemLinkWrapper.runThread(() -> {
+        this.eventBus.callEventHandler(new LinkConnectEvent(this.uuid, linkIndex, this), this.stemLinkWrapper::runThread);
+        if (firstLink) {
             IEvent iEvent = new ConnectEvent(this.uuid, this);
-            this.eventBus.callEventHandler(iEvent);
-        });
+            this.eventBus.callEventHandler(iEvent, this.stemLinkWrapper::runThread);
+        }
     }
 
     /**
-     * Trigger a disconnect event
+     * Trigger a link disconnect event and the disconnect event of the client for its last link
+     *
+     * @param linkIndex index of the disconnected link
+     * @param lastLink  true if no other link of the client is connected anymore
      */
-    protected void call_disconnect() {
+    protected void call_disconnect(int linkIndex, boolean lastLink) {
         stemLinkWrapper.log("Stemlink is disconnected from remote " + this.socket.getRemoteSocketAddress(), Level.FINE);
-        this.stemLinkWrapper.runThread(() -> {
+        this.eventBus.callEventHandler(new LinkDisconnectEvent(this.uuid, linkIndex, this), this.stemLinkWrapper::runThread);
+        if (lastLink) {
             IEvent iEvent = new DisconnectEvent(this.uuid, this);
-            this.eventBus.callEventHandler(iEvent);
-        });
+            this.eventBus.callEventHandler(iEvent, this.stemLinkWrapper::runThread);
+        }
+    }
+
+    /**
+     * Trigger a writability change event
+     *
+     * @param writable new writability of the connection
+     */
+    private void call_writability_changed(boolean writable) {
+        stemLinkWrapper.log("Stemlink send buffer is now " + (writable ? "writable" : "not writable"), Level.FINE);
+        IEvent iEvent = new WritabilityChangedEvent(this.uuid, writable, this);
+        this.eventBus.callEventHandler(iEvent, this.stemLinkWrapper::runThread);
+    }
+
+    /**
+     * Check if the send buffer of this connection is below its high water mark
+     * Producers should pause while the connection is not writable and continue
+     * after a WritabilityChangedEvent
+     *
+     * @return true if the connection is writable
+     */
+    public boolean isWritable() {
+        return this.sendBuffer.isWritable();
+    }
+
+    /**
+     * Get the amount of queued but not yet written bytes
+     *
+     * @return pending bytes in the send buffer
+     */
+    public long getPendingBytes() {
+        return this.sendBuffer.getPendingBytes();
+    }
+
+    /**
+     * Set the limits of the send buffer of this connection
+     *
+     * @param lowWaterMark    pending bytes at which the connection gets writable again
+     * @param highWaterMark   pending bytes above which the connection is not writable
+     * @param maxPendingBytes pending bytes above which new messages are rejected
+     */
+    public void setSendBufferLimits(long lowWaterMark, long highWaterMark, long maxPendingBytes) {
+        this.sendBuffer.setLimits(lowWaterMark, highWaterMark, maxPendingBytes);
     }
 
     /**
@@ -160,6 +388,24 @@ public abstract class AbstractConnection implements Runnable {
         this.clientType = clientType;
     }
 
+    /**
+     * Get the protocol features negotiated in the handshake
+     *
+     * @return Set of active protocol features
+     */
+    public Set<ProtocolFeature> getProtocolFeatures() {
+        return protocolFeatures;
+    }
+
+    /**
+     * Get the cipher suite of the binary frames
+     *
+     * @return active CipherSuite
+     */
+    public CipherSuite getCipherSuite() {
+        return this.cryptManager.getCipherSuite();
+    }
+
     /**
      * Check if the connection is valid and up
      *
@@ -176,33 +422,429 @@ public abstract class AbstractConnection implements Runnable {
      * @throws IOException Fired a exception if something went wrong
      */
     protected boolean readInput() throws IOException, IllegalBlockSizeException, BadPaddingException {
-        BufferedInputStream bInStream = new BufferedInputStream(this.socket.getInputStream());
-        DataInputStream dataInput = new DataInputStream(bInStream);
+        if (this.protocolFeatures.contains(ProtocolFeature.FRAME_V2)) {
+            int frameLength = this.frameReader.readFully(this.frameReader.readFrameLength(this.maxFrameLength()));
+            return this.handle_frame(this.frameReader.getBuffer(), 0, frameLength);
+        }
 
-        DataHead dataHead = DataHead.fromString(new String(this.cryptManager.decryptFinal(dataInput.readUTF().getBytes())));
+        int headLength = this.frameReader.readUTFValue();
+        DataHead dataHead = DataHead.fromString(new String(this.cryptManager.decryptFinal(this.frameReader.getBuffer(), 0, headLength)));
         String headerChannel = dataHead.getHeader();
-        int dataSize = dataHead.getDataSize();
 
-        byte[] encryptedDataPackage = new byte[dataSize];
-        byte[] decryptedDataPackage;
+        int dataSize = this.frameReader.readFully(this.checkDataSize(dataHead.getDataSize()));
+        byte[] decryptedDataPackage = this.cryptManager.decryptFinal(this.frameReader.getBuffer(), 0, dataSize);
+
+        return this.handle_data(ChannelName.of(headerChannel), decryptedDataPackage);
+    }
+
+    /**
+     * Get the length of the longest frame the remote side may send
+     * Larger length prefixes close the connection before the frame is buffered
+     *
+     * @return maximum frame length without length prefix
+     */
+    protected int maxFrameLength() {
+        return FrameHeader.maxFrameLength(this.maxMessageSize);
+    }
+
+    /**
+     * Check the data size of a legacy data head before the package is buffered
+     *
+     * @param dataSize size of the encrypted data package
+     * @return the data size
+     * @throws IOException if the size is negative or exceeds the max frame length
+     */
+    protected int checkDataSize(int dataSize) throws IOException {
+        if (dataSize < 0 || dataSize > this.maxFrameLength()) {
+            throw new IOException("Invalid data size: " + dataSize);
+        }
+        return dataSize;
+    }
+
+    /**
+     * Open the persistent frame reader and writer for the current socket
+     * The writer runs in its own thread and drains the outbound queue of this connection
+     *
+     * @throws IOException if the socket streams are not available
+     */
+    protected void openFrameStreams() throws IOException {
+        if (this.frameWriter != null) {
+            this.frameWriter.close();
+        }
+        /* Fragments and streams of a previous socket are never completed */
+        this.pendingFragments.clear();
+        this.lastInboundStreamId = 0;
+        this.close_streams();
+        this.close_requests();
+        this.frameReader = new FrameReader(this.socket.getInputStream());
+        this.frameWriter = new FrameWriter(this.socket.getOutputStream(), this.flushPolicy, this::closeConnection);
+        this.stemLinkWrapper.runThread(this.frameWriter);
+    }
+
+    /**
+     * Decode and handle a binary frame from the remote side
+     *
+     * @param frame  array with the frame without length prefix
+     * @param offset offset of the frame in the array
+     * @param length length of the frame
+     * @return boolean value if the packet was valid
+     * @throws IOException if the frame is malformed or its message exceeds the max message size
+     */
+    protected boolean handle_frame(byte[] frame, int offset, int length) throws IOException, IllegalBlockSizeException, BadPaddingException {
+        ByteBuffer frameBuffer = ByteBuffer.wrap(frame, offset, length);
+        FrameHeader frameHeader = FrameHeader.read(frameBuffer);
+        ByteBuffer aad = ByteBuffer.wrap(frame, offset, frameHeader.size());
+
+        PooledBuffer body = this.bufferPool.acquire(this.cryptManager.openedSize(frameBuffer.remaining()));
+        ChannelName channelName;
+        byte[] bytes;
+        try {
+            ByteBuffer bodyBuffer = body.buffer();
+            this.cryptManager.open(aad, frameBuffer, bodyBuffer);
+            bodyBuffer.flip();
+
+            if (frameHeader.getChannelId() == 0) {
+                channelName = ChannelName.of(readChannel(bodyBuffer));
+            } else if (frameHeader.hasFlag(FrameHeader.FLAG_CHANNEL_DEFINE)) {
+                channelName = this.channelDictionary.defineInbound(frameHeader.getChannelId(), readChannel(bodyBuffer));
+            } else {
+                channelName = this.channelDictionary.resolveInbound(frameHeader.getChannelId());
+            }
+            bytes = new byte[bodyBuffer.remaining()];
+            bodyBuffer.get(bytes);
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Frame body could not be opened", e);
+        } finally {
+            body.release();
+        }
+
+        if (frameHeader.isMultiplexed()) {
+            return this.handle_logical_frame(channelName, frameHeader, bytes);
+        } else if (frameHeader.hasFlag(FrameHeader.FLAG_STREAM)) {
+            return this.handle_stream_chunk(channelName, frameHeader, bytes);
+        }
+
+        ByteArrayOutputStream fragments = this.pendingFragments.get(channelName);
+        if (fragments != null && fragments.size() + (long) bytes.length > this.maxMessageSize) {
+            /* The remote side would grow the buffer without limit */
+            this.stemLinkWrapper.log("Fragmented message on channel " + channelName + " exceeds the max message size of " + this.maxMessageSize + " bytes. Closing connection", Level.WARNING);
+            throw new IOException("Fragmented message exceeds the max message size");
+        }
+        if (frameHeader.hasFlag(FrameHeader.FLAG_FRAGMENT)) {
+            if (fragments == null) {
+                fragments = new ByteArrayOutputStream(bytes.length * 4);
+                this.pendingFragments.put(channelName, fragments);
+            }
+            fragments.write(bytes);
+            return true;
+        } else if (fragments != null) {
+            /* Last fragment of the message */
+            this.pendingFragments.remove(channelName);
+            fragments.write(bytes);
+            bytes = fragments.toByteArray();
+        }
+
+        if (frameHeader.hasFlag(FrameHeader.FLAG_COMPRESSED)) {
+            bytes = this.compressionManager.decompress(bytes, this.maxMessageSize);
+        }
+        if (frameHeader.hasFlag(FrameHeader.FLAG_REQUEST)) {
+            return this.handle_request(channelName, frameHeader.getCorrelationId(), bytes);
+        } else if (frameHeader.hasFlag(FrameHeader.FLAG_RESPONSE)) {
+            return this.handle_response(frameHeader.getCorrelationId(), bytes);
+        }
+        return this.handle_data(channelName, bytes);
+    }
+
+    /**
+     * Add a received chunk to the stream of its channel
+     * The first chunk of a stream raises the ReceiveStreamEvent, the metadata chunk of a file the ReceiveFileEvent
+     *
+     * @param channelName channel of the stream
+     * @param frameHeader header of the chunk frame
+     * @param bytes       decrypted chunk
+     * @return boolean value if the chunk was valid
+     */
+    private boolean handle_stream_chunk(ChannelName channelName, FrameHeader frameHeader, byte[] bytes) throws IOException {
+        StreamBody streamBody = this.inboundStreams.get(channelName);
+        if (streamBody == null) {
+            if (frameHeader.hasFlag(FrameHeader.FLAG_STREAM_ABORT)) {
+                return true;
+            }
+            streamBody = new StreamBody(StreamBody.DEFAULT_CAPACITY);
+            IEvent iEvent;
+            if (frameHeader.hasFlag(FrameHeader.FLAG_FILE)) {
+                DataInputStream metadata = new DataInputStream(new ByteArrayInputStream(bytes));
+                iEvent = new ReceiveFileEvent(channelName, this.uuid, streamBody, metadata.readUTF(), metadata.readLong(), metadata.readLong(), this);
+                bytes = new byte[0];
+            } else {
+                iEvent = new ReceiveStreamEvent(channelName, this.uuid, streamBody, this);
+            }
+            this.inboundStreams.put(channelName, streamBody);
+            this.call_stream_event(channelName, streamBody, iEvent);
+        }
+        if (frameHeader.hasFlag(FrameHeader.FLAG_STREAM_ABORT)) {
+            this.inboundStreams.remove(channelName);
+            streamBody.fail(new IOException("Stream aborted by the remote side"));
+        } else if (!streamBody.write(bytes) && frameHeader.hasFlag(FrameHeader.FLAG_FRAGMENT)) {
+            this.handle_stream_backpressure(streamBody);
+        }
+        if (!frameHeader.hasFlag(FrameHeader.FLAG_FRAGMENT)) {
+            this.inboundStreams.remove(channelName);
+            streamBody.finish();
+        }
+        return true;
+    }
+
+    /**
+     * Handle a frame of a logical stream
+     * Chunks of streams opened by the remote side go into their body, window updates and resets of streams
+     * opened by this side go to the sender. The reading thread never waits for a reader, because a sender
+     * never has more credit than the free space of the body.
+     *
+     * @param channelName channel of the stream
+     * @param frameHeader header of the frame
+     * @param bytes       decrypted body of the frame
+     * @return boolean value if the frame was valid
+     * @throws IOException if the remote side broke the flow control of the stream
+     */
+    private boolean handle_logical_frame(ChannelName channelName, FrameHeader frameHeader, byte[] bytes) throws IOException {
+        long streamId = frameHeader.getStreamId();
+        if (this.isLocalStream(streamId)) {
+            LogicalStream logicalStream = this.outboundLogicalStreams.get(streamId);
+            if (logicalStream == null) {
+                /* Window update or reset of a finished stream */
+                return true;
+            } else if (frameHeader.hasFlag(FrameHeader.FLAG_STREAM_ABORT)) {
+                this.outboundLogicalStreams.remove(streamId);
+                logicalStream.fail(new IOException("Stream reset by the remote side"));
+                return true;
+            } else if (frameHeader.hasFlag(FrameHeader.FLAG_STREAM) || bytes.length != 4) {
+                throw new IOException("Invalid frame for local stream " + streamId);
+            }
+            logicalStream.getStreamWindow().grant(ByteBuffer.wrap(bytes).getInt());
+            return true;
+        }
+
+        StreamBody streamBody = this.inboundLogicalStreams.get(streamId);
+        if (streamBody == null) {
+            if (streamId <= this.lastInboundStreamId || !frameHeader.hasFlag(FrameHeader.FLAG_STREAM) || frameHeader.hasFlag(FrameHeader.FLAG_STREAM_ABORT)) {
+                /* Late frame of a stream which was already reset */
+                return true;
+            }
+            /* The first frame opens the stream and only carries the metadata of a file */
+            this.lastInboundStreamId = streamId;
+            String channel = channelName.getName();
+            streamBody = new StreamBody(StreamWindow.DEFAULT_WINDOW_SIZE);
+            IEvent iEvent;
+            if (frameHeader.hasFlag(FrameHeader.FLAG_FILE)) {
+                DataInputStream metadata = new DataInputStream(new ByteArrayInputStream(bytes));
+                iEvent = new ReceiveFileEvent(channelName, this.uuid, streamBody, metadata.readUTF(), metadata.readLong(), metadata.readLong(), this);
+            } else {
+                iEvent = new ReceiveStreamEvent(channelName, this.uuid, streamBody, this);
+            }
+            if (frameHeader.hasFlag(FrameHeader.FLAG_FRAGMENT)) {
+                StreamBody openedBody = streamBody;
+                AtomicInteger consumedBytes = new AtomicInteger();
+                streamBody.onConsumed(count -> this.grantStreamCredit(channelName, streamId, openedBody, consumedBytes, count));
+                streamBody.onClose(() -> this.resetInboundStream(channelName, streamId, openedBody));
+                this.inboundLogicalStreams.put(streamId, streamBody);
+            } else {
+                streamBody.finish();
+            }
+            this.call_logical_stream_event(channel, streamId, streamBody, iEvent);
+            return true;
+        }
+
+        if (frameHeader.hasFlag(FrameHeader.FLAG_STREAM_ABORT)) {
+            this.inboundLogicalStreams.remove(streamId);
+            streamBody.fail(new IOException("Stream aborted by the remote side"));
+            return true;
+        } else if (!frameHeader.hasFlag(FrameHeader.FLAG_STREAM)) {
+            throw new IOException("Invalid frame for remote stream " + streamId);
+        }
+        streamBody.write(bytes);
+        if (streamBody.getBufferedBytes() > StreamWindow.DEFAULT_WINDOW_SIZE) {
+            throw new IOException("Stream " + streamId + " exceeded its flow control window");
+        }
+        if (!frameHeader.hasFlag(FrameHeader.FLAG_FRAGMENT)) {
+            this.inboundLogicalStreams.remove(streamId);
+            streamBody.finish();
+        }
+        return true;
+    }
 
-        for (int i = 0; i < dataSize; i++) {
-            encryptedDataPackage[i] = dataInput.readByte();
+    /**
+     * Give the remote sender of a logical stream new credit for consumed bytes
+     * Credit is collected until half of the window was consumed, so small reads do not cause a frame each
+     *
+     * @param channelName   ChannelName of the stream
+     * @param streamId      id of the logical stream
+     * @param streamBody    body of the stream
+     * @param consumedBytes consumed bytes without granted credit
+     * @param count         newly consumed bytes
+     */
+    private void grantStreamCredit(ChannelName channelName, long streamId, StreamBody streamBody, AtomicInteger consumedBytes, int count) {
+        if (consumedBytes.addAndGet(count) < StreamWindow.DEFAULT_WINDOW_SIZE / 2) {
+            return;
         }
-        decryptedDataPackage = this.cryptManager.decryptFinal(encryptedDataPackage);
+        int credit = consumedBytes.getAndSet(0);
+        if (credit > 0 && this.inboundLogicalStreams.get(streamId) == streamBody) {
+            this.writeStreamControl(FrameHeader.FLAG_MULTIPLEXED, streamId, channelName, (ByteBuffer) ByteBuffer.allocate(4).putInt(credit).flip());
+        }
+    }
 
+    /**
+     * Tell the remote sender of a logical stream that its reader closed the stream
+     * Streams which were already received to their end or reset are not open anymore and need no reset
+     *
+     * @param channelName ChannelName of the stream
+     * @param streamId    id of the logical stream
+     * @param streamBody  body of the stream
+     */
+    private void resetInboundStream(ChannelName channelName, long streamId, StreamBody streamBody) {
+        if (this.inboundLogicalStreams.remove(streamId, streamBody)) {
+            this.writeStreamControl((byte) (FrameHeader.FLAG_MULTIPLEXED | FrameHeader.FLAG_STREAM | FrameHeader.FLAG_STREAM_ABORT), streamId, channelName, ByteBuffer.allocate(0));
+        }
+    }
+
+    /**
+     * Check if a logical stream was opened by this side
+     *
+     * @param streamId id of the logical stream
+     * @return true for stream ids of this side
+     */
+    private boolean isLocalStream(long streamId) {
+        return (streamId & 1) == (this instanceof ClientConnection ? 1 : 0);
+    }
+
+    /**
+     * Stop reading until the handler consumed a part of a full stream body
+     * The default blocks the reading thread of the connection
+     *
+     * @param streamBody full StreamBody
+     */
+    protected void handle_stream_backpressure(StreamBody streamBody) throws IOException {
+        streamBody.awaitWritable();
+    }
+
+    /**
+     * Handle a request from the remote side
+     * Requests without a RequestHandler are answered with an error at once, even if listeners of the event exist
+     *
+     * @param channelName channel of the request
+     * @param requestId   correlation id of the request
+     * @param bytes       data of the request
+     * @return boolean value if the request was valid
+     */
+    private boolean handle_request(ChannelName channelName, long requestId, byte[] bytes) {
+        ReceiveRequestEvent requestEvent = new ReceiveRequestEvent(channelName, this.uuid, bytes, requestId, this);
+        if (!this.eventBus.hasResponder(channelName)) {
+            requestEvent.respondError("No responder for channel " + channelName);
+            return true;
+        }
+        this.eventBus.callEventHandler(requestEvent, this.getChannelExecutor(channelName));
+        return true;
+    }
+
+    /**
+     * Complete the pending request of a response
+     * Responses of timed out requests are dropped
+     *
+     * @param requestId correlation id of the request
+     * @param bytes     status and data of the response
+     * @return boolean value if the response was valid
+     */
+    private boolean handle_response(long requestId, byte[] bytes) {
+        if (bytes.length == 0) {
+            return false;
+        }
+        CompletableFuture<byte[]> response = this.pendingRequests.remove(requestId);
+        if (response == null) {
+            this.stemLinkWrapper.log("Response for unknown request " + requestId, Level.FINE);
+        } else if (bytes[0] == RESPONSE_OK) {
+            response.complete(Arrays.copyOfRange(bytes, 1, bytes.length));
+        } else {
+            response.completeExceptionally(new IOException("Request failed on the remote side: " + new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8)));
+        }
+        return true;
+    }
+
+    /**
+     * Fail all requests which wait for a response
+     * Called when the connection is closed, responses of a previous socket never arrive
+     */
+    protected void close_requests() {
+        IOException cause = new IOException("Connection closed");
+        for (Long requestId : this.pendingRequests.keySet()) {
+            CompletableFuture<byte[]> response = this.pendingRequests.remove(requestId);
+            if (response != null) {
+                response.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Abort all open received streams and all logical streams
+     * Called when the connection is closed
+     */
+    protected void close_streams() {
+        IOException cause = new IOException("Connection closed");
+        for (ChannelName channelName : this.inboundStreams.keySet()) {
+            StreamBody streamBody = this.inboundStreams.remove(channelName);
+            if (streamBody != null) {
+                streamBody.fail(cause);
+            }
+        }
+        for (Long streamId : this.inboundLogicalStreams.keySet()) {
+            StreamBody streamBody = this.inboundLogicalStreams.remove(streamId);
+            if (streamBody != null) {
+                streamBody.fail(cause);
+            }
+        }
+        for (Long streamId : this.outboundLogicalStreams.keySet()) {
+            LogicalStream logicalStream = this.outboundLogicalStreams.remove(streamId);
+            if (logicalStream != null) {
+                logicalStream.fail(cause);
+            }
+        }
+    }
+
+    /**
+     * Read a length prefixed channel name from a frame body
+     *
+     * @param bodyBuffer decrypted frame body
+     * @return channel name
+     */
+    private static String readChannel(ByteBuffer bodyBuffer) {
+        byte[] channelBytes = new byte[bodyBuffer.getShort() & 0xFFFF];
+        bodyBuffer.get(channelBytes);
+        return new String(channelBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Handle a decrypted data package from the remote side
+     *
+     * @param channelName ChannelName of the packet
+     * @param bytes       Decrypted data of the packet
+     * @return boolean value if the packet was valid
+     */
+    protected boolean handle_data(ChannelName channelName, byte[] bytes) {
         /* Default input read*/
-        if (headerChannel.isEmpty()) {
+        if (channelName.getKey().isEmpty()) {
             stemLinkWrapper.log("No channel in header", Level.SEVERE);
             return false;
-        } else if (headerChannel.equalsIgnoreCase("keep_alive_heartbeat")) {
-            this.answerKeepALiveHeartbeat(decryptedDataPackage);
+        } else if (channelName.getKey().equals("keep_alive_heartbeat")) {
+            this.answerKeepALiveHeartbeat(bytes);
+            return true;
+        } else if (channelName.getKey().equals(SessionTicket.CHANNEL)) {
+            this.handle_session_ticket(bytes);
             return true;
         } else {
-            this.call_data_event(headerChannel, decryptedDataPackage);
+            this.call_data_event(channelName, bytes);
             return true;
         }
-
     }
 
     /**
@@ -213,82 +855,856 @@ public abstract class AbstractConnection implements Runnable {
      */
     public void writeOutput(String headerChannel, byte[] bytes) {
         if (this.isValidConnection()) {
-            try {
-                byte[] encryptedDataPackage = this.cryptManager.encryptFinal(bytes);
-                DataHead dataHead = new DataHead(headerChannel, encryptedDataPackage.length);
+            this.writeOutputAsync(headerChannel, bytes).whenComplete((ignored, throwable) -> {
+                if (throwable != null) {
+                    this.stemLinkWrapper.log("Output on channel " + headerChannel + " failed", Level.SEVERE);
+                    this.stemLinkWrapper.log(throwable, Level.SEVERE);
+                }
+            });
+        } else {
+            stemLinkWrapper.log("The connection is closed. No output possible!", Level.SEVERE);
+        }
+    }
+
+    /**
+     * Write into the output stream without waiting for the socket
+     * The future completes after the frame was written to the socket and fails if the connection is closed
+     * or the send buffer is full. Completion callbacks run in the writer thread of this connection
+     *
+     * @param headerChannel Channel header for this packet
+     * @param bytes         Bytes to send to the connected side
+     * @return future of the write
+     */
+    public CompletableFuture<Void> writeOutputAsync(String headerChannel, byte[] bytes) {
+        return this.writeMessage((byte) 0, 0, ChannelName.of(headerChannel), bytes);
+    }
 
-                BufferedOutputStream bOutStream = new BufferedOutputStream(this.socket.getOutputStream());
-                DataOutputStream dataOut = new DataOutputStream(bOutStream);
+    /**
+     * Send a request and wait for its response without blocking
+     * Many requests can be in flight on one connection, every response is matched by the correlation id of its request.
+     * The future fails if the responder failed, no response arrived within the timeout or the connection was closed.
+     * Completion callbacks run in the reading thread of this connection
+     *
+     * @param headerChannel Channel header for this request
+     * @param bytes         Bytes of the request
+     * @param timeoutMillis maximum time to wait for the response in milliseconds
+     * @return future of the response
+     */
+    public CompletableFuture<byte[]> request(String headerChannel, byte[] bytes, long timeoutMillis) {
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+        if (!this.protocolFeatures.contains(ProtocolFeature.RPC)) {
+            response.completeExceptionally(new IOException("The remote side does not support requests"));
+            return response;
+        }
+        long requestId = this.requestIds.incrementAndGet();
+        this.pendingRequests.put(requestId, response);
+        Timeout timeout = this.eventBus.getTimerWheel().schedule(() -> {
+            if (this.pendingRequests.remove(requestId, response)) {
+                response.completeExceptionally(new TimeoutException("No response on channel " + headerChannel + " within " + timeoutMillis + " ms"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        response.whenComplete((ignored, throwable) -> {
+            /* Also cleans up requests which were cancelled by the caller */
+            timeout.cancel();
+            this.pendingRequests.remove(requestId, response);
+        });
+        this.writeMessage(FrameHeader.FLAG_REQUEST, requestId, ChannelName.of(headerChannel), bytes).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                response.completeExceptionally(throwable);
+            }
+        });
+        return response;
+    }
 
-                dataOut.writeUTF(new String(this.cryptManager.encryptFinal(dataHead.toString().getBytes())));
+    /**
+     * Send the response of a received request
+     * Used by ReceiveRequestEvent, the first response of a request is the one the requesting side gets
+     *
+     * @param headerChannel Channel header of the request
+     * @param requestId     correlation id of the request
+     * @param bytes         Bytes of the response
+     * @return future of the write
+     */
+    public CompletableFuture<Void> writeResponse(String headerChannel, long requestId, byte[] bytes) {
+        byte[] payload = new byte[1 + bytes.length];
+        payload[0] = RESPONSE_OK;
+        System.arraycopy(bytes, 0, payload, 1, bytes.length);
+        return this.writeMessage(FrameHeader.FLAG_RESPONSE, requestId, ChannelName.of(headerChannel), payload);
+    }
+
+    /**
+     * Send an error as response of a received request
+     *
+     * @param headerChannel Channel header of the request
+     * @param requestId     correlation id of the request
+     * @param message       description of the error
+     * @return future of the write
+     */
+    public CompletableFuture<Void> writeErrorResponse(String headerChannel, long requestId, String message) {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[1 + messageBytes.length];
+        payload[0] = RESPONSE_ERROR;
+        System.arraycopy(messageBytes, 0, payload, 1, messageBytes.length);
+        return this.writeMessage(FrameHeader.FLAG_RESPONSE, requestId, ChannelName.of(headerChannel), payload);
+    }
 
-                for (byte dataByte : encryptedDataPackage) {
-                    dataOut.writeByte(dataByte);
+    /**
+     * Write a message, a request or a response without waiting for the socket
+     *
+     * @param flags         FLAG_REQUEST, FLAG_RESPONSE or 0 for a message
+     * @param correlationId id of the request or response or 0
+     * @param channelName   ChannelName for this packet
+     * @param bytes         Bytes to send to the connected side
+     * @return future of the write
+     */
+    private CompletableFuture<Void> writeMessage(byte flags, long correlationId, ChannelName channelName, byte[] bytes) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!this.isValidConnection()) {
+            future.completeExceptionally(new IOException("The connection is closed"));
+            return future;
+        }
+        if (!this.sendBuffer.reserve(bytes.length)) {
+            future.completeExceptionally(new IOException("Send buffer is full (" + this.sendBuffer.getPendingBytes() + " bytes pending)"));
+            return future;
+        }
+        try {
+            Set<ProtocolFeature> features = this.protocolFeatures;
+            Priority priority = this.channelPriorities.getPriority(channelName);
+            if (features.contains(ProtocolFeature.FRAME_V2)) {
+                /* Compress before the encryption, ciphertext is not compressible */
+                byte[] payload = this.compressionManager.compress(channelName, bytes, features);
+                if (payload != null) {
+                    flags |= FrameHeader.FLAG_COMPRESSED;
+                } else {
+                    payload = bytes;
                 }
-                bOutStream.flush();
+                this.writePacket(flags, correlationId, channelName, ByteBuffer.wrap(payload), priority, bytes.length, future);
+            } else {
+                this.writeFrame(new OutboundFrame(this.encodeLegacyFrame(channelName, bytes), this.sendBuffer, bytes.length, future, priority));
+            }
+        } catch (IOException | IllegalBlockSizeException | BadPaddingException e) {
+            /* The frame was not queued, so its reservation is still held */
+            this.sendBuffer.release(bytes.length);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 
+    /**
+     * Queue a packet of a broadcast without blocking
+     * Frames of the static AES-CBC ciphers and legacy frames only depend on the CryptContainer, frames of a
+     * negotiated suite are sealed with the broadcast key of the server. Both are encoded once per cipher suite and
+     * feature set and shared read only by all connections of the broadcast. Shared frames carry the channel name
+     * instead of a channel id. Only connections with session keys but without the broadcast key seal the packet themselves.
+     *
+     * @param channelName  ChannelName for this packet
+     * @param bytes        Bytes to send to the connected side
+     * @param sharedFrames encoded frames of the broadcast by the suite and features they were encoded for
+     * @return true if the packet was queued, false if the connection is closed or its send buffer is full
+     */
+    protected boolean writeSharedOutput(ChannelName channelName, byte[] bytes, Map<List<Object>, List<ByteBuffer>> sharedFrames) {
+        if (!this.isValidConnection()) {
+            return false;
+        }
+        if (!this.canShareFrames()) {
+            /* A full send buffer fails the future at once */
+            return !this.writeMessage((byte) 0, 0, channelName, bytes).isCompletedExceptionally();
+        }
+
+        Set<ProtocolFeature> encoding = EnumSet.noneOf(ProtocolFeature.class);
+        encoding.addAll(this.protocolFeatures);
+        encoding.retainAll(SHARED_ENCODING_FEATURES);
+        List<Object> sharedKey = Arrays.asList(this.cryptManager.getCipherSuite(), encoding);
+        Priority priority = this.channelPriorities.getPriority(channelName);
+        List<ByteBuffer> frames = sharedFrames.get(sharedKey);
+        if (frames == null) {
+            try {
+                frames = this.encodeSharedFrames(channelName, bytes, priority);
             } catch (IOException e) {
-                e.printStackTrace();
+                this.stemLinkWrapper.log(e, Level.SEVERE);
+                return false;
+            }
+            sharedFrames.put(sharedKey, frames);
+        }
+        if (!this.sendBuffer.reserve(bytes.length)) {
+            return false;
+        }
+        List<OutboundFrame> outboundFrames = new ArrayList<>(frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            PooledBuffer frame = PooledBuffer.unpooled(frames.get(i).duplicate());
+            if (i < frames.size() - 1) {
+                outboundFrames.add(new OutboundFrame(frame, null, 0, null, priority));
+            } else {
+                outboundFrames.add(new OutboundFrame(frame, this.sendBuffer, bytes.length, null, priority));
             }
-        } else {
-            stemLinkWrapper.log("The connection is closed. No output possible!", Level.SEVERE);
         }
+        this.writeFrames(outboundFrames);
+        return true;
     }
 
     /**
-     * Read handshake data from server/client
+     * Check if the broadcast frames of this connection can be shared with other connections
      *
-     * @throws IOException Exception if something failed
+     * @return true for legacy frames, the static AES-CBC ciphers and the broadcast key, false for session keys only
      */
-    protected abstract void read_handshake() throws IOException, IllegalBlockSizeException, BadPaddingException;
+    protected boolean canShareFrames() {
+        return !this.protocolFeatures.contains(ProtocolFeature.FRAME_V2) || this.cryptManager.getCipherSuite() == CipherSuite.AES_CBC
+                || this.cryptManager.hasBroadcastCipher();
+    }
 
+    /**
+     * Encode a packet into frames which every connection with the same suite and features can write
+     * The frames are copied out of the buffer pool because they live until the slowest connection wrote them
+     *
+     * @param channelName ChannelName for this packet
+     * @param bytes       Bytes to send to the connected sides
+     * @param priority    Priority lane of the frames, selects the broadcast nonce stream
+     * @return read only frames of the packet
+     */
+    private List<ByteBuffer> encodeSharedFrames(ChannelName channelName, byte[] bytes, Priority priority) throws IOException {
+        List<OutboundFrame> encodedFrames;
+        if (this.protocolFeatures.contains(ProtocolFeature.FRAME_V2)) {
+            byte flags = 0;
+            byte[] payload = this.compressionManager.compress(channelName, bytes, this.protocolFeatures);
+            if (payload != null) {
+                flags = FrameHeader.FLAG_COMPRESSED;
+            } else {
+                payload = bytes;
+            }
+            /* Frames of the broadcast key use the broadcast nonce streams, the static ciphers ignore the stream */
+            int nonceStream = this.cryptManager.hasBroadcastCipher() ? FrameCipher.BROADCAST_STREAM | priority.ordinal() : priority.ordinal();
+            encodedFrames = this.encodeFrames(flags, 0, 0, channelName, ByteBuffer.wrap(payload), priority, nonceStream, 0, null);
+        } else {
+            encodedFrames = Collections.singletonList(new OutboundFrame(this.encodeLegacyFrame(channelName, bytes)));
+        }
+        List<ByteBuffer> frames = new ArrayList<>(encodedFrames.size());
+        for (OutboundFrame encodedFrame : encodedFrames) {
+            ByteBuffer frame = ByteBuffer.allocate(encodedFrame.buffer().remaining());
+            frame.put(encodedFrame.buffer());
+            frame.flip();
+            frames.add(frame.asReadOnlyBuffer());
+            encodedFrame.releaseBuffer();
+        }
+        return frames;
+    }
 
     /**
-     * Write handshake data for server/client
+     * Write the content of a channel as stream of chunk frames
+     * The calling thread reads the source and waits while the send buffer is not writable, so only a few
+     * chunks are in memory at a time. Remote sides without stream support get the whole content as one packet.
      *
-     * @param step current handshake step defined in function itself
+     * @param headerChannel Channel header for this stream
+     * @param inputStream   source of the stream, read until its end
+     * @return future of the last chunk
+     * @throws IOException if the source could not be read or the connection was closed
      */
-    protected abstract void write_handshake(String step);
+    public CompletableFuture<Void> writeStream(String headerChannel, InputStream inputStream) throws IOException {
+        return this.writeStream(headerChannel, Channels.newChannel(inputStream));
+    }
 
-    protected void requestKeepALiveHeartbeat() {
-        while (this.isValidConnection()) {
-            stemLinkWrapper.log("Heartbeat request send to stemLink!", Level.FINE);
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+    /**
+     * Write the content of a channel as stream of chunk frames
+     * The calling thread reads the source and waits while the send buffer is not writable, so only a few
+     * chunks are in memory at a time. With multiplexed streams the content is sent as logical stream which
+     * only waits for its own credit. Remote sides without stream support get the whole content as one packet.
+     *
+     * @param headerChannel Channel header for this stream
+     * @param source        blocking source of the stream, read until its end
+     * @return future of the last chunk
+     * @throws IOException if the source could not be read or the connection was closed
+     */
+    public CompletableFuture<Void> writeStream(String headerChannel, ReadableByteChannel source) throws IOException {
+        if (!this.isValidConnection()) {
+            throw new IOException("The connection is closed");
+        }
+        ChannelName channelName = ChannelName.of(headerChannel);
+        ByteBuffer chunkBuffer = ByteBuffer.allocate(FRAGMENT_SIZE);
+        if (this.protocolFeatures.contains(ProtocolFeature.MULTIPLEX)) {
+            LogicalStream logicalStream = this.openStream(channelName, (byte) 0, new byte[0]);
             try {
-                outputStream.writeLong(new Date().getTime());
+                boolean end = false;
+                while (!end) {
+                    chunkBuffer.clear();
+                    while (chunkBuffer.hasRemaining() && !end) {
+                        end = source.read(chunkBuffer) == -1;
+                    }
+                    chunkBuffer.flip();
+                    logicalStream.write(chunkBuffer);
+                }
+                logicalStream.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                logicalStream.abort();
+                throw e;
+            }
+            return logicalStream.getFuture();
+        } else if (!this.protocolFeatures.contains(ProtocolFeature.STREAMS)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] chunk;
+            while ((chunk = readChunk(source, chunkBuffer)) != null) {
+                content.write(chunk);
             }
-            this.writeOutput("keep_alive_heartbeat", byteArrayOutputStream.toByteArray());
+            return this.writeMessage((byte) 0, 0, channelName, content.toByteArray());
+        }
+
+        Priority priority = this.channelPriorities.getPriority(channelName);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (this.outboundStreamLocks.computeIfAbsent(channelName, k -> new Object())) {
+            boolean started = false;
             try {
-                Thread.sleep(1000 * 30);
-            } catch (InterruptedException ignored) {
+                byte[] chunk = readChunk(source, chunkBuffer);
+                do {
+                    /* Read ahead, the last chunk is the one without fragment flag */
+                    byte[] nextChunk = chunk != null ? readChunk(source, chunkBuffer) : null;
+                    byte flags = nextChunk != null ? (byte) (FrameHeader.FLAG_STREAM | FrameHeader.FLAG_FRAGMENT) : FrameHeader.FLAG_STREAM;
+                    this.writeStreamChunk(flags, 0, channelName, ByteBuffer.wrap(chunk != null ? chunk : new byte[0]), priority, nextChunk != null ? null : future);
+                    started = true;
+                    chunk = nextChunk;
+                } while (chunk != null);
+            } catch (IOException | IllegalBlockSizeException | BadPaddingException e) {
+                if (started && this.isValidConnection()) {
+                    this.abortStream(channelName, priority);
+                }
+                throw e instanceof IOException ? (IOException) e : new IOException("Stream chunk could not be sealed", e);
             }
         }
+        return future;
     }
 
-    protected void answerKeepALiveHeartbeat(byte[] bytes) {
-        stemLinkWrapper.log("Heartbeat received from stemLink!", Level.FINE);
-        DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bytes));
-        Long dateTime = null;
+    /**
+     * Write a file as stream of chunk frames
+     *
+     * @param headerChannel Channel header for this file
+     * @param file          file to send
+     * @return future of the last chunk
+     * @throws IOException if the file could not be read or the connection was closed
+     * @see #writeFile(String, Path, long)
+     */
+    public CompletableFuture<Void> writeFile(String headerChannel, Path file) throws IOException {
+        return this.writeFile(headerChannel, file, 0);
+    }
+
+    /**
+     * Write a file from an offset as stream of chunk frames
+     * The file is mapped in windows and every chunk is sealed straight from the mapping into a pooled frame,
+     * so the content is never copied to the heap. The remote side gets a ReceiveFileEvent with the name, size
+     * and offset of the file. To resume a transfer after a reconnect, send the file again from the size
+     * the remote side already has. Remote sides without file support get a plain stream from the offset.
+     *
+     * @param headerChannel Channel header for this file
+     * @param file          file to send
+     * @param offset        position of the file where the transfer starts
+     * @return future of the last chunk
+     * @throws IOException if the file could not be read, the offset is invalid or the connection was closed
+     */
+    public CompletableFuture<Void> writeFile(String headerChannel, Path file, long offset) throws IOException {
+        if (!this.isValidConnection()) {
+            throw new IOException("The connection is closed");
+        }
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+            if (offset < 0 || offset > fileSize) {
+                throw new IOException("Invalid offset " + offset + " for " + file + " with " + fileSize + " bytes");
+            }
+            if (!this.protocolFeatures.contains(ProtocolFeature.FILES)) {
+                fileChannel.position(offset);
+                return this.writeStream(headerChannel, fileChannel);
+            }
+
+            ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+            DataOutputStream metadata = new DataOutputStream(metadataBytes);
+            metadata.writeUTF(file.getFileName().toString());
+            metadata.writeLong(fileSize);
+            metadata.writeLong(offset);
+
+            ChannelName channelName = ChannelName.of(headerChannel);
+            if (this.protocolFeatures.contains(ProtocolFeature.MULTIPLEX)) {
+                LogicalStream logicalStream = this.openStream(channelName, FrameHeader.FLAG_FILE, metadataBytes.toByteArray());
+                try {
+                    for (long position = offset; position < fileSize; position += FILE_WINDOW_SIZE) {
+                        int windowSize = (int) Math.min(FILE_WINDOW_SIZE, fileSize - position);
+                        logicalStream.write(fileChannel.map(FileChannel.MapMode.READ_ONLY, position, windowSize));
+                    }
+                    logicalStream.close();
+                } catch (IOException e) {
+                    logicalStream.abort();
+                    throw e;
+                }
+                return logicalStream.getFuture();
+            }
+
+            Priority priority = this.channelPriorities.getPriority(channelName);
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            synchronized (this.outboundStreamLocks.computeIfAbsent(channelName, k -> new Object())) {
+                boolean started = false;
+                try {
+                    /* The first chunk is the metadata, it is also the last one if nothing is left to send */
+                    byte flags = offset < fileSize ? (byte) (FrameHeader.FLAG_STREAM | FrameHeader.FLAG_FILE | FrameHeader.FLAG_FRAGMENT) : (byte) (FrameHeader.FLAG_STREAM | FrameHeader.FLAG_FILE);
+                    this.writeStreamChunk(flags, 0, channelName, ByteBuffer.wrap(metadataBytes.toByteArray()), priority, offset < fileSize ? null : future);
+                    started = true;
+                    for (long position = offset; position < fileSize; position += FILE_WINDOW_SIZE) {
+                        int windowSize = (int) Math.min(FILE_WINDOW_SIZE, fileSize - position);
+                        MappedByteBuffer window = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                        for (int chunkOffset = 0; chunkOffset < windowSize; chunkOffset += FRAGMENT_SIZE) {
+                            ByteBuffer chunk = window.duplicate();
+                            chunk.limit(Math.min(chunkOffset + FRAGMENT_SIZE, windowSize));
+                            chunk.position(chunkOffset);
+                            boolean last = position + chunk.limit() == fileSize;
+                            flags = last ? FrameHeader.FLAG_STREAM : (byte) (FrameHeader.FLAG_STREAM | FrameHeader.FLAG_FRAGMENT);
+                            this.writeStreamChunk(flags, 0, channelName, chunk, priority, last ? future : null);
+                        }
+                    }
+                } catch (IOException | IllegalBlockSizeException | BadPaddingException e) {
+                    if (started && this.isValidConnection()) {
+                        this.abortStream(channelName, priority);
+                    }
+                    throw e instanceof IOException ? (IOException) e : new IOException("File chunk could not be sealed", e);
+                }
+            }
+            return future;
+        }
+    }
+
+    /**
+     * Open a logical stream to the remote side
+     * Logical streams are multiplexed over this connection, every stream has its own credit window and
+     * a sender only waits while the reader of its own stream is behind. Any amount of streams can be
+     * open on one channel at the same time. The remote side gets a ReceiveStreamEvent for every stream.
+     *
+     * @param headerChannel Channel header for this stream
+     * @return LogicalStream to write the stream into, must be closed to end the stream
+     * @throws IOException if the connection was closed or the remote side does not support multiplexed streams
+     */
+    public LogicalStream openStream(String headerChannel) throws IOException {
+        return this.openStream(ChannelName.of(headerChannel), (byte) 0, new byte[0]);
+    }
+
+    /**
+     * Open a logical stream with the open frame
+     * Open frames use the SYSTEM lane in the order of their stream ids, so the remote side can drop late
+     * frames of reset streams by their id
+     *
+     * @param channelName ChannelName for this stream
+     * @param openFlags   additional flag bits of the open frame
+     * @param metadata    body of the open frame
+     * @return new LogicalStream
+     */
+    private LogicalStream openStream(ChannelName channelName, byte openFlags, byte[] metadata) throws IOException {
+        if (!this.isValidConnection()) {
+            throw new IOException("The connection is closed");
+        } else if (!this.protocolFeatures.contains(ProtocolFeature.MULTIPLEX)) {
+            throw new IOException("The remote side does not support multiplexed streams");
+        }
+        Priority priority = this.channelPriorities.getPriority(channelName);
+        synchronized (this.outboundLogicalStreams) {
+            long streamId = this.streamIds.addAndGet(2);
+            LogicalStream logicalStream = new LogicalStream(this.stemLinkWrapper, streamId, new StreamWindow(StreamWindow.DEFAULT_WINDOW_SIZE), FRAGMENT_SIZE,
+                    (flags, chunk, future) -> this.writeLogicalChunk(flags, streamId, channelName, chunk, priority, future));
+            this.outboundLogicalStreams.put(streamId, logicalStream);
+            try {
+                byte flags = (byte) (FrameHeader.FLAG_MULTIPLEXED | FrameHeader.FLAG_STREAM | FrameHeader.FLAG_FRAGMENT | openFlags);
+                this.sealFrames(flags, streamId, 0, channelName, ByteBuffer.wrap(metadata), Priority.SYSTEM, 0, null);
+            } catch (IOException e) {
+                this.outboundLogicalStreams.remove(streamId);
+                throw e;
+            }
+            return logicalStream;
+        }
+    }
+
+    /**
+     * Write one frame of a logical stream opened by this side
+     * Chunks use the lane of the channel, an abort uses the SYSTEM lane
+     *
+     * @param flags       flag bits of the frame
+     * @param streamId    id of the logical stream
+     * @param channelName ChannelName of the stream
+     * @param chunk       data of the chunk, from its position to its limit
+     * @param priority    Priority lane of the channel
+     * @param future      future of the stream if this is the last chunk or null
+     */
+    private void writeLogicalChunk(byte flags, long streamId, ChannelName channelName, ByteBuffer chunk, Priority priority, CompletableFuture<Void> future) throws IOException {
+        if ((flags & FrameHeader.FLAG_FRAGMENT) == 0) {
+            this.outboundLogicalStreams.remove(streamId);
+        }
+        if ((flags & FrameHeader.FLAG_STREAM_ABORT) != 0) {
+            this.writeStreamControl(flags, streamId, channelName, chunk);
+            return;
+        }
         try {
-            dateTime = dataInputStream.readLong();
-            stemLinkWrapper.log("Data: " + dateTime, Level.FINE);
+            this.writeStreamChunk(flags, streamId, channelName, chunk, priority, future);
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
+            throw new IOException("Stream chunk could not be sealed", e);
+        }
+    }
+
+    /**
+     * Write a window update or reset of a logical stream
+     * Control frames carry the channel name instead of a channel id, so they can use the SYSTEM lane
+     * without depending on the definition of a channel id in the lane of the channel
+     *
+     * @param flags       flag bits of the frame
+     * @param streamId    id of the logical stream
+     * @param channelName ChannelName of the stream
+     * @param data        body of the frame
+     */
+    private void writeStreamControl(byte flags, long streamId, ChannelName channelName, ByteBuffer data) {
+        if (!this.isValidConnection()) {
+            return;
+        }
+        try {
+            this.sealFrames(flags, streamId, 0, channelName, data, Priority.SYSTEM, 0, null);
         } catch (IOException e) {
-            e.printStackTrace();
+            this.stemLinkWrapper.log(e, Level.SEVERE);
         }
+    }
 
-        if (this instanceof ClientConnection) {
-            stemLinkWrapper.log("Writing back to server!", Level.FINE);
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            DataOutputStream outputStream = new DataOutputStream(byteArrayOutputStream);
+    /**
+     * Write one chunk of an outbound stream
+     * Blocks until the send buffer is writable, the chunk is sealed before this method returns
+     *
+     * @param flags       flag bits of the chunk frame
+     * @param streamId    id of the logical stream or 0
+     * @param channelName ChannelName of the stream
+     * @param chunk       data of the chunk, from its position to its limit
+     * @param priority    Priority lane of the channel
+     * @param future      future of the stream if this is the last chunk or null
+     */
+    private void writeStreamChunk(byte flags, long streamId, ChannelName channelName, ByteBuffer chunk, Priority priority, CompletableFuture<Void> future) throws IOException, IllegalBlockSizeException, BadPaddingException {
+        int length = chunk.remaining();
+        this.awaitSendBuffer();
+        if (!this.sendBuffer.reserve(length)) {
+            throw new IOException("Send buffer is full (" + this.sendBuffer.getPendingBytes() + " bytes pending)");
+        }
+        try {
+            this.writePacket(flags, streamId, channelName, chunk, priority, length, future);
+        } catch (IOException | IllegalBlockSizeException | BadPaddingException e) {
+            /* The chunk was not queued, so its reservation is still held */
+            this.sendBuffer.release(length);
+            throw e;
+        }
+    }
+
+    /**
+     * Read the next chunk of a stream source
+     *
+     * @param source      source of the stream
+     * @param chunkBuffer buffer with the size of a chunk
+     * @return chunk or null at the end of the source
+     */
+    private static byte[] readChunk(ReadableByteChannel source, ByteBuffer chunkBuffer) throws IOException {
+        chunkBuffer.clear();
+        while (chunkBuffer.hasRemaining() && source.read(chunkBuffer) != -1) {
+            /* Fill the chunk */
+        }
+        return chunkBuffer.position() > 0 ? Arrays.copyOf(chunkBuffer.array(), chunkBuffer.position()) : null;
+    }
+
+    /**
+     * Block the sending thread until the send buffer is writable
+     *
+     * @throws IOException if the connection was closed or the thread was interrupted
+     */
+    private void awaitSendBuffer() throws IOException {
+        try {
+            while (!this.sendBuffer.awaitWritable(1000)) {
+                if (!this.isValidConnection()) {
+                    throw new IOException("The connection is closed");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the send buffer");
+        }
+    }
+
+    /**
+     * Tell the remote side that a started stream will not be completed
+     *
+     * @param channelName ChannelName of the stream
+     * @param priority    Priority lane of the channel
+     */
+    private void abortStream(ChannelName channelName, Priority priority) {
+        try {
+            this.writePacket((byte) (FrameHeader.FLAG_STREAM | FrameHeader.FLAG_STREAM_ABORT), 0, channelName, ByteBuffer.allocate(0), priority, 0, null);
+        } catch (IOException | IllegalBlockSizeException | BadPaddingException e) {
+            this.stemLinkWrapper.log(e, Level.SEVERE);
+        }
+    }
+
+    /**
+     * Write the binary frames of a packet, with the channel id if the remote side supports it
+     *
+     * @param flags         flag bits of the frames
+     * @param correlationId id of the request or response or 0
+     * @param channelName   ChannelName for this packet
+     * @param data          Data to send to the connected side, from its position to its limit
+     * @param priority      Priority lane of the channel
+     * @param reservedBytes reserved bytes of the packet in the send buffer
+     * @param future        future of the write or null
+     */
+    private void writePacket(byte flags, long correlationId, ChannelName channelName, ByteBuffer data, Priority priority, int reservedBytes, CompletableFuture<Void> future) throws IOException, IllegalBlockSizeException, BadPaddingException {
+        if (this.protocolFeatures.contains(ProtocolFeature.CHANNEL_IDS)) {
+            this.writeChannelFrames(flags, correlationId, channelName, data, priority, reservedBytes, future);
+        } else {
+            this.sealFrames(flags, correlationId, 0, channelName, data, priority, reservedBytes, future);
+        }
+    }
+
+    /**
+     * Write the binary frames of a packet with the channel id of the channel
+     * The first frame of a channel defines its id, all later frames only carry the id
+     *
+     * @param flags         flag bits of the frames
+     * @param correlationId id of the request or response or 0
+     * @param channelName   ChannelName for this packet
+     * @param data          Data to send to the connected side, from its position to its limit
+     * @param priority      Priority lane of the channel
+     * @param reservedBytes reserved bytes of the packet in the send buffer
+     * @param future        future of the write
+     */
+    private void writeChannelFrames(byte flags, long correlationId, ChannelName channelName, ByteBuffer data, Priority priority, int reservedBytes, CompletableFuture<Void> future) throws IOException, IllegalBlockSizeException, BadPaddingException {
+        int channelId = this.channelDictionary.getOutboundId(channelName);
+        if (channelId == 0) {
+            /* The define frame must be written before any other thread can use the new id */
+            synchronized (this.channelDictionary) {
+                channelId = this.channelDictionary.getOutboundId(channelName);
+                if (channelId == 0) {
+                    channelId = this.channelDictionary.reserveOutboundId();
+                    if (channelId != 0) {
+                        this.sealFrames((byte) (flags | FrameHeader.FLAG_CHANNEL_DEFINE), correlationId, channelId, channelName, data, priority, reservedBytes, future);
+                        this.channelDictionary.publishOutboundId(channelName, channelId);
+                        return;
+                    }
+                }
+            }
+        }
+        this.sealFrames(flags, correlationId, channelId, channelId == 0 ? channelName : null, data, priority, reservedBytes, future);
+    }
+
+    /**
+     * Encode the frames of a packet and queue them while holding the lock of their lane
+     * Frames of a lane reach the socket in the order of their nonce counters, so the replay window of the remote side never sees a frame fall behind
+     *
+     * @param flags         flag bits of the frames
+     * @param correlationId id of the request or response or 0
+     * @param channelId     channel id of the frames or 0 if the channel name is part of the body
+     * @param channelName   Channel name for the body or null if the id is known by the remote side
+     * @param data          Data to send to the connected side, from its position to its limit
+     * @param priority      Priority lane of the frames
+     * @param reservedBytes reserved bytes of the packet in the send buffer
+     * @param future        future of the write
+     */
+    private void sealFrames(byte flags, long correlationId, int channelId, ChannelName channelName, ByteBuffer data, Priority priority, int reservedBytes, CompletableFuture<Void> future) throws IOException {
+        synchronized (this.laneLocks[priority.ordinal()]) {
+            this.writeFrames(this.encodeFrames(flags, correlationId, channelId, channelName, data, priority, priority.ordinal(), reservedBytes, future));
+        }
+    }
+
+    /**
+     * Encode a packet into one frame or into fragments if the remote side supports it
+     * Only the last fragment holds the send buffer reservation and the future of the packet
+     *
+     * @param flags         flag bits of the frames
+     * @param correlationId id of the request or response or 0
+     * @param channelId     channel id of the frames or 0 if the channel name is part of the body
+     * @param channelName   Channel name for the body or null if the id is known by the remote side
+     * @param data          Data to send to the connected side, from its position to its limit
+     * @param priority      Priority lane of the frames
+     * @param nonceStream   nonce stream of the seal
+     * @param reservedBytes reserved bytes of the packet in the send buffer
+     * @param future        future of the write
+     * @return Encoded frames of the packet
+     */
+    private List<OutboundFrame> encodeFrames(byte flags, long correlationId, int channelId, ChannelName channelName, ByteBuffer data, Priority priority, int nonceStream, int reservedBytes, CompletableFuture<Void> future) throws IOException {
+        if (data.remaining() <= FRAGMENT_SIZE || !this.protocolFeatures.contains(ProtocolFeature.FRAGMENTS)) {
+            return Collections.singletonList(new OutboundFrame(this.encodeFrame(flags, correlationId, channelId, channelName, data, nonceStream), this.sendBuffer, reservedBytes, future, priority));
+        }
+        List<OutboundFrame> frames = new ArrayList<>(data.remaining() / FRAGMENT_SIZE + 1);
+        try {
+            for (int offset = data.position(); offset < data.limit(); offset += FRAGMENT_SIZE) {
+                ByteBuffer fragment = data.duplicate();
+                fragment.limit(Math.min(offset + FRAGMENT_SIZE, data.limit()));
+                fragment.position(offset);
+                if (fragment.limit() < data.limit()) {
+                    frames.add(new OutboundFrame(this.encodeFrame((byte) (flags | FrameHeader.FLAG_FRAGMENT), correlationId, channelId, channelName, fragment, nonceStream), null, 0, null, priority));
+                } else {
+                    frames.add(new OutboundFrame(this.encodeFrame(flags, correlationId, channelId, channelName, fragment, nonceStream), this.sendBuffer, reservedBytes, future, priority));
+                }
+                /* Only the first fragment defines the channel */
+                flags &= ~FrameHeader.FLAG_CHANNEL_DEFINE;
+                if (channelId != 0) {
+                    channelName = null;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (OutboundFrame frame : frames) {
+                frame.releaseBuffer();
+            }
+            throw e;
+        }
+        return frames;
+    }
+
+    /**
+     * Encode a packet in the binary frame format
+     * Header fields are primitives, the body is the raw ciphertext of the optional channel name and the data.
+     * The data is sealed straight into the pooled frame buffer, so a heap or mapped buffer is never copied.
+     *
+     * @param flags         flag bits of the frame
+     * @param correlationId id of the request or response or 0
+     * @param channelId     channel id of the frame or 0 if the channel name is part of the body
+     * @param channelName   Channel name for the body or null if the id is known by the remote side
+     * @param data          Data to send to the connected side, from its position to its limit
+     * @param nonceStream   nonce stream of the seal, the ordinal of the priority lane of the frame
+     * @return Encoded frame bytes
+     */
+    protected PooledBuffer encodeFrame(byte flags, long correlationId, int channelId, ChannelName channelName, ByteBuffer data, int nonceStream) throws IOException {
+        byte[] channelBytes = channelName != null ? channelName.getName().getBytes(StandardCharsets.UTF_8) : null;
+        int plainLength = (channelBytes != null ? 2 + channelBytes.length : 0) + data.remaining();
+        FrameHeader frameHeader = new FrameHeader(flags, channelId, correlationId);
+        int headerLength = FrameHeader.LENGTH_SIZE + frameHeader.size();
+
+        PooledBuffer frame = this.bufferPool.acquire(headerLength + this.cryptManager.sealedSize(plainLength));
+        try {
+            ByteBuffer frameBuffer = frame.buffer();
+            frameHeader.write(frameBuffer, 0);
+            ByteBuffer aad = frameBuffer.duplicate();
+            aad.flip().position(FrameHeader.LENGTH_SIZE);
+
+            ByteBuffer channelBuffer = null;
+            if (channelBytes != null) {
+                channelBuffer = ByteBuffer.allocate(2 + channelBytes.length);
+                channelBuffer.putShort((short) channelBytes.length).put(channelBytes).flip();
+            }
+            int bodyLength = this.cryptManager.seal(nonceStream, aad, channelBuffer, data.duplicate(), frameBuffer);
+            frameBuffer.putInt(0, frameHeader.size() + bodyLength);
+            frameBuffer.flip();
+            return frame;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            frame.release();
+            throw new IOException("Frame could not be sealed", e);
+        }
+    }
+
+    /**
+     * Encode a packet in the legacy format with encrypted DataHead string and Base64 data
+     * Used for remote sides without binary frame support
+     *
+     * @param channelName ChannelName for this packet
+     * @param bytes       Bytes to send to the connected side
+     * @return Encoded frame
+     */
+    protected PooledBuffer encodeLegacyFrame(ChannelName channelName, byte[] bytes) throws IOException {
+        byte[] encryptedDataPackage = this.cryptManager.encryptFinal(bytes);
+        DataHead dataHead = new DataHead(channelName.getName(), encryptedDataPackage.length);
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(encryptedDataPackage.length + 128);
+        DataOutputStream dataOut = new DataOutputStream(byteArrayOutputStream);
+
+        dataOut.writeUTF(new String(this.cryptManager.encryptFinal(dataHead.toString().getBytes())));
+        dataOut.write(encryptedDataPackage);
+        return PooledBuffer.unpooled(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()));
+    }
+
+    /**
+     * Queue a complete encoded frame for the remote side
+     * The frame is completed after it was written or failed if the connection is closed
+     *
+     * @param frame Encoded frame
+     */
+    protected void writeFrame(OutboundFrame frame) {
+        this.frameWriter.enqueue(frame);
+    }
+
+    /**
+     * Queue the encoded frames of one packet for the remote side
+     * The frames are kept together in the lane of their priority
+     *
+     * @param frames Encoded frames with the same priority
+     */
+    protected void writeFrames(List<OutboundFrame> frames) {
+        if (frames.size() == 1) {
+            this.writeFrame(frames.get(0));
+        } else {
+            this.frameWriter.enqueue(frames);
+        }
+    }
+
+    /**
+     * Encrypt and write a handshake value to the remote side
+     *
+     * @param step  current handshake step for logging
+     * @param value handshake value to send
+     */
+    protected void send_handshake(String step, String value) {
+        if (this.isValidConnection()) {
             try {
-                outputStream.writeLong(dateTime);
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                DataOutputStream dataOut = new DataOutputStream(byteArrayOutputStream);
+                dataOut.writeUTF(new String(this.cryptManager.encryptFinal(value.getBytes())));
+                this.writeFrame(new OutboundFrame(PooledBuffer.unpooled(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()))));
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            this.writeOutput("keep_alive_heartbeat", byteArrayOutputStream.toByteArray());
+        } else {
+            stemLinkWrapper.log("Handshake failed on STEP: " + step, Level.SEVERE);
+        }
+    }
+
+    /**
+     * Read handshake data from server/client
+     *
+     * @throws IOException Exception if something failed
+     */
+    protected void read_handshake() throws IOException, IllegalBlockSizeException, BadPaddingException {
+        int valueLength = this.frameReader.readUTFValue();
+        this.handle_handshake(new String(this.cryptManager.decryptFinal(this.frameReader.getBuffer(), 0, valueLength)));
+    }
+
+    /**
+     * Handle a decrypted handshake value from server/client
+     *
+     * @param value decrypted handshake value
+     */
+    protected abstract void handle_handshake(String value);
+
+
+    /**
+     * Write handshake data for server/client
+     *
+     * @param step current handshake step defined in function itself
+     */
+    protected abstract void write_handshake(String step);
+
+    /**
+     * Send a single keep alive heartbeat request to the remote side
+     */
+    protected void sendKeepALiveHeartbeat() {
+        stemLinkWrapper.log("Heartbeat request send to stemLink!", Level.FINE);
+        this.writeOutput("keep_alive_heartbeat", ByteBuffer.allocate(8).putLong(System.currentTimeMillis()).array());
+    }
+
+    /**
+     * Handle a session ticket of the remote side
+     * Only clients accept tickets, they are issued by the server
+     *
+     * @param bytes sealed session ticket
+     */
+    protected void handle_session_ticket(byte[] bytes) {
+        stemLinkWrapper.log("Unexpected session ticket from stemLink", Level.WARNING);
+    }
+
+    protected void answerKeepALiveHeartbeat(byte[] bytes) {
+        stemLinkWrapper.log("Heartbeat received from stemLink!", Level.FINE);
+        if (bytes.length < 8) {
+            stemLinkWrapper.log("Invalid heartbeat data", Level.WARNING);
+            return;
+        }
+        stemLinkWrapper.log("Data: " + ByteBuffer.wrap(bytes).getLong(), Level.FINE);
+
+        if (this instanceof ClientConnection) {
+            stemLinkWrapper.log("Writing back to server!", Level.FINE);
+            this.writeOutput("keep_alive_heartbeat", bytes);
         }
     }
 
@@ -12,8 +12,16 @@
 package de.linzn.stemLink.connections.client;
 
 import de.linzn.stemLink.components.IStemLinkWrapper;
+import de.linzn.stemLink.components.compression.CompressionManager;
+import de.linzn.stemLink.components.encryption.BroadcastKey;
+import de.linzn.stemLink.components.encryption.CipherSuite;
 import de.linzn.stemLink.components.encryption.CryptContainer;
 import de.linzn.stemLink.components.events.handler.EventBus;
+import de.linzn.stemLink.components.protocol.ChannelDictionary;
+import de.linzn.stemLink.components.protocol.ChannelPriorities;
+import de.linzn.stemLink.components.protocol.FlushPolicy;
+import de.linzn.stemLink.components.protocol.ProtocolFeature;
+import de.linzn.stemLink.components.protocol.ReconnectPolicy;
 import de.linzn.stemLink.connections.AbstractConnection;
 import de.linzn.stemLink.connections.ClientType;
 
@@ -21,15 +29,27 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import java.io.*;
 import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 
 public class ClientConnection extends AbstractConnection {
     private final String host;
     private final int port;
+    private final int linkIndex;
+    private final ClientConnectionPool clientConnectionPool;
     private boolean keepAlive;
-    private boolean handshakeConfirmed;
+    private volatile boolean handshakeConfirmed;
+    private byte[] clientNonce;
+    private volatile byte[] sessionTicket;
+    private boolean resuming;
+    private volatile ReconnectPolicy reconnectPolicy;
 
     /**
      * Constructor for the ClientConnection class
@@ -43,12 +63,36 @@ public class ClientConnection extends AbstractConnection {
         super(new Socket(), stemLinkWrapper, cryptContainer, clientUUID, clientType, new EventBus(stemLinkWrapper));
         this.host = host;
         this.port = port;
+        this.linkIndex = 0;
+        this.clientConnectionPool = null;
         this.keepAlive = true;
         this.handshakeConfirmed = false;
+        this.reconnectPolicy = ReconnectPolicy.DEFAULT;
         stemLinkWrapper.log("Initializing stemLink to server /" + host + ":" + port, Level.INFO);
 
     }
 
+    /**
+     * Constructor for one link of a ClientConnectionPool
+     * All links of a pool share the EventBus, buffers and channel settings of the pool
+     *
+     * @param clientConnectionPool pool of this link
+     * @param linkIndex            index of this link in the pool
+     */
+    ClientConnection(ClientConnectionPool clientConnectionPool, int linkIndex) {
+        super(new Socket(), clientConnectionPool.stemLinkWrapper, clientConnectionPool.cryptContainer, clientConnectionPool.uuid, clientConnectionPool.clientType, clientConnectionPool.eventBus, clientConnectionPool.bufferPool);
+        this.host = clientConnectionPool.host;
+        this.port = clientConnectionPool.port;
+        this.linkIndex = linkIndex;
+        this.clientConnectionPool = clientConnectionPool;
+        this.keepAlive = true;
+        this.handshakeConfirmed = false;
+        this.reconnectPolicy = ReconnectPolicy.DEFAULT;
+        this.compressionManager = clientConnectionPool.compressionManager;
+        this.channelPriorities = clientConnectionPool.channelPriorities;
+        stemLinkWrapper.log("Initializing stemLink link " + linkIndex + " to server /" + host + ":" + port, Level.INFO);
+    }
+
     /**
      * Enable this connection
      */
@@ -65,22 +109,35 @@ public class ClientConnection extends AbstractConnection {
     public synchronized void setDisable() {
         this.keepAlive = false;
         super.setDisable();
+        /* Wake up a reconnect backoff */
+        this.notifyAll();
     }
 
     @Override
     public void run() {
+        int attempt = 0;
         while (this.keepAlive) {
             try {
                 this.socket = new Socket(this.host, this.port);
                 this.socket.setTcpNoDelay(true);
+                this.openFrameStreams();
                 this.handshakeConfirmed = false;
+                this.protocolFeatures = Collections.emptySet();
+                this.channelDictionary = new ChannelDictionary();
+                this.cryptManager.resetFrameCiphers();
+                this.clientNonce = CipherSuite.randomNonce();
+                /* Send the ticket without waiting for the first server step, the server answers in one round trip */
+                this.resuming = this.sessionTicket != null;
+                if (this.resuming) {
+                    write_handshake("STEP-RESUME");
+                }
 
                 while (this.isValidConnection() && !this.handshakeConfirmed) {
                     this.read_handshake();
                 }
 
                 if (this.handshakeConfirmed) {
-                    this.call_connect();
+                    this.call_connect(this.linkIndex, this.clientConnectionPool == null || this.clientConnectionPool.linkConnected());
                     while (this.isValidConnection()) {
                         this.readInput();
                     }
@@ -92,9 +149,18 @@ public class ClientConnection extends AbstractConnection {
                 stemLinkWrapper.log(e, Level.SEVERE);
                 this.closeConnection();
             }
-            /* Reduce cpu usage while trying to reconnect to stemLink server */
+            /* Spread the reconnects of many clients with an exponential backoff and full jitter */
+            if (this.handshakeConfirmed) {
+                attempt = 0;
+            }
+            long delay = this.reconnectPolicy.getDelayMillis(attempt);
+            attempt++;
             try {
-                Thread.sleep(50);
+                synchronized (this) {
+                    if (this.keepAlive && delay > 0) {
+                        this.wait(delay);
+                    }
+                }
             } catch (InterruptedException exception) {
                 this.stemLinkWrapper.log(exception, Level.SEVERE);
             }
@@ -110,6 +176,24 @@ public class ClientConnection extends AbstractConnection {
         return this.keepAlive && this.isValidConnection();
     }
 
+    /**
+     * Check if the handshake of this connection is complete
+     *
+     * @return true if packets can be sent
+     */
+    boolean isHandshakeConfirmed() {
+        return this.isOnline() && this.handshakeConfirmed;
+    }
+
+    /**
+     * Get the index of this link in its ClientConnectionPool
+     *
+     * @return link index, 0 for a single connection
+     */
+    public int getLinkIndex() {
+        return this.linkIndex;
+    }
+
     /**
      * Close this connection
      */
@@ -120,29 +204,121 @@ public class ClientConnection extends AbstractConnection {
                 this.socket.close();
             } catch (IOException ignored) {
             }
-            if (this.keepAlive) {
-                if (this.handshakeConfirmed) {
-                    this.call_disconnect();
+            if (this.frameWriter != null) {
+                this.frameWriter.close();
+            }
+            this.close_streams();
+            this.close_requests();
+            if (this.handshakeConfirmed) {
+                boolean lastLink = this.clientConnectionPool == null || this.clientConnectionPool.linkDisconnected();
+                if (this.keepAlive) {
+                    this.call_disconnect(this.linkIndex, lastLink);
                 }
             }
         }
     }
 
-    @Override
-    public void read_handshake() throws IOException, IllegalBlockSizeException, BadPaddingException {
-        BufferedInputStream bInStream = new BufferedInputStream(this.socket.getInputStream());
-        DataInputStream dataInput = new DataInputStream(bInStream);
-        String value = new String(this.cryptManager.decryptFinal(dataInput.readUTF().getBytes()));
+    /**
+     * Open the shared broadcast frames of the server with its broadcast key
+     * Old servers and the AES_CBC suite send no broadcast key
+     *
+     * @param features    negotiated features
+     * @param cipherSuite negotiated CipherSuite
+     * @param values      split handshake value with broadcast nonce and floors
+     * @throws GeneralSecurityException if the suite is not usable
+     */
+    private void setBroadcastKey(Set<ProtocolFeature> features, CipherSuite cipherSuite, String[] values) throws GeneralSecurityException {
+        if (features.contains(ProtocolFeature.BROADCAST) && cipherSuite != CipherSuite.AES_CBC && values.length > 6) {
+            this.cryptManager.setBroadcastKey(cipherSuite, CipherSuite.fromHex(values[5]), BroadcastKey.fromFloors(values[6]));
+        }
+    }
 
+    @Override
+    protected void handle_handshake(String value) {
         if (value.split("_")[0].equalsIgnoreCase("SERVER-HANDSHAKE-1")) {
             this.handshakeConfirmed = false;
+            if (this.resuming) {
+                /* Old servers ignore the resume request and do not announce resumption */
+                String[] values = value.split("_");
+                if (ProtocolFeature.fromTokens(values.length > 2 ? values[2] : null).contains(ProtocolFeature.RESUME)) {
+                    return;
+                }
+                this.resuming = false;
+                this.sessionTicket = null;
+            }
+            write_handshake("STEP-2");
+        } else if (value.split("_")[0].equalsIgnoreCase("SERVER-HANDSHAKE-RESUMED")) {
+            String[] values = value.split("_");
+            Set<ProtocolFeature> features = ProtocolFeature.negotiate(ProtocolFeature.fromTokens(values.length > 2 ? values[2] : null));
+            if (features.contains(ProtocolFeature.CIPHER_SUITES)) {
+                List<CipherSuite> selected = CipherSuite.fromTokens(values.length > 3 ? values[3] : null);
+                if (selected.isEmpty() || !this.cipherSuites.contains(selected.get(0)) || values.length < 5) {
+                    this.stemLinkWrapper.log("Client::Server resumed with no allowed cipher suite", Level.SEVERE);
+                    this.sessionTicket = null;
+                    this.closeConnection();
+                    return;
+                }
+                try {
+                    this.cryptManager.setCipherSuite(selected.get(0), this.clientNonce, CipherSuite.fromHex(values[4]), true);
+                    this.setBroadcastKey(features, selected.get(0), values);
+                } catch (GeneralSecurityException | IllegalArgumentException e) {
+                    this.stemLinkWrapper.log(e, Level.SEVERE);
+                    this.sessionTicket = null;
+                    this.closeConnection();
+                    return;
+                }
+                this.stemLinkWrapper.log("Client::Using cipher suite " + selected.get(0), Level.FINE);
+            }
+            this.resuming = false;
+            this.protocolFeatures = features;
+            this.handshakeConfirmed = true;
+            this.stemLinkWrapper.log("Client::Session resumed", Level.FINE);
+        } else if (value.split("_")[0].equalsIgnoreCase("SERVER-HANDSHAKE-RESUME-REJECT")) {
+            if (!this.resuming) {
+                /* Already fell back to the full handshake after the first server step */
+                return;
+            }
+            this.resuming = false;
+            this.sessionTicket = null;
+            this.stemLinkWrapper.log("Client::Session ticket rejected, start full handshake", Level.FINE);
             write_handshake("STEP-2");
         }else if (value.split("_")[0].equalsIgnoreCase("SERVER-HANDSHAKE-2")) {
             this.handshakeConfirmed = false;
             write_handshake("STEP-3");
         }  else if (value.split("_")[0].equalsIgnoreCase("SERVER-HANDSHAKE-COMPLETE")) {
+            /* Old servers send no feature list and keep the legacy format */
+            String[] values = value.split("_");
+            Set<ProtocolFeature> features = ProtocolFeature.negotiate(ProtocolFeature.fromTokens(values.length > 2 ? values[2] : null));
+            if (this.linkIndex > 0 && !features.contains(ProtocolFeature.LINKS)) {
+                /* The server would replace the first link with this one */
+                this.stemLinkWrapper.log("Client::Server does not support links, link " + this.linkIndex + " is disabled", Level.WARNING);
+                write_handshake("STEP-CANCEL");
+                this.keepAlive = false;
+                this.closeConnection();
+                return;
+            }
+            if (features.contains(ProtocolFeature.CIPHER_SUITES)) {
+                List<CipherSuite> selected = CipherSuite.fromTokens(values.length > 3 ? values[3] : null);
+                if (selected.isEmpty() || !this.cipherSuites.contains(selected.get(0)) || values.length < 5) {
+                    this.stemLinkWrapper.log("Client::Server selected no allowed cipher suite", Level.SEVERE);
+                    write_handshake("STEP-CANCEL");
+                    this.closeConnection();
+                    return;
+                }
+                try {
+                    this.cryptManager.setCipherSuite(selected.get(0), this.clientNonce, CipherSuite.fromHex(values[4]), true);
+                    this.setBroadcastKey(features, selected.get(0), values);
+                } catch (GeneralSecurityException | IllegalArgumentException e) {
+                    this.stemLinkWrapper.log(e, Level.SEVERE);
+                    write_handshake("STEP-CANCEL");
+                    this.closeConnection();
+                    return;
+                }
+                this.stemLinkWrapper.log("Client::Using cipher suite " + selected.get(0), Level.FINE);
+            }
             this.handshakeConfirmed = true;
             write_handshake("STEP-CONFIRM");
+            this.protocolFeatures = features;
 
         } else if (value.split("_")[0].equalsIgnoreCase("SERVER-HANDSHAKE-CANCEL")) {
             this.handshakeConfirmed = false;
@@ -157,13 +333,17 @@ public class ClientConnection extends AbstractConnection {
         String value;
 
         if (step.equalsIgnoreCase("STEP-2")) {
-            value = "CLIENT-HANDSHAKE-2_" + this.getUUID() + "_" + this.getClientType().name() + "_" + randomValue;
+            value = "CLIENT-HANDSHAKE-2_" + this.getUUID() + "_" + this.getClientType().name() + "_" + randomValue + "_" + ProtocolFeature.toTokens(ProtocolFeature.supported()) + "_" + CipherSuite.toTokens(this.cipherSuites) + "_" + CipherSuite.toHex(this.clientNonce) + "_" + this.linkIndex;
             this.stemLinkWrapper.log("Client::Start handshake process", Level.FINE);
             this.stemLinkWrapper.log("Client::" + this.getUUID(), Level.FINE);
             this.stemLinkWrapper.log("Client::Send UUID for handshake", Level.FINE);
             this.stemLinkWrapper.log("Client::" + this.getClientType().name(), Level.FINE);
             this.stemLinkWrapper.log("Client::Send ClientType for handshake", Level.FINE);
 
+        } else if (step.equalsIgnoreCase("STEP-RESUME")) {
+            value = "CLIENT-HANDSHAKE-RESUME_" + randomValue + "_" + CipherSuite.toHex(this.sessionTicket) + "_" + CipherSuite.toHex(this.clientNonce);
+            this.stemLinkWrapper.log("Client::Resume session with ticket", Level.FINE);
+
         } else if (step.equalsIgnoreCase("STEP-CONFIRM")) {
             value = "CLIENT-HANDSHAKE-COMPLETE-CONFIRM_" + randomValue;
             this.stemLinkWrapper.log("Client::Confirming handshake process to server", Level.FINE);
@@ -174,22 +354,87 @@ public class ClientConnection extends AbstractConnection {
             this.stemLinkWrapper.log("Client::Cancel handshake process", Level.FINE);
         }
 
-        if (this.isValidConnection()) {
-            try {
-                BufferedOutputStream bOutStream = new BufferedOutputStream(this.socket.getOutputStream());
-                DataOutputStream dataOut = new DataOutputStream(bOutStream);
+        this.send_handshake(step, value);
+    }
 
-                dataOut.writeUTF(new String(this.cryptManager.encryptFinal(value.getBytes())));
 
-                bOutStream.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } else {
-            stemLinkWrapper.log("Handshake failed on STEP: " + step, Level.SEVERE);
+    /**
+     * Set the allowed cipher suites in preference order
+     * Used for the next handshake
+     *
+     * @param cipherSuites allowed CipherSuites
+     */
+    public void setCipherSuites(CipherSuite... cipherSuites) {
+        this.cipherSuites = Arrays.asList(cipherSuites);
+        /* The session ticket holds the old suite */
+        this.sessionTicket = null;
+    }
+
+    /**
+     * Set the backoff between reconnect attempts
+     * The attempts start again with the initial delay after each confirmed handshake
+     *
+     * @param reconnectPolicy ReconnectPolicy of this connection
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * Store the session ticket of the server for the next reconnect
+     *
+     * @param bytes sealed session ticket
+     */
+    @Override
+    protected void handle_session_ticket(byte[] bytes) {
+        this.sessionTicket = bytes;
+        this.stemLinkWrapper.log("Client::Received session ticket", Level.FINE);
+    }
+
+    /**
+     * Set the latency budget for coalescing outgoing frames
+     * Used for the next connection
+     *
+     * @param flushPolicy FlushPolicy for the writer thread
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * Set the maximum size of a received message
+     * Larger messages close the connection. The length prefix of every frame is checked before the frame is buffered,
+     * fragments while they are reassembled and compressed payloads while they are inflated, so one message of the
+     * remote side never makes this side allocate much more than this size
+     *
+     * @param maxMessageSize maximum size in bytes after reassembly and decompression
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize < 1) {
+            throw new IllegalArgumentException("Invalid max message size " + maxMessageSize);
         }
+        this.maxMessageSize = maxMessageSize;
     }
 
+    /**
+     * Get the CompressionManager of this connection
+     * Channel compression settings apply to outgoing packets if the server supports the algorithm
+     *
+     * @return CompressionManager of this connection
+     */
+    public CompressionManager getCompressionManager() {
+        return this.compressionManager;
+    }
+
+    /**
+     * Get the channel priorities of this connection
+     * Priorities apply to the send queue and the event dispatch
+     *
+     * @return ChannelPriorities of this connection
+     */
+    public ChannelPriorities getChannelPriorities() {
+        return this.channelPriorities;
+    }
 
     /**
      * Register a new classInstance
@@ -208,4 +453,14 @@ public class ClientConnection extends AbstractConnection {
     public void unregisterEvents(Object classInstance) {
         this.eventBus.unregister(classInstance);
     }
+
+    /**
+     * Register a named executor for event handlers with ThreadMode.EXECUTOR
+     *
+     * @param name     name of the executor in the EventHandler annotation
+     * @param executor Executor for the handlers
+     */
+    public void registerExecutor(String name, Executor executor) {
+        this.eventBus.registerExecutor(name, executor);
+    }
 }
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.connections.client;
+
+import de.linzn.stemLink.components.IStemLinkWrapper;
+import de.linzn.stemLink.components.buffer.BufferPool;
+import de.linzn.stemLink.components.compression.CompressionManager;
+import de.linzn.stemLink.components.encryption.CipherSuite;
+import de.linzn.stemLink.components.encryption.CryptContainer;
+import de.linzn.stemLink.components.events.handler.EventBus;
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.components.protocol.ChannelPriorities;
+import de.linzn.stemLink.components.protocol.FlushPolicy;
+import de.linzn.stemLink.components.protocol.LogicalStream;
+import de.linzn.stemLink.components.protocol.ReconnectPolicy;
+import de.linzn.stemLink.connections.ClientType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+public class ClientConnectionPool {
+    /* Upper bound of links per pool */
+    public static final int MAX_LINKS = 64;
+
+    final String host;
+    final int port;
+    final UUID uuid;
+    final ClientType clientType;
+    final IStemLinkWrapper stemLinkWrapper;
+    final CryptContainer cryptContainer;
+    final EventBus eventBus;
+    final BufferPool bufferPool;
+    final CompressionManager compressionManager;
+    final ChannelPriorities channelPriorities;
+    private final List<ClientConnection> links;
+    /* Channels without order, their packets are spread over all links */
+    private final Set<ChannelName> roundRobinChannels;
+    private final AtomicInteger nextLink;
+    private final AtomicInteger connectedLinks;
+
+    /**
+     * Constructor for the ClientConnectionPool class
+     * The pool opens several links to the same server under one client UUID. Every link has its own socket,
+     * ciphers, reading and writing thread, so producers in several threads use several cores. Packets of one
+     * channel always take the same link and keep their order, the server groups the links by the UUID.
+     *
+     * @param host            the host address for server to connect
+     * @param port            the port for the server to connect
+     * @param clientUUID      the uuid of the client for all links
+     * @param clientType      the client type of all links
+     * @param stemLinkWrapper the ILinkMask mask class
+     * @param cryptContainer  the CryptContainer for encryption in the client
+     * @param linkCount       amount of links to open
+     */
+    public ClientConnectionPool(String host, int port, UUID clientUUID, ClientType clientType, IStemLinkWrapper stemLinkWrapper, CryptContainer cryptContainer, int linkCount) {
+        if (linkCount < 1 || linkCount > MAX_LINKS) {
+            throw new IllegalArgumentException("Invalid link count " + linkCount);
+        }
+        this.host = host;
+        this.port = port;
+        this.uuid = clientUUID;
+        this.clientType = clientType;
+        this.stemLinkWrapper = stemLinkWrapper;
+        this.cryptContainer = cryptContainer;
+        this.eventBus = new EventBus(stemLinkWrapper);
+        this.bufferPool = new BufferPool(stemLinkWrapper);
+        this.compressionManager = new CompressionManager();
+        this.channelPriorities = new ChannelPriorities();
+        List<ClientConnection> links = new ArrayList<>(linkCount);
+        for (int linkIndex = 0; linkIndex < linkCount; linkIndex++) {
+            links.add(new ClientConnection(this, linkIndex));
+        }
+        this.links = Collections.unmodifiableList(links);
+        this.roundRobinChannels = ConcurrentHashMap.newKeySet();
+        this.nextLink = new AtomicInteger();
+        this.connectedLinks = new AtomicInteger();
+        stemLinkWrapper.log("Initializing stemLink pool with " + linkCount + " links to server /" + host + ":" + port, Level.INFO);
+    }
+
+    /**
+     * Enable all links
+     */
+    public void setEnable() {
+        for (ClientConnection link : this.links) {
+            link.setEnable();
+        }
+    }
+
+    /**
+     * Disable all links
+     */
+    public void setDisable() {
+        for (ClientConnection link : this.links) {
+            link.setDisable();
+        }
+    }
+
+    /**
+     * Check if at least one link is online
+     *
+     * @return boolean value if the pool is online
+     */
+    public boolean isOnline() {
+        for (ClientConnection link : this.links) {
+            if (link.isOnline()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the link for the packets of a channel
+     * A channel is bound to one link by the hash of its normalized name, while that link is offline its packets take
+     * the next online link. Round robin channels take the next online link for every packet.
+     *
+     * @param headerChannel channel of the packets
+     * @return ClientConnection of the channel
+     */
+    public ClientConnection getLink(String headerChannel) {
+        ChannelName channelName = ChannelName.of(headerChannel);
+        int start = this.roundRobinChannels.contains(channelName) ? this.nextLink.getAndIncrement() : channelName.getKey().hashCode();
+        start &= Integer.MAX_VALUE;
+        for (int i = 0; i < this.links.size(); i++) {
+            ClientConnection link = this.links.get((start + i) % this.links.size());
+            if (link.isHandshakeConfirmed()) {
+                return link;
+            }
+        }
+        return this.links.get(start % this.links.size());
+    }
+
+    /**
+     * Get all links of this pool
+     *
+     * @return unmodifiable List of the links by their index
+     */
+    public List<ClientConnection> getLinks() {
+        return this.links;
+    }
+
+    /**
+     * Spread the packets of a channel over all links
+     * Packets of a round robin channel may arrive in another order than they were sent
+     *
+     * @param headerChannel channel name
+     * @param roundRobin    true to spread the packets, false to keep the channel on one link
+     */
+    public void setRoundRobin(String headerChannel, boolean roundRobin) {
+        if (roundRobin) {
+            this.roundRobinChannels.add(ChannelName.of(headerChannel));
+        } else {
+            this.roundRobinChannels.remove(ChannelName.of(headerChannel));
+        }
+    }
+
+    /**
+     * Write into the link of the channel
+     *
+     * @param headerChannel Channel header for this packet
+     * @param bytes         Bytes to send to the server
+     */
+    public void writeOutput(String headerChannel, byte[] bytes) {
+        this.getLink(headerChannel).writeOutput(headerChannel, bytes);
+    }
+
+    /**
+     * Write into the link of the channel with a completion
+     *
+     * @param headerChannel Channel header for this packet
+     * @param bytes         Bytes to send to the server
+     * @return future which completes when the packet was written to the socket
+     */
+    public CompletableFuture<Void> writeOutputAsync(String headerChannel, byte[] bytes) {
+        return this.getLink(headerChannel).writeOutputAsync(headerChannel, bytes);
+    }
+
+    /**
+     * Send a request over the link of the channel
+     *
+     * @param headerChannel Channel header for this request
+     * @param bytes         Bytes of the request
+     * @param timeoutMillis time to wait for the response in milliseconds
+     * @return future of the response data
+     */
+    public CompletableFuture<byte[]> request(String headerChannel, byte[] bytes, long timeoutMillis) {
+        return this.getLink(headerChannel).request(headerChannel, bytes, timeoutMillis);
+    }
+
+    /**
+     * Open a logical stream on the link of the channel
+     *
+     * @param headerChannel Channel header for this stream
+     * @return LogicalStream to write the stream into
+     * @throws IOException if the link was closed or the server does not support multiplexed streams
+     */
+    public LogicalStream openStream(String headerChannel) throws IOException {
+        return this.getLink(headerChannel).openStream(headerChannel);
+    }
+
+    /**
+     * Write a stream over the link of the channel
+     *
+     * @param headerChannel Channel header for this stream
+     * @param inputStream   source of the stream, read until its end
+     * @return future of the last chunk
+     * @throws IOException if the source could not be read or the link was closed
+     */
+    public CompletableFuture<Void> writeStream(String headerChannel, InputStream inputStream) throws IOException {
+        return this.getLink(headerChannel).writeStream(headerChannel, inputStream);
+    }
+
+    /**
+     * Write a file from an offset over the link of the channel
+     *
+     * @param headerChannel Channel header for this file
+     * @param file          file to send
+     * @param offset        position of the file where the transfer starts
+     * @return future of the last chunk
+     * @throws IOException if the file could not be read, the offset is invalid or the link was closed
+     */
+    public CompletableFuture<Void> writeFile(String headerChannel, Path file, long offset) throws IOException {
+        return this.getLink(headerChannel).writeFile(headerChannel, file, offset);
+    }
+
+    /**
+     * Get the uuid of all links
+     *
+     * @return uuid of the client
+     */
+    public UUID getUUID() {
+        return this.uuid;
+    }
+
+    /**
+     * Get the client type of all links
+     *
+     * @return ClientType of the client
+     */
+    public ClientType getClientType() {
+        return this.clientType;
+    }
+
+    /**
+     * Set the allowed cipher suites of all links in preference order
+     * Used for the next handshake of every link
+     *
+     * @param cipherSuites allowed CipherSuites
+     */
+    public void setCipherSuites(CipherSuite... cipherSuites) {
+        for (ClientConnection link : this.links) {
+            link.setCipherSuites(cipherSuites);
+        }
+    }
+
+    /**
+     * Set the latency budget of all links for coalescing outgoing frames
+     * Used for the next connection of every link
+     *
+     * @param flushPolicy FlushPolicy for the writer threads
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        for (ClientConnection link : this.links) {
+            link.setFlushPolicy(flushPolicy);
+        }
+    }
+
+    /**
+     * Set the maximum size of a received message for all links
+     *
+     * @param maxMessageSize maximum size in bytes after reassembly and decompression
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        for (ClientConnection link : this.links) {
+            link.setMaxMessageSize(maxMessageSize);
+        }
+    }
+
+    /**
+     * Set the backoff between reconnect attempts of all links
+     * Every link draws its own jittered delay
+     *
+     * @param reconnectPolicy ReconnectPolicy of the links
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        for (ClientConnection link : this.links) {
+            link.setReconnectPolicy(reconnectPolicy);
+        }
+    }
+
+    /**
+     * Get the CompressionManager of all links
+     *
+     * @return CompressionManager of the pool
+     */
+    public CompressionManager getCompressionManager() {
+        return this.compressionManager;
+    }
+
+    /**
+     * Get the channel priorities of all links
+     *
+     * @return ChannelPriorities of the pool
+     */
+    public ChannelPriorities getChannelPriorities() {
+        return this.channelPriorities;
+    }
+
+    /**
+     * Register a new classInstance for the events of all links
+     *
+     * @param classInstance Event listener classInstance to register
+     */
+    public void registerEvents(Object classInstance) {
+        this.eventBus.register(classInstance);
+    }
+
+    /**
+     * Unregister an existing IListener
+     *
+     * @param classInstance Event listener classInstance to unregister
+     */
+    public void unregisterEvents(Object classInstance) {
+        this.eventBus.unregister(classInstance);
+    }
+
+    /**
+     * Register a named executor for event handlers with ThreadMode.EXECUTOR
+     *
+     * @param name     name of the executor in the EventHandler annotation
+     * @param executor Executor for the handlers
+     */
+    public void registerExecutor(String name, Executor executor) {
+        this.eventBus.registerExecutor(name, executor);
+    }
+
+    /**
+     * Count a link with a confirmed handshake
+     *
+     * @return true if it is the first connected link of the pool
+     */
+    boolean linkConnected() {
+        return this.connectedLinks.getAndIncrement() == 0;
+    }
+
+    /**
+     * Count a link which lost its confirmed handshake
+     *
+     * @return true if it was the last connected link of the pool
+     */
+    boolean linkDisconnected() {
+        return this.connectedLinks.decrementAndGet() == 0;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.connections.server;
+
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.connections.ClientType;
+
+import java.net.InetAddress;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class ConnectionRegistry {
+    private final Map<UUID, ServerConnection> connections;
+    private final Map<UUID, ServerConnection> connectionsView;
+    private final EnumMap<ClientType, Map<UUID, ServerConnection>> connectionsByType;
+    private final EnumMap<ClientType, Map<UUID, ServerConnection>> connectionsByTypeView;
+    private final Map<InetAddress, Map<UUID, ServerConnection>> connectionsByAddress;
+    /* All links of a client ordered by link index, replaced as a whole on every change */
+    private final Map<UUID, List<ServerConnection>> links;
+
+    /**
+     * Registry of the connected clients of a StemLinkServer
+     * Reads never lock or copy, the views are live and iterate weakly consistent while clients connect and disconnect.
+     * Writes are serialized, so a connection is always in all indexes or in none of them.
+     * A client with several links is indexed by its first link, the others are only in the link lists.
+     */
+    ConnectionRegistry() {
+        this.connections = new ConcurrentHashMap<>();
+        this.connectionsView = Collections.unmodifiableMap(this.connections);
+        this.connectionsByType = new EnumMap<>(ClientType.class);
+        this.connectionsByTypeView = new EnumMap<>(ClientType.class);
+        for (ClientType clientType : ClientType.values()) {
+            Map<UUID, ServerConnection> typeConnections = new ConcurrentHashMap<>();
+            this.connectionsByType.put(clientType, typeConnections);
+            this.connectionsByTypeView.put(clientType, Collections.unmodifiableMap(typeConnections));
+        }
+        this.connectionsByAddress = new ConcurrentHashMap<>();
+        this.links = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Add a connection after its handshake
+     * An older connection with the same UUID and link index is replaced and closed after the registry was updated,
+     * its link was taken over, so closing it does not remove the client
+     *
+     * @param serverConnection connection to add
+     * @return true if this is the first link of the client
+     */
+    boolean add(ServerConnection serverConnection) {
+        ServerConnection replaced = null;
+        boolean firstLink;
+        synchronized (this) {
+            List<ServerConnection> clientLinks = new ArrayList<>(this.links.getOrDefault(serverConnection.getUUID(), Collections.emptyList()));
+            firstLink = clientLinks.isEmpty();
+            for (int i = 0; i < clientLinks.size(); i++) {
+                if (clientLinks.get(i).getLinkIndex() == serverConnection.getLinkIndex()) {
+                    replaced = clientLinks.remove(i);
+                    break;
+                }
+            }
+            clientLinks.add(serverConnection);
+            clientLinks.sort(Comparator.comparingInt(ServerConnection::getLinkIndex));
+            this.updateLinks(serverConnection.getUUID(), clientLinks);
+        }
+        if (replaced != null) {
+            replaced.closeConnection();
+        }
+        return firstLink;
+    }
+
+    /**
+     * Remove a closed connection
+     * Nothing is removed if the link was already taken over by a newer connection
+     *
+     * @param serverConnection connection to remove
+     * @return true if this was the last link of the client
+     */
+    synchronized boolean remove(ServerConnection serverConnection) {
+        List<ServerConnection> clientLinks = this.links.get(serverConnection.getUUID());
+        if (clientLinks != null && clientLinks.contains(serverConnection)) {
+            clientLinks = new ArrayList<>(clientLinks);
+            clientLinks.remove(serverConnection);
+            this.updateLinks(serverConnection.getUUID(), clientLinks);
+            return clientLinks.isEmpty();
+        }
+        return false;
+    }
+
+    /**
+     * Replace the links of a client and index its first link
+     *
+     * @param uuid        UUID of the client
+     * @param clientLinks new links ordered by link index
+     */
+    private void updateLinks(UUID uuid, List<ServerConnection> clientLinks) {
+        ServerConnection first = clientLinks.isEmpty() ? null : clientLinks.get(0);
+        if (first == null) {
+            this.links.remove(uuid);
+        } else {
+            this.links.put(uuid, Collections.unmodifiableList(clientLinks));
+        }
+        ServerConnection indexed = this.connections.get(uuid);
+        if (indexed == first) {
+            return;
+        } else if (indexed != null) {
+            this.removeIndexes(indexed);
+        }
+        if (first == null) {
+            this.connections.remove(uuid);
+            return;
+        }
+        this.connections.put(uuid, first);
+        this.connectionsByType.get(first.getClientType()).put(uuid, first);
+        this.connectionsByAddress.computeIfAbsent(first.getRemoteAddress(), k -> new ConcurrentHashMap<>()).put(uuid, first);
+    }
+
+    /**
+     * Move a registered connection to the index of its new ClientType
+     *
+     * @param serverConnection connection with a changed ClientType
+     */
+    synchronized void updateClientType(ServerConnection serverConnection) {
+        if (this.connections.get(serverConnection.getUUID()) == serverConnection) {
+            for (Map<UUID, ServerConnection> typeConnections : this.connectionsByType.values()) {
+                typeConnections.remove(serverConnection.getUUID(), serverConnection);
+            }
+            this.connectionsByType.get(serverConnection.getClientType()).put(serverConnection.getUUID(), serverConnection);
+        }
+    }
+
+    /**
+     * Remove a connection from the secondary indexes
+     *
+     * @param serverConnection connection to remove
+     */
+    private void removeIndexes(ServerConnection serverConnection) {
+        /* The ClientType may have changed after the connection was added */
+        for (Map<UUID, ServerConnection> typeConnections : this.connectionsByType.values()) {
+            typeConnections.remove(serverConnection.getUUID(), serverConnection);
+        }
+        Map<UUID, ServerConnection> addressConnections = this.connectionsByAddress.get(serverConnection.getRemoteAddress());
+        if (addressConnections != null) {
+            addressConnections.remove(serverConnection.getUUID(), serverConnection);
+            if (addressConnections.isEmpty()) {
+                this.connectionsByAddress.remove(serverConnection.getRemoteAddress());
+            }
+        }
+    }
+
+    /**
+     * Get a connection by the UUID of its client
+     *
+     * @param uuid UUID of the client
+     * @return ServerConnection or null
+     */
+    ServerConnection get(UUID uuid) {
+        return this.connections.get(uuid);
+    }
+
+    /**
+     * Get all links of a client
+     *
+     * @param uuid UUID of the client
+     * @return unmodifiable List of the links ordered by link index, empty if the client is not connected
+     */
+    List<ServerConnection> getLinks(UUID uuid) {
+        return this.links.getOrDefault(uuid, Collections.emptyList());
+    }
+
+    /**
+     * Get the link of a client for the packets of a channel
+     * A channel always takes the same link while the links of the client do not change, names which only differ
+     * in case are the same channel and take the same link
+     *
+     * @param uuid        UUID of the client
+     * @param channelName channel of the packets
+     * @return ServerConnection or null
+     */
+    ServerConnection getLink(UUID uuid, ChannelName channelName) {
+        List<ServerConnection> clientLinks = this.links.get(uuid);
+        if (clientLinks == null) {
+            return null;
+        }
+        return clientLinks.get((channelName.getKey().hashCode() & Integer.MAX_VALUE) % clientLinks.size());
+    }
+
+    /**
+     * Get all connections
+     *
+     * @return live unmodifiable Map of all connections
+     */
+    Map<UUID, ServerConnection> getAll() {
+        return this.connectionsView;
+    }
+
+    /**
+     * Get all connections of a ClientType
+     *
+     * @param clientType ClientType of the clients
+     * @return live unmodifiable Map of the connections
+     */
+    Map<UUID, ServerConnection> getByType(ClientType clientType) {
+        return this.connectionsByTypeView.get(clientType);
+    }
+
+    /**
+     * Get all connections from a remote address
+     *
+     * @param address remote address of the clients
+     * @return live unmodifiable Map of the connections, also for an address without clients
+     */
+    Map<UUID, ServerConnection> getByAddress(InetAddress address) {
+        return new AddressView(address);
+    }
+
+    /**
+     * Get the amount of connections
+     *
+     * @return amount of connections
+     */
+    int size() {
+        return this.connections.size();
+    }
+
+    /**
+     * Get the amount of connections of a ClientType
+     *
+     * @param clientType ClientType of the clients
+     * @return amount of connections
+     */
+    int size(ClientType clientType) {
+        return this.connectionsByType.get(clientType).size();
+    }
+
+    /**
+     * Get a snapshot of all links of all clients
+     *
+     * @return the registered connections
+     */
+    synchronized Collection<ServerConnection> getAllLinks() {
+        Collection<ServerConnection> allLinks = new ArrayList<>();
+        for (List<ServerConnection> clientLinks : this.links.values()) {
+            allLinks.addAll(clientLinks);
+        }
+        return allLinks;
+    }
+
+    /**
+     * Get a snapshot of all connections and remove them
+     *
+     * @return the removed connections
+     */
+    synchronized Collection<ServerConnection> clear() {
+        Collection<ServerConnection> removed = new ArrayList<>();
+        for (List<ServerConnection> clientLinks : this.links.values()) {
+            removed.addAll(clientLinks);
+        }
+        this.links.clear();
+        this.connections.clear();
+        for (Map<UUID, ServerConnection> typeConnections : this.connectionsByType.values()) {
+            typeConnections.clear();
+        }
+        this.connectionsByAddress.clear();
+        return removed;
+    }
+
+    private final class AddressView extends AbstractMap<UUID, ServerConnection> {
+        private final InetAddress address;
+
+        /**
+         * Live view of the connections from one remote address
+         * The index of an address is removed with its last client, so the view looks it up on every access
+         *
+         * @param address remote address of the clients
+         */
+        AddressView(InetAddress address) {
+            this.address = address;
+        }
+
+        private Map<UUID, ServerConnection> addressConnections() {
+            Map<UUID, ServerConnection> addressConnections = ConnectionRegistry.this.connectionsByAddress.get(this.address);
+            return addressConnections != null ? Collections.unmodifiableMap(addressConnections) : Collections.emptyMap();
+        }
+
+        @Override
+        public Set<Entry<UUID, ServerConnection>> entrySet() {
+            return this.addressConnections().entrySet();
+        }
+
+        @Override
+        public ServerConnection get(Object key) {
+            return this.addressConnections().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return this.addressConnections().containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return this.addressConnections().size();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.connections.server;
+
+import de.linzn.stemLink.components.IStemLinkWrapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+public class EventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long TICK_INTERVAL = 1000;
+
+    private final IStemLinkWrapper stemLinkWrapper;
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> taskQueue;
+    private final ByteBuffer readBuffer;
+    private volatile boolean running;
+    private volatile Thread thread;
+    private long lastTick;
+
+    /**
+     * Constructor for the EventLoop class
+     * One EventLoop owns the read and write readiness of many ServerConnections
+     *
+     * @param name            name of the EventLoop thread
+     * @param stemLinkWrapper the iLinkMask mask class
+     * @throws IOException if the selector could not be opened
+     */
+    EventLoop(String name, IStemLinkWrapper stemLinkWrapper) throws IOException {
+        this.name = name;
+        this.stemLinkWrapper = stemLinkWrapper;
+        this.selector = Selector.open();
+        this.taskQueue = new ConcurrentLinkedQueue<>();
+        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.running = true;
+    }
+
+    /**
+     * Execute a task in the EventLoop thread
+     *
+     * @param task Runnable to execute
+     */
+    void execute(Runnable task) {
+        this.taskQueue.add(task);
+        if (Thread.currentThread() != this.thread) {
+            this.selector.wakeup();
+        }
+    }
+
+    /**
+     * Register a ServerConnection in this EventLoop
+     *
+     * @param serverConnection ServerConnection to register
+     */
+    void register(ServerConnection serverConnection) {
+        this.execute(() -> {
+            try {
+                serverConnection.getSocketChannel().configureBlocking(false);
+                SelectionKey selectionKey = serverConnection.getSocketChannel().register(this.selector, SelectionKey.OP_READ, serverConnection);
+                serverConnection.onRegistered(selectionKey);
+            } catch (IOException e) {
+                this.stemLinkWrapper.log(e, Level.SEVERE);
+                serverConnection.closeConnection();
+            }
+        });
+    }
+
+    /**
+     * Stop this EventLoop and close all registered connections
+     */
+    void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        this.thread = Thread.currentThread();
+        this.thread.setName(this.name);
+        this.lastTick = System.currentTimeMillis();
+        while (this.running) {
+            try {
+                this.selector.select(TICK_INTERVAL);
+                this.processSelectedKeys();
+                this.runTasks();
+                this.tick();
+            } catch (IOException e) {
+                this.stemLinkWrapper.log(e, Level.SEVERE);
+            } catch (RuntimeException e) {
+                this.stemLinkWrapper.log("Unexpected error in " + this.name, Level.SEVERE);
+                this.stemLinkWrapper.log(e, Level.SEVERE);
+            }
+        }
+        for (SelectionKey selectionKey : this.selector.keys()) {
+            ((ServerConnection) selectionKey.attachment()).closeConnection();
+        }
+        try {
+            this.selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Dispatch the ready keys of the selector to their connections
+     */
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey selectionKey = iterator.next();
+            iterator.remove();
+            ServerConnection serverConnection = (ServerConnection) selectionKey.attachment();
+            if (!selectionKey.isValid()) {
+                serverConnection.closeConnection();
+                continue;
+            }
+            if (selectionKey.isReadable()) {
+                serverConnection.onReadable(this.readBuffer);
+            }
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                serverConnection.flushOutbound();
+            }
+        }
+    }
+
+    /**
+     * Run all queued tasks
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.taskQueue.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Run the periodic heartbeat and timeout checks of all connections
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastTick < TICK_INTERVAL) {
+            return;
+        }
+        this.lastTick = now;
+        for (SelectionKey selectionKey : this.selector.keys()) {
+            if (selectionKey.isValid()) {
+                ((ServerConnection) selectionKey.attachment()).onTick(now);
+            }
+        }
+    }
+}
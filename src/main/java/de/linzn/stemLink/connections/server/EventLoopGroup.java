@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2021. Niklas Linz - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the LGPLv3 license, which unfortunately won't be
+ * written for another century.
+ *
+ * You should have received a copy of the LGPLv3 license with
+ * this file. If not, please write to: niklas.linz@enigmar.de
+ *
+ */
+
+package de.linzn.stemLink.connections.server;
+
+import de.linzn.stemLink.components.IStemLinkWrapper;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventLoopGroup {
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextIndex;
+
+    /**
+     * Constructor for the EventLoopGroup class
+     * A fixed amount of EventLoops which share all connections of a StemLinkServer
+     *
+     * @param threads         amount of EventLoop threads
+     * @param stemLinkWrapper the iLinkMask mask class
+     * @throws IOException if a selector could not be opened
+     */
+    EventLoopGroup(int threads, IStemLinkWrapper stemLinkWrapper) throws IOException {
+        this.eventLoops = new EventLoop[threads];
+        this.nextIndex = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            this.eventLoops[i] = new EventLoop("StemLink-EventLoop-" + i, stemLinkWrapper);
+        }
+        for (EventLoop eventLoop : this.eventLoops) {
+            stemLinkWrapper.runThread(eventLoop);
+        }
+    }
+
+    /**
+     * Get the next EventLoop in round robin order
+     *
+     * @return EventLoop for a new connection
+     */
+    EventLoop next() {
+        return this.eventLoops[Math.abs(this.nextIndex.getAndIncrement() % this.eventLoops.length)];
+    }
+
+    /**
+     * Stop all EventLoops of this group
+     */
+    void shutdown() {
+        for (EventLoop eventLoop : this.eventLoops) {
+            eventLoop.shutdown();
+        }
+    }
+}
@@ -12,54 +12,266 @@
 package de.linzn.stemLink.connections.server;
 
 import de.linzn.stemLink.components.IStemLinkWrapper;
+import de.linzn.stemLink.components.encryption.BroadcastKey;
+import de.linzn.stemLink.components.encryption.CipherSuite;
 import de.linzn.stemLink.components.encryption.CryptContainer;
+import de.linzn.stemLink.components.encryption.DataHead;
+import de.linzn.stemLink.components.encryption.SessionTicket;
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.components.protocol.FrameHeader;
+import de.linzn.stemLink.components.protocol.OutboundFrame;
+import de.linzn.stemLink.components.protocol.OutboundQueue;
+import de.linzn.stemLink.components.protocol.StreamBody;
+import de.linzn.stemLink.components.protocol.ProtocolFeature;
 import de.linzn.stemLink.connections.AbstractConnection;
 import de.linzn.stemLink.connections.ClientType;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 public class ServerConnection extends AbstractConnection {
+    private static final long HEARTBEAT_INTERVAL = 1000 * 30;
+    private static final int MAX_READS_PER_WAKEUP = 16;
+    /* Bytes per gathering write, keeps bulk fragments from delaying frames of a higher priority */
+    private static final int MAX_WRITE_BATCH_BYTES = 256 * 1024;
+
     private final StemLinkServer stemLinkServer;
-    private boolean handshakeConfirmed;
+    private final SocketChannel socketChannel;
+    private final InetAddress remoteAddress;
+    private final EventLoop eventLoop;
+    private final OutboundQueue outboundQueue;
+    private final AtomicBoolean flushScheduled;
+    private final OutboundFrame[] writeBatch;
+    private final ByteBuffer[] writeBuffers;
+    private int writeBatchSize;
+    private SelectionKey selectionKey;
+    private ByteBuffer cumulation;
+    private DataHead pendingDataHead;
+    private Set<ProtocolFeature> negotiatedFeatures;
+    private CipherSuite negotiatedSuite;
+    private byte[] clientNonce;
+    private byte[] serverNonce;
+    private volatile long lastReadTime;
+    private long lastHeartbeatTime;
+    private volatile boolean handshakeConfirmed;
+    private volatile int linkIndex;
+    private boolean readPaused;
 
     /**
-     * Constructor for the ClientConnection class
+     * Constructor for the ServerConnection class
      *
-     * @param socket          active connected socket
+     * @param socketChannel   active connected socket channel
+     * @param eventLoop       EventLoop which owns the io of this connection
      * @param stemLinkServer  StemLinkServer of the instance
      * @param stemLinkWrapper the iLinkMask mask class
      * @param cryptContainer  the CryptContainer for encryption in the client
      */
-    ServerConnection(Socket socket, StemLinkServer stemLinkServer, IStemLinkWrapper stemLinkWrapper, CryptContainer cryptContainer) {
-        super(socket, stemLinkWrapper, cryptContainer, new UUID(0, 0), ClientType.NONE, stemLinkServer.eventBus);
+    ServerConnection(SocketChannel socketChannel, EventLoop eventLoop, StemLinkServer stemLinkServer, IStemLinkWrapper stemLinkWrapper, CryptContainer cryptContainer) {
+        super(socketChannel.socket(), stemLinkWrapper, cryptContainer, new UUID(0, 0), ClientType.NONE, stemLinkServer.eventBus, stemLinkServer.bufferPool);
         this.stemLinkServer = stemLinkServer;
+        this.socketChannel = socketChannel;
+        this.remoteAddress = socketChannel.socket().getInetAddress();
+        this.eventLoop = eventLoop;
+        this.compressionManager = stemLinkServer.compressionManager;
+        this.channelPriorities = stemLinkServer.channelPriorities;
+        this.maxMessageSize = stemLinkServer.maxMessageSize;
+        this.outboundQueue = new OutboundQueue();
+        this.flushScheduled = new AtomicBoolean(false);
+        this.writeBatch = new OutboundFrame[stemLinkServer.flushPolicy.getMaxFrames()];
+        this.writeBuffers = new ByteBuffer[this.writeBatch.length];
+        this.writeBatchSize = 0;
+        this.lastReadTime = System.currentTimeMillis();
+        this.negotiatedFeatures = Collections.emptySet();
         stemLinkWrapper.log("Initializing stemLink to client " + socket.getRemoteSocketAddress(), Level.INFO);
     }
 
+    /**
+     * Enable this connection
+     * Registers the connection in its EventLoop instead of starting a new thread
+     */
+    @Override
+    public synchronized void setEnable() {
+        this.eventLoop.register(this);
+    }
 
     @Override
     public void run() {
+        this.write_handshake("STEP-1");
+    }
+
+    /**
+     * Get the socket channel of this connection
+     *
+     * @return SocketChannel of the connection
+     */
+    SocketChannel getSocketChannel() {
+        return this.socketChannel;
+    }
+
+    /**
+     * Register the socket channel in the selector of the EventLoop
+     * Only called from the EventLoop thread
+     *
+     * @param selectionKey SelectionKey of the registered channel
+     */
+    void onRegistered(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+        this.run();
+    }
+
+    /**
+     * Read all available bytes from the socket channel and decode complete frames
+     * Only called from the EventLoop thread
+     *
+     * @param readBuffer shared read buffer of the EventLoop
+     */
+    void onReadable(ByteBuffer readBuffer) {
         try {
-            this.write_handshake("STEP-1");
+            for (int i = 0; i < MAX_READS_PER_WAKEUP && this.isValidConnection() && !this.readPaused; i++) {
+                readBuffer.clear();
+                int read = this.socketChannel.read(readBuffer);
+                if (read == -1) {
+                    this.closeConnection();
+                    return;
+                } else if (read == 0) {
+                    return;
+                }
+                this.lastReadTime = System.currentTimeMillis();
+                readBuffer.flip();
+
+                ByteBuffer source;
+                if (this.cumulation != null) {
+                    this.cumulation = ensureWritable(this.cumulation, readBuffer.remaining());
+                    this.cumulation.put(readBuffer);
+                    this.cumulation.flip();
+                    source = this.cumulation;
+                } else {
+                    source = readBuffer;
+                }
+
+                this.decodeFrames(source);
 
-            while (!this.stemLinkServer.server.isClosed() && this.isValidConnection() && !this.handshakeConfirmed) {
-                this.read_handshake();
+                if (!source.hasRemaining()) {
+                    this.cumulation = null;
+                } else if (source == this.cumulation) {
+                    this.cumulation.compact();
+                } else {
+                    this.cumulation = ByteBuffer.allocate(Math.max(source.remaining(), 4096));
+                    this.cumulation.put(source);
+                }
             }
+        } catch (IOException e) {
+            this.closeConnection();
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
+            stemLinkWrapper.log("Encryption Error! Closing connection", Level.SEVERE);
+            stemLinkWrapper.log(e, Level.SEVERE);
+            this.closeConnection();
+        }
+    }
 
-            if (this.handshakeConfirmed) {
-                this.call_connect();
-                this.stemLinkWrapper.runThread(this::requestKeepALiveHeartbeat);
-                while (!this.stemLinkServer.server.isClosed() && this.isValidConnection()) {
-                    this.readInput();
+    /**
+     * Decode all complete frames in the buffer
+     * Incomplete frames are left in the buffer until more bytes arrive
+     * Frames are decrypted directly from the backing array of the heap buffer
+     *
+     * @param buffer heap buffer in read mode
+     */
+    private void decodeFrames(ByteBuffer buffer) throws IOException, IllegalBlockSizeException, BadPaddingException {
+        while (this.isValidConnection() && !this.readPaused) {
+            if (this.handshakeConfirmed && this.protocolFeatures.contains(ProtocolFeature.FRAME_V2)) {
+                if (buffer.remaining() < FrameHeader.LENGTH_SIZE) {
+                    return;
+                }
+                int frameLength = FrameHeader.checkFrameLength(buffer.getInt(buffer.position()), this.maxFrameLength());
+                if (buffer.remaining() < FrameHeader.LENGTH_SIZE + frameLength) {
+                    return;
+                }
+                int frameOffset = buffer.position() + FrameHeader.LENGTH_SIZE;
+                buffer.position(frameOffset + frameLength);
+                this.handle_frame(buffer.array(), buffer.arrayOffset() + frameOffset, frameLength);
+            } else if (this.pendingDataHead == null) {
+                if (buffer.remaining() < 2) {
+                    return;
                 }
+                int length = buffer.getShort(buffer.position()) & 0xFFFF;
+                if (buffer.remaining() < 2 + length) {
+                    return;
+                }
+                int valueOffset = buffer.position() + 2;
+                buffer.position(valueOffset + length);
+                String value = new String(this.cryptManager.decryptFinal(buffer.array(), buffer.arrayOffset() + valueOffset, length));
+
+                if (!this.handshakeConfirmed) {
+                    this.handle_handshake(value);
+                } else {
+                    this.pendingDataHead = DataHead.fromString(value);
+                    this.checkDataSize(this.pendingDataHead.getDataSize());
+                }
+            } else {
+                int dataSize = this.pendingDataHead.getDataSize();
+                if (buffer.remaining() < dataSize) {
+                    return;
+                }
+                int dataOffset = buffer.position();
+                buffer.position(dataOffset + dataSize);
+                String headerChannel = this.pendingDataHead.getHeader();
+                this.pendingDataHead = null;
+                this.handle_data(ChannelName.of(headerChannel), this.cryptManager.decryptFinal(buffer.array(), buffer.arrayOffset() + dataOffset, dataSize));
             }
-        } catch (IOException e2) {
+        }
+    }
+
+    /**
+     * Stop reading this connection until the handler consumed a part of the stream body
+     * The EventLoop keeps serving all other connections
+     * Only called from the EventLoop thread
+     *
+     * @param streamBody full StreamBody
+     */
+    @Override
+    protected void handle_stream_backpressure(StreamBody streamBody) {
+        this.readPaused = true;
+        this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_READ);
+        streamBody.onWritable(() -> this.eventLoop.execute(this::resumeReading));
+    }
+
+    /**
+     * Decode the frames which arrived behind a full stream body and continue reading
+     * Only called from the EventLoop thread
+     */
+    private void resumeReading() {
+        if (!this.readPaused || this.selectionKey == null || !this.selectionKey.isValid()) {
+            return;
+        }
+        this.readPaused = false;
+        try {
+            if (this.cumulation != null) {
+                this.cumulation.flip();
+                this.decodeFrames(this.cumulation);
+                if (!this.cumulation.hasRemaining()) {
+                    this.cumulation = null;
+                } else {
+                    this.cumulation.compact();
+                }
+            }
+            if (!this.readPaused) {
+                this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
             this.closeConnection();
         } catch (IllegalBlockSizeException | BadPaddingException e) {
             stemLinkWrapper.log("Encryption Error! Closing connection", Level.SEVERE);
@@ -68,40 +280,285 @@ public class ServerConnection extends AbstractConnection {
         }
     }
 
+    /**
+     * Ensure the buffer can take the given amount of bytes
+     *
+     * @param buffer    buffer in write mode
+     * @param writeSize amount of bytes to write
+     * @return the same buffer or a bigger copy of it
+     */
+    private static ByteBuffer ensureWritable(ByteBuffer buffer, int writeSize) {
+        if (buffer.remaining() >= writeSize) {
+            return buffer;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + writeSize));
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    /**
+     * Queue a frame for the EventLoop which writes it as soon as the channel is writable
+     * The frame is completed by the EventLoop after it was written
+     *
+     * @param frame Encoded frame
+     */
+    @Override
+    protected void writeFrame(OutboundFrame frame) {
+        if (!this.socketChannel.isOpen()) {
+            frame.fail(new IOException("Connection is closed"));
+            return;
+        }
+        this.outboundQueue.add(frame);
+        if (this.flushScheduled.compareAndSet(false, true)) {
+            this.eventLoop.execute(this::flushOutbound);
+        }
+    }
+
+    /**
+     * Queue the frames of one packet for the EventLoop
+     *
+     * @param frames Encoded frames with the same priority
+     */
+    @Override
+    protected void writeFrames(List<OutboundFrame> frames) {
+        if (!this.socketChannel.isOpen()) {
+            IOException cause = new IOException("Connection is closed");
+            for (OutboundFrame frame : frames) {
+                frame.fail(cause);
+            }
+            return;
+        }
+        this.outboundQueue.addAll(frames);
+        if (this.flushScheduled.compareAndSet(false, true)) {
+            this.eventLoop.execute(this::flushOutbound);
+        }
+    }
+
+    /**
+     * Get the address of the connected client
+     *
+     * @return remote InetAddress
+     */
+    public InetAddress getRemoteAddress() {
+        return this.remoteAddress;
+    }
+
+    /**
+     * Get the index of this link of the client
+     * Clients with a ClientConnectionPool connect several links with the same UUID
+     *
+     * @return link index, 0 for a single connection
+     */
+    public int getLinkIndex() {
+        return this.linkIndex;
+    }
+
+    /**
+     * Update client type of the connection
+     * A connected client is moved to the index of its new ClientType
+     *
+     * @param clientType new client type to update
+     */
+    @Override
+    public void updateClientType(ClientType clientType) {
+        super.updateClientType(clientType);
+        this.stemLinkServer.stemLinks.updateClientType(this);
+    }
+
+    /**
+     * Queue a packet of a broadcast without blocking
+     *
+     * @param channelName  ChannelName of this packet
+     * @param bytes        Bytes to send to the client
+     * @param sharedFrames encoded frames of the broadcast by the suite and features they were encoded for
+     * @return true if the packet was queued, false if the client is closed or its send buffer is full
+     */
+    boolean writeBroadcast(ChannelName channelName, byte[] bytes, Map<List<Object>, List<ByteBuffer>> sharedFrames) {
+        return this.writeSharedOutput(channelName, bytes, sharedFrames);
+    }
+
+    /**
+     * Check if this client can get the shared frames of a broadcast
+     *
+     * @return false if the client encrypts a broadcast with its own session keys because it has no broadcast key
+     */
+    boolean isSharedBroadcast() {
+        return this.canShareFrames();
+    }
+
+    /**
+     * Write queued frames until the queue is empty or the socket buffer is full
+     * Pending frames are packed into one gathering write of up to maxFrames buffers in priority order
+     * Only called from the EventLoop thread
+     */
+    void flushOutbound() {
+        this.flushScheduled.set(false);
+        if (this.selectionKey == null || !this.selectionKey.isValid()) {
+            this.releaseOutbound();
+            return;
+        }
+        try {
+            while (true) {
+                OutboundFrame frame;
+                long batchBytes = 0;
+                for (int i = 0; i < this.writeBatchSize; i++) {
+                    batchBytes += this.writeBuffers[i].remaining();
+                }
+                while (this.writeBatchSize < this.writeBatch.length && batchBytes < MAX_WRITE_BATCH_BYTES && (frame = this.outboundQueue.poll()) != null) {
+                    this.writeBatch[this.writeBatchSize] = frame;
+                    this.writeBuffers[this.writeBatchSize] = frame.buffer();
+                    batchBytes += frame.buffer().remaining();
+                    this.writeBatchSize++;
+                }
+                if (this.writeBatchSize == 0) {
+                    this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+                this.socketChannel.write(this.writeBuffers, 0, this.writeBatchSize);
+                if (this.releaseWritten() > 0) {
+                    /* Socket buffer is full, continue when the channel is writable again */
+                    this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            this.closeConnection();
+        }
+    }
+
+    /**
+     * Release the completely written frames of the write batch and move the rest to its front
+     *
+     * @return amount of frames which are not completely written
+     */
+    private int releaseWritten() {
+        int written = 0;
+        while (written < this.writeBatchSize && !this.writeBuffers[written].hasRemaining()) {
+            this.writeBatch[written].releaseBuffer();
+            this.writeBatch[written].complete();
+            written++;
+        }
+        int remaining = this.writeBatchSize - written;
+        System.arraycopy(this.writeBatch, written, this.writeBatch, 0, remaining);
+        System.arraycopy(this.writeBuffers, written, this.writeBuffers, 0, remaining);
+        for (int i = remaining; i < this.writeBatchSize; i++) {
+            this.writeBatch[i] = null;
+            this.writeBuffers[i] = null;
+        }
+        this.writeBatchSize = remaining;
+        return remaining;
+    }
+
+    /**
+     * Release all queued frames of a closed connection
+     * Only called from the EventLoop thread
+     */
+    private void releaseOutbound() {
+        IOException cause = new IOException("Connection is closed");
+        for (int i = 0; i < this.writeBatchSize; i++) {
+            this.writeBatch[i].fail(cause);
+            this.writeBatch[i] = null;
+            this.writeBuffers[i] = null;
+        }
+        this.writeBatchSize = 0;
+        OutboundFrame frame;
+        while ((frame = this.outboundQueue.poll()) != null) {
+            frame.fail(cause);
+        }
+    }
+
+    /**
+     * Periodic check of heartbeat and idle timeout
+     * Only called from the EventLoop thread
+     *
+     * @param now current time in millis
+     */
+    void onTick(long now) {
+        if (now - this.lastReadTime > this.so_timeout) {
+            stemLinkWrapper.log("Stemlink read timeout from remote " + this.socket.getRemoteSocketAddress(), Level.FINE);
+            this.closeConnection();
+        } else if (this.handshakeConfirmed && now - this.lastHeartbeatTime >= HEARTBEAT_INTERVAL) {
+            this.lastHeartbeatTime = now;
+            this.sendKeepALiveHeartbeat();
+        }
+    }
+
     /**
      * Close this connection
      */
     @Override
     public synchronized void closeConnection() {
-        if (!this.socket.isClosed()) {
+        if (this.socketChannel.isOpen()) {
             try {
-                this.socket.close();
+                this.socketChannel.close();
             } catch (IOException ignored) {
             }
+            this.eventLoop.execute(this::releaseOutbound);
+            this.close_streams();
+            this.close_requests();
+            boolean lastLink = this.stemLinkServer.stemLinks.remove(this);
             if (this.handshakeConfirmed) {
-                this.call_disconnect();
+                this.call_disconnect(this.linkIndex, lastLink);
             }
-            this.stemLinkServer.stemLinks.remove(this.uuid);
         }
     }
 
     @Override
-    protected void read_handshake() throws IOException, IllegalBlockSizeException, BadPaddingException {
-        BufferedInputStream bInStream = new BufferedInputStream(this.socket.getInputStream());
-        DataInputStream dataInput = new DataInputStream(bInStream);
-        String value = new String(this.cryptManager.decryptFinal(dataInput.readUTF().getBytes()));
-
+    protected void handle_handshake(String value) {
         if (value.split("_")[0].equalsIgnoreCase("CLIENT-HANDSHAKE-2")) {
             this.handshakeConfirmed = false;
             UUID clientUUID = UUID.fromString(value.split("_")[1]);
             ClientType clientType = ClientType.valueOf(value.split("_")[2]);
             this.updateUUID(clientUUID);
             this.updateClientType(clientType);
+            /* Old clients send no feature list and keep the legacy format */
+            String[] values = value.split("_");
+            this.negotiatedFeatures = ProtocolFeature.negotiate(ProtocolFeature.fromTokens(values.length > 4 ? values[4] : null));
+            if (this.negotiatedFeatures.contains(ProtocolFeature.CIPHER_SUITES)) {
+                this.negotiatedSuite = CipherSuite.select(this.stemLinkServer.cipherSuites, CipherSuite.fromTokens(values.length > 5 ? values[5] : null));
+                if (this.negotiatedSuite == null || values.length < 7) {
+                    this.stemLinkWrapper.log("Server::No common cipher suite with client", Level.SEVERE);
+                    this.write_handshake("STEP-CANCEL");
+                    this.closeConnection();
+                    return;
+                }
+                this.clientNonce = CipherSuite.fromHex(values[6]);
+                this.serverNonce = CipherSuite.randomNonce();
+            }
+            /* Old clients send no link index */
+            try {
+                this.linkIndex = this.negotiatedFeatures.contains(ProtocolFeature.LINKS) && values.length > 7 ? Integer.parseInt(values[7]) : 0;
+            } catch (NumberFormatException e) {
+                this.linkIndex = -1;
+            }
+            if (this.linkIndex < 0) {
+                this.stemLinkWrapper.log("Server::Invalid link index from client", Level.SEVERE);
+                this.write_handshake("STEP-CANCEL");
+                this.closeConnection();
+                return;
+            }
             this.write_handshake("STEP-CONFIRM");
         }else if (value.split("_")[0].equalsIgnoreCase("CLIENT-HANDSHAKE-COMPLETE-CONFIRM")) {
-            this.handshakeConfirmed = true;
-            this.stemLinkServer.stemLinks.put(this.uuid, this);
-            this.stemLinkWrapper.log("Server::Handshake complete", Level.FINE);
+            this.completeHandshake();
+        } else if (value.split("_")[0].equalsIgnoreCase("CLIENT-HANDSHAKE-RESUME")) {
+            this.handshakeConfirmed = false;
+            String[] values = value.split("_");
+            SessionTicket sessionTicket = this.openSessionTicket(values);
+            if (sessionTicket == null) {
+                /* The client falls back to the full handshake */
+                this.write_handshake("STEP-RESUME-REJECT");
+                return;
+            }
+            this.updateUUID(sessionTicket.getUUID());
+            this.updateClientType(sessionTicket.getClientType());
+            this.negotiatedFeatures = ProtocolFeature.negotiate(sessionTicket.getFeatures());
+            this.negotiatedSuite = sessionTicket.getCipherSuite();
+            this.linkIndex = sessionTicket.getLinkIndex();
+            this.clientNonce = CipherSuite.fromHex(values[3]);
+            this.serverNonce = CipherSuite.randomNonce();
+            this.write_handshake("STEP-RESUME");
+            this.completeHandshake();
         } else if (value.split("_")[0].equalsIgnoreCase("CLIENT-HANDSHAKE-CANCEL")) {
             this.handshakeConfirmed = false;
             this.stemLinkWrapper.log("Server::Cancel handshake process", Level.WARNING);
@@ -109,6 +566,112 @@ public class ServerConnection extends AbstractConnection {
         }
     }
 
+    /**
+     * Switch to the negotiated cipher suite and features and register the client
+     * Called after the confirmation of the full handshake or directly after a resumed session
+     */
+    private void completeHandshake() {
+        if (this.negotiatedSuite != null) {
+            try {
+                this.cryptManager.setCipherSuite(this.negotiatedSuite, this.clientNonce, this.serverNonce, false);
+                if (this.hasBroadcastKey()) {
+                    this.cryptManager.setBroadcastCipher(this.stemLinkServer.broadcastKey.getSendCipher(this.negotiatedSuite));
+                }
+            } catch (GeneralSecurityException e) {
+                this.stemLinkWrapper.log(e, Level.SEVERE);
+                this.closeConnection();
+                return;
+            }
+            this.stemLinkWrapper.log("Server::Using cipher suite " + this.negotiatedSuite, Level.FINE);
+        }
+        this.protocolFeatures = this.negotiatedFeatures;
+        this.handshakeConfirmed = true;
+        this.lastHeartbeatTime = System.currentTimeMillis();
+        boolean firstLink = this.stemLinkServer.stemLinks.add(this);
+        this.stemLinkWrapper.log("Server::Handshake complete", Level.FINE);
+        this.sendSessionTicket();
+        this.call_connect(this.linkIndex, firstLink);
+    }
+
+    /**
+     * Check if the client gets the broadcast key of the negotiated suite
+     *
+     * @return true if the client supports shared broadcast frames of a suite with session keys
+     */
+    private boolean hasBroadcastKey() {
+        return this.negotiatedSuite != null && this.negotiatedSuite != CipherSuite.AES_CBC && this.negotiatedFeatures.contains(ProtocolFeature.BROADCAST);
+    }
+
+    /**
+     * Get the handshake values of the broadcast key for the client
+     * The floors are read before the client is registered, so every broadcast frame it gets is sealed above them
+     *
+     * @return broadcast nonce and floors with leading separators or an empty String
+     */
+    private String broadcastKeyValues() {
+        if (!this.hasBroadcastKey()) {
+            return "";
+        }
+        try {
+            BroadcastKey broadcastKey = this.stemLinkServer.broadcastKey;
+            return "_" + CipherSuite.toHex(broadcastKey.getNonce()) + "_" + BroadcastKey.toFloors(broadcastKey.getFloors(this.negotiatedSuite));
+        } catch (GeneralSecurityException e) {
+            this.stemLinkWrapper.log(e, Level.SEVERE);
+            return "";
+        }
+    }
+
+    /**
+     * Open and validate the session ticket of a resume request
+     *
+     * @param values split handshake value with ticket and client nonce
+     * @return the valid SessionTicket or null if the client has to do the full handshake
+     */
+    private SessionTicket openSessionTicket(String[] values) {
+        long lifetime = this.stemLinkServer.sessionTicketLifetime;
+        if (lifetime <= 0 || values.length < 4) {
+            return null;
+        }
+        SessionTicket sessionTicket;
+        try {
+            sessionTicket = SessionTicket.open(this.stemLinkServer.cryptContainer.getKey(), CipherSuite.fromHex(values[2]));
+            /* Validate the client nonce before any state of the connection changes */
+            CipherSuite.fromHex(values[3]);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            this.stemLinkWrapper.log("Server::Invalid session ticket from client", Level.WARNING);
+            return null;
+        }
+        if (sessionTicket.isExpired(lifetime)) {
+            this.stemLinkWrapper.log("Server::Expired session ticket from client", Level.FINE);
+            return null;
+        }
+        Set<ProtocolFeature> features = ProtocolFeature.negotiate(sessionTicket.getFeatures());
+        if (features.contains(ProtocolFeature.CIPHER_SUITES) && (sessionTicket.getCipherSuite() == null || !this.stemLinkServer.cipherSuites.contains(sessionTicket.getCipherSuite()))) {
+            this.stemLinkWrapper.log("Server::Cipher suite of session ticket is not allowed anymore", Level.FINE);
+            return null;
+        }
+        if (sessionTicket.getLinkIndex() < 0 || sessionTicket.getLinkIndex() > 0 && !features.contains(ProtocolFeature.LINKS)) {
+            return null;
+        }
+        return sessionTicket;
+    }
+
+    /**
+     * Hand a new session ticket to the client after the handshake
+     * The client uses it to resume this session after a reconnect
+     */
+    private void sendSessionTicket() {
+        if (this.stemLinkServer.sessionTicketLifetime <= 0 || !this.protocolFeatures.contains(ProtocolFeature.RESUME)) {
+            return;
+        }
+        try {
+            SessionTicket sessionTicket = new SessionTicket(this.uuid, this.clientType, this.linkIndex, this.protocolFeatures, this.negotiatedSuite, System.currentTimeMillis());
+            this.writeOutput(SessionTicket.CHANNEL, sessionTicket.seal(this.stemLinkServer.cryptContainer.getKey()));
+        } catch (GeneralSecurityException e) {
+            this.stemLinkWrapper.log(e, Level.SEVERE);
+        }
+    }
+
     @Override
     protected void write_handshake(String step) {
         long randomValue = new Date().getTime();
@@ -116,6 +679,10 @@ public class ServerConnection extends AbstractConnection {
 
         if (step.equalsIgnoreCase("STEP-1")) {
             value = "SERVER-HANDSHAKE-1_" + randomValue;
+            /* Clients with a session ticket only wait for the resume answer if the server announces it */
+            if (this.stemLinkServer.sessionTicketLifetime > 0) {
+                value += "_" + ProtocolFeature.RESUME.getToken();
+            }
             this.stemLinkWrapper.log("Server::Start handshake process", Level.FINE);
 
         }else if (step.equalsIgnoreCase("STEP-2")) {
@@ -123,29 +690,30 @@ public class ServerConnection extends AbstractConnection {
             this.stemLinkWrapper.log("Server::Set new encryption level", Level.FINE);
 
         } else if (step.equalsIgnoreCase("STEP-CONFIRM")) {
-            value = "SERVER-HANDSHAKE-COMPLETE_" + randomValue;
+            value = "SERVER-HANDSHAKE-COMPLETE_" + randomValue + "_" + ProtocolFeature.toTokens(this.negotiatedFeatures);
+            if (this.negotiatedSuite != null) {
+                value += "_" + this.negotiatedSuite.getToken() + "_" + CipherSuite.toHex(this.serverNonce) + this.broadcastKeyValues();
+            }
             this.stemLinkWrapper.log("Server::Finishing handshake process to client", Level.FINE);
 
+        } else if (step.equalsIgnoreCase("STEP-RESUME")) {
+            value = "SERVER-HANDSHAKE-RESUMED_" + randomValue + "_" + ProtocolFeature.toTokens(this.negotiatedFeatures);
+            if (this.negotiatedSuite != null) {
+                value += "_" + this.negotiatedSuite.getToken() + "_" + CipherSuite.toHex(this.serverNonce) + this.broadcastKeyValues();
+            }
+            this.stemLinkWrapper.log("Server::Resuming session of client", Level.FINE);
+
+        } else if (step.equalsIgnoreCase("STEP-RESUME-REJECT")) {
+            value = "SERVER-HANDSHAKE-RESUME-REJECT_" + randomValue;
+            this.stemLinkWrapper.log("Server::Reject session ticket of client", Level.FINE);
+
         } else {
             this.handshakeConfirmed = false;
             value = "SERVER-HANDSHAKE-CANCEL_" + randomValue;
             this.stemLinkWrapper.log("Server::Cancel handshake process", Level.FINE);
         }
 
-        if (this.isValidConnection()) {
-            try {
-                BufferedOutputStream bOutStream = new BufferedOutputStream(this.socket.getOutputStream());
-                DataOutputStream dataOut = new DataOutputStream(bOutStream);
-
-                dataOut.writeUTF(new String(this.cryptManager.encryptFinal(value.getBytes())));
-
-                bOutStream.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } else {
-            stemLinkWrapper.log("Handshake failed on STEP: " + step, Level.SEVERE);
-        }
+        this.send_handshake(step, value);
     }
 
 }
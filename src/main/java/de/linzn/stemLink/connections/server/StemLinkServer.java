@@ -12,28 +12,62 @@
 package de.linzn.stemLink.connections.server;
 
 import de.linzn.stemLink.components.IStemLinkWrapper;
+import de.linzn.stemLink.components.buffer.BufferPool;
+import de.linzn.stemLink.components.compression.CompressionManager;
+import de.linzn.stemLink.components.encryption.BroadcastKey;
+import de.linzn.stemLink.components.encryption.CipherSuite;
 import de.linzn.stemLink.components.encryption.CryptContainer;
+import de.linzn.stemLink.components.encryption.SessionTicket;
 import de.linzn.stemLink.components.events.handler.EventBus;
+import de.linzn.stemLink.components.protocol.ChannelName;
+import de.linzn.stemLink.components.protocol.ChannelPriorities;
+import de.linzn.stemLink.components.protocol.FlushPolicy;
+import de.linzn.stemLink.connections.AbstractConnection;
 import de.linzn.stemLink.connections.ClientType;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 
 public class StemLinkServer implements Runnable {
+    /* Clients of one broadcast which may encrypt it separately before it is logged, only clients without the broadcast key do */
+    private static final int SEPARATE_BROADCAST_WARNING = 8;
+
     private final IStemLinkWrapper stemLinkWrapper;
     private final String host;
     private final int port;
-    private final CryptContainer cryptContainer;
-    ServerSocket server;
-    Map<UUID, ServerConnection> stemLinks;
+    final CryptContainer cryptContainer;
+    final BroadcastKey broadcastKey;
+    private final int eventLoopThreads;
+    private Selector acceptSelector;
+    private EventLoopGroup eventLoopGroup;
+    ServerSocketChannel server;
+    final ConnectionRegistry stemLinks;
     EventBus eventBus;
+    BufferPool bufferPool;
+    private final AtomicBoolean separateBroadcastLogged;
+    volatile List<CipherSuite> cipherSuites;
+    volatile FlushPolicy flushPolicy;
+    volatile long sessionTicketLifetime;
+    volatile int maxMessageSize;
+    final CompressionManager compressionManager;
+    final ChannelPriorities channelPriorities;
 
     /**
      * Constructor for the StemLinkServer class
@@ -44,12 +78,49 @@ public class StemLinkServer implements Runnable {
      * @param cryptContainer  the CryptContainer for encryption in the client
      */
     public StemLinkServer(String host, int port, IStemLinkWrapper stemLinkWrapper, CryptContainer cryptContainer) {
+        this(host, port, stemLinkWrapper, cryptContainer, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Constructor for the StemLinkServer class
+     *
+     * @param host             hostname to bind the server
+     * @param port             port the bind the server
+     * @param stemLinkWrapper  the ILinkMask mask class
+     * @param cryptContainer   the CryptContainer for encryption in the client
+     * @param eventLoopThreads amount of EventLoop threads for the client connections
+     */
+    public StemLinkServer(String host, int port, IStemLinkWrapper stemLinkWrapper, CryptContainer cryptContainer, int eventLoopThreads) {
+        this(host, port, stemLinkWrapper, cryptContainer, eventLoopThreads, false);
+    }
+
+    /**
+     * Constructor for the StemLinkServer class
+     *
+     * @param host             hostname to bind the server
+     * @param port             port the bind the server
+     * @param stemLinkWrapper  the ILinkMask mask class
+     * @param cryptContainer   the CryptContainer for encryption in the client
+     * @param eventLoopThreads amount of EventLoop threads for the client connections
+     * @param directBuffers    use off heap buffers for outgoing frames
+     */
+    public StemLinkServer(String host, int port, IStemLinkWrapper stemLinkWrapper, CryptContainer cryptContainer, int eventLoopThreads, boolean directBuffers) {
         this.host = host;
         this.port = port;
+        this.eventLoopThreads = Math.max(1, eventLoopThreads);
         this.stemLinkWrapper = stemLinkWrapper;
-        this.stemLinks = new HashMap<>();
+        this.stemLinks = new ConnectionRegistry();
         this.cryptContainer = cryptContainer;
+        this.broadcastKey = new BroadcastKey(cryptContainer);
         this.eventBus = new EventBus(stemLinkWrapper);
+        this.bufferPool = new BufferPool(stemLinkWrapper, directBuffers);
+        this.cipherSuites = CipherSuite.defaultSuites();
+        this.sessionTicketLifetime = SessionTicket.DEFAULT_LIFETIME;
+        this.maxMessageSize = AbstractConnection.DEFAULT_MAX_MESSAGE_SIZE;
+        this.separateBroadcastLogged = new AtomicBoolean(false);
+        this.flushPolicy = FlushPolicy.DEFAULT;
+        this.compressionManager = new CompressionManager();
+        this.channelPriorities = new ChannelPriorities();
         stemLinkWrapper.log("Initializing stemLink-server on " + this.host + ":" + this.port, Level.INFO);
     }
 
@@ -58,8 +129,12 @@ public class StemLinkServer implements Runnable {
      */
     public void openServer() {
         try {
-            this.server = new ServerSocket();
+            this.eventLoopGroup = new EventLoopGroup(this.eventLoopThreads, this.stemLinkWrapper);
+            this.acceptSelector = Selector.open();
+            this.server = ServerSocketChannel.open();
             this.server.bind(new InetSocketAddress(this.host, this.port));
+            this.server.configureBlocking(false);
+            this.server.register(this.acceptSelector, SelectionKey.OP_ACCEPT);
             this.stemLinkWrapper.runThread(this);
         } catch (IOException e) {
             e.printStackTrace();
@@ -72,11 +147,15 @@ public class StemLinkServer implements Runnable {
     public void closeServer() {
         try {
             this.server.close();
-            ArrayList<UUID> uuidList = new ArrayList<>(this.stemLinks.keySet());
-            for (UUID uuid : uuidList) {
-                this.stemLinks.get(uuid).setDisable();
+            this.acceptSelector.wakeup();
+            /* Closed while registered, so the last link of every client triggers its disconnect event */
+            for (ServerConnection serverConnection : this.stemLinks.getAllLinks()) {
+                serverConnection.setDisable();
+            }
+            for (ServerConnection serverConnection : this.stemLinks.clear()) {
+                serverConnection.setDisable();
             }
-            this.stemLinks.clear();
+            this.eventLoopGroup.shutdown();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -87,18 +166,26 @@ public class StemLinkServer implements Runnable {
         Thread.currentThread().setName("StemLink");
         do {
             try {
-                Socket socket = this.server.accept();
-                socket.setTcpNoDelay(true);
-                ServerConnection serverConnection = new ServerConnection(socket, this, this.stemLinkWrapper, this.cryptContainer);
-                serverConnection.setEnable();
+                this.acceptSelector.select();
+                this.acceptSelector.selectedKeys().clear();
+                SocketChannel socketChannel;
+                while ((socketChannel = this.server.accept()) != null) {
+                    socketChannel.socket().setTcpNoDelay(true);
+                    ServerConnection serverConnection = new ServerConnection(socketChannel, this.eventLoopGroup.next(), this, this.stemLinkWrapper, this.cryptContainer);
+                    serverConnection.setEnable();
+                }
             } catch (IOException e) {
                 stemLinkWrapper.log("Connection already closed!", Level.SEVERE);
             }
-        } while (!this.server.isClosed());
+        } while (this.server.isOpen());
+        try {
+            this.acceptSelector.close();
+        } catch (IOException ignored) {
+        }
     }
 
     public boolean isOnline() {
-        return !this.server.isClosed();
+        return this.server.isOpen();
     }
 
     /**
@@ -111,13 +198,37 @@ public class StemLinkServer implements Runnable {
         return this.stemLinks.get(uuid);
     }
 
+    /**
+     * Get the link of a client for the packets of a channel
+     * Clients with several links get the packets of one channel over the same link, so they keep their order
+     *
+     * @param uuid          UUID of the wanted client
+     * @param headerChannel channel of the packets
+     * @return Returns the link for the channel if the client exist otherwise null
+     */
+    public ServerConnection getClient(UUID uuid, String headerChannel) {
+        return this.stemLinks.getLink(uuid, ChannelName.of(headerChannel));
+    }
+
+    /**
+     * Get all links of a client
+     * A client with one connection has one link, the first link is the one returned by getClient
+     *
+     * @param uuid UUID of the wanted client
+     * @return unmodifiable List of the links ordered by link index, empty if the client is not connected
+     */
+    public List<ServerConnection> getClientLinks(UUID uuid) {
+        return this.stemLinks.getLinks(uuid);
+    }
+
     /**
      * Get all clientConnections
+     * The Map is a live view which is not copied, it changes while clients connect and disconnect
      *
-     * @return Returns HashMap of all client connections
+     * @return Returns unmodifiable Map of all client connections
      */
     public Map<UUID, ServerConnection> getClients() {
-        return this.stemLinks;
+        return this.stemLinks.getAll();
     }
 
 
@@ -127,7 +238,7 @@ public class StemLinkServer implements Runnable {
      * @return Amount of connected clients
      */
     public int getAmountOfClients() {
-        return this.getClients().size();
+        return this.stemLinks.size();
     }
 
     /**
@@ -137,24 +248,235 @@ public class StemLinkServer implements Runnable {
      * @return Amount of connected clients of the given ClientType
      */
     public int getAmountOfClientsByType(ClientType clientType) {
-        return this.getClientsByType(clientType).size();
+        return this.stemLinks.size(clientType);
     }
 
     /**
      * Get all clients with the given ClientType
+     * The Map is a live view which is not copied, it changes while clients connect and disconnect
      *
      * @param clientType ClientType to get all clients for it
-     * @return Client of the given ClientType
+     * @return Unmodifiable Map of the clients of the given ClientType
      */
     public Map<UUID, ServerConnection> getClientsByType(ClientType clientType) {
-        Map<UUID, ServerConnection> clientsOfType = new HashMap<>();
-        for (UUID uuid : this.stemLinks.keySet()) {
-            ServerConnection serverConnection = this.stemLinks.get(uuid);
-            if (serverConnection.getClientType() == clientType) {
-                clientsOfType.put(uuid, serverConnection);
+        return this.stemLinks.getByType(clientType);
+    }
+
+    /**
+     * Get all clients connected from a remote address
+     * The Map is a live view which is not copied, it changes while clients connect and disconnect
+     *
+     * @param address remote address of the clients
+     * @return Unmodifiable Map of the clients from the given address
+     */
+    public Map<UUID, ServerConnection> getClientsByAddress(InetAddress address) {
+        return this.stemLinks.getByAddress(address);
+    }
+
+    /**
+     * Send a packet to all clients
+     *
+     * @param headerChannel Channel header for this packet
+     * @param bytes         Bytes to send to the clients
+     * @return amount of clients the packet was queued for
+     * @see #broadcast(Predicate, String, byte[])
+     */
+    public int broadcast(String headerChannel, byte[] bytes) {
+        return this.broadcast(this.stemLinks.getAll().values(), ChannelName.of(headerChannel), bytes);
+    }
+
+    /**
+     * Send a packet to all clients of a ClientType
+     *
+     * @param clientType    ClientType of the receiving clients
+     * @param headerChannel Channel header for this packet
+     * @param bytes         Bytes to send to the clients
+     * @return amount of clients the packet was queued for
+     * @see #broadcast(Predicate, String, byte[])
+     */
+    public int broadcast(ClientType clientType, String headerChannel, byte[] bytes) {
+        return this.broadcast(this.stemLinks.getByType(clientType).values(), ChannelName.of(headerChannel), bytes);
+    }
+
+    /**
+     * Send a packet to a set of clients
+     *
+     * @param uuids         UUIDs of the receiving clients, unknown UUIDs are ignored
+     * @param headerChannel Channel header for this packet
+     * @param bytes         Bytes to send to the clients
+     * @return amount of clients the packet was queued for
+     * @see #broadcast(Predicate, String, byte[])
+     */
+    public int multicast(Collection<UUID> uuids, String headerChannel, byte[] bytes) {
+        ChannelName channelName = ChannelName.of(headerChannel);
+        List<ServerConnection> links = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            ServerConnection link = this.stemLinks.getLink(uuid, channelName);
+            if (link != null) {
+                links.add(link);
+            }
+        }
+        return this.writeBroadcast(links, channelName, bytes);
+    }
+
+    /**
+     * Send a packet to all clients which match a filter
+     * The packet is only encrypted once for all clients which use legacy frames or the static AES_CBC cipher of the
+     * CryptContainer, and once per suite for all clients of a negotiated suite like the default AES_GCM, which get
+     * frames sealed with the broadcast key of the server. Clients with a negotiated cipher suite but without support
+     * for the broadcast key encrypt the packet separately. The calling thread never blocks, clients which are closed
+     * or have a full send buffer because they do not read fast enough are skipped.
+     *
+     * @param filter        filter of the receiving clients
+     * @param headerChannel Channel header for this packet
+     * @param bytes         Bytes to send to the clients
+     * @return amount of clients the packet was queued for
+     */
+    public int broadcast(Predicate<ServerConnection> filter, String headerChannel, byte[] bytes) {
+        ChannelName channelName = ChannelName.of(headerChannel);
+        List<ServerConnection> links = new ArrayList<>();
+        for (ServerConnection serverConnection : this.stemLinks.getAll().values()) {
+            if (filter.test(serverConnection)) {
+                links.add(this.getBroadcastLink(serverConnection, channelName));
+            }
+        }
+        return this.writeBroadcast(links, channelName, bytes);
+    }
+
+    /**
+     * Send a packet to a collection of connections
+     *
+     * @param serverConnections receiving connections
+     * @param channelName       ChannelName of this packet
+     * @param bytes             Bytes to send to the clients
+     * @return amount of clients the packet was queued for
+     */
+    private int broadcast(Collection<ServerConnection> serverConnections, ChannelName channelName, byte[] bytes) {
+        List<ServerConnection> links = new ArrayList<>(serverConnections.size());
+        for (ServerConnection serverConnection : serverConnections) {
+            links.add(this.getBroadcastLink(serverConnection, channelName));
+        }
+        return this.writeBroadcast(links, channelName, bytes);
+    }
+
+    /**
+     * Get the link of a client which carries a channel
+     *
+     * @param serverConnection first link of the receiving client
+     * @param channelName      ChannelName of this packet
+     * @return link of the channel
+     */
+    private ServerConnection getBroadcastLink(ServerConnection serverConnection, ChannelName channelName) {
+        ServerConnection link = this.stemLinks.getLink(serverConnection.getUUID(), channelName);
+        return link != null ? link : serverConnection;
+    }
+
+    /**
+     * Queue a packet of a broadcast on every link
+     * Links which can not share the encoded frames are counted, so a broadcast which encrypts per client is logged
+     *
+     * @param links       receiving links
+     * @param channelName ChannelName of this packet, resolved once for the link, priority, channel id and compression
+     * @param bytes       Bytes to send to the clients
+     * @return amount of clients the packet was queued for
+     */
+    private int writeBroadcast(List<ServerConnection> links, ChannelName channelName, byte[] bytes) {
+        Map<List<Object>, List<ByteBuffer>> sharedFrames = new HashMap<>();
+        int queued = 0;
+        int separate = 0;
+        for (ServerConnection link : links) {
+            if (!link.isSharedBroadcast()) {
+                separate++;
+            }
+            if (link.writeBroadcast(channelName, bytes, sharedFrames)) {
+                queued++;
             }
         }
-        return clientsOfType;
+        if (separate > SEPARATE_BROADCAST_WARNING) {
+            String message = "Broadcast on channel " + channelName.getName() + " is encrypted separately for " + separate + " of " + links.size()
+                    + " clients, because they use session keys of a negotiated cipher suite without the broadcast key";
+            /* Every broadcast to these older clients gets here, so only the first one is a warning */
+            this.stemLinkWrapper.log(message, this.separateBroadcastLogged.compareAndSet(false, true) ? Level.WARNING : Level.FINE);
+        }
+        return queued;
+    }
+
+    /**
+     * Set the allowed cipher suites in preference order
+     * The first suite of this list which the client offers is used for new connections
+     *
+     * @param cipherSuites allowed CipherSuites
+     */
+    public void setCipherSuites(CipherSuite... cipherSuites) {
+        this.cipherSuites = Arrays.asList(cipherSuites);
+    }
+
+    /**
+     * Set the maximum size of a message received from a client
+     * Larger messages close the connection. The length prefix of every frame is checked before the frame is buffered,
+     * fragments while they are reassembled and compressed payloads while they are inflated, so one message of a client
+     * never makes the server allocate much more than this size
+     * Used for new connections
+     *
+     * @param maxMessageSize maximum size in bytes after reassembly and decompression
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize < 1) {
+            throw new IllegalArgumentException("Invalid max message size " + maxMessageSize);
+        }
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Set how long session tickets of clients are valid
+     * Clients with a valid ticket resume their session after a reconnect without the full handshake
+     *
+     * @param sessionTicketLifetime lifetime in milliseconds, 0 to disable session resumption
+     */
+    public void setSessionTicketLifetime(long sessionTicketLifetime) {
+        if (sessionTicketLifetime < 0) {
+            throw new IllegalArgumentException("Invalid session ticket lifetime " + sessionTicketLifetime);
+        }
+        this.sessionTicketLifetime = sessionTicketLifetime;
+    }
+
+    /**
+     * Set the maximum amount of frames which are packed into one gathering write
+     * Used for new connections, frames are flushed at the end of every EventLoop pass
+     *
+     * @param flushPolicy FlushPolicy for the client connections
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * Get the CompressionManager of all client connections
+     * Channel compression settings apply to outgoing packets of every client which supports the algorithm
+     *
+     * @return CompressionManager of this server
+     */
+    public CompressionManager getCompressionManager() {
+        return this.compressionManager;
+    }
+
+    /**
+     * Get the channel priorities of all client connections
+     * Priorities apply to the send queues and the event dispatch of every client
+     *
+     * @return ChannelPriorities of this server
+     */
+    public ChannelPriorities getChannelPriorities() {
+        return this.channelPriorities;
+    }
+
+    /**
+     * Get the BufferPool shared by all client connections
+     *
+     * @return BufferPool of this server
+     */
+    public BufferPool getBufferPool() {
+        return this.bufferPool;
     }
 
     /**
@@ -175,4 +497,14 @@ public class StemLinkServer implements Runnable {
         this.eventBus.unregister(classInstance);
     }
 
+    /**
+     * Register a named executor for event handlers with ThreadMode.EXECUTOR
+     *
+     * @param name     name of the executor in the EventHandler annotation
+     * @param executor Executor for the handlers
+     */
+    public void registerExecutor(String name, Executor executor) {
+        this.eventBus.registerExecutor(name, executor);
+    }
+
 }
\ No newline at end of file